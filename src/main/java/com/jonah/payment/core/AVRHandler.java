@@ -5,36 +5,45 @@ import com.jonah.payment.data.TapEvent;
 import com.jonah.payment.data.DenylistDAO;
 import com.jonah.payment.data.SeenCardDAO;
 import com.jonah.payment.data.TapEventDAO;
+import com.jonah.payment.network.AcquirerResponse;
 import com.jonah.payment.network.AcquirerSimulator;
 
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * AVRHandler processes Account Verification Requests (AVR) for entry tap events.
  * It performs denylist checks, logs seen cards, and sends AVR to the acquirer.
+ * Cards verified recently can be approved from an AVRResultCache without a new AVR.
  */
 public class AVRHandler {
 
     private final AcquirerSimulator aquirer;      // Visa acquirer interface (real or simulated)
-    private final Connection conn;                // Active DB connection
     private final TapEventDAO tapEventDAO;        // DAO for tap event logging
     private final DenylistDAO denylistDAO;        // DAO for checking/storing denylisted PANs
     private final SeenCardDAO seenCardDAO;        // DAO for first-seen card tracking
+    private final StandInAuthorizer standIn;      // Local approval when the AVR is slow, or null to always wait
+    private final AVRResultCache avrCache;        // Recent acquirer approvals, or null to send every AVR
 
     /**
-     * Constructs an AVRHandler with required dependencies.
+     * Constructs an AVRHandler over DAOs shared with the rest of the servlet.
      *
-     * @param acquirer Acquirer client (real or simulated).
-     * @param conn     Active JDBC connection to Oracle.
+     * @param acquirer    Acquirer client (real or simulated).
+     * @param tapEventDAO DAO for tap event logging.
+     * @param denylistDAO DAO for checking/storing denylisted PANs.
+     * @param seenCardDAO DAO for first-seen card tracking.
+     * @param standIn     Stand-in authorizer, or null to always wait for the acquirer.
+     * @param avrCache    Cache of recent approvals, or null to send every AVR.
      */
-    public AVRHandler(AcquirerSimulator acquirer, Connection conn) {
+    public AVRHandler(AcquirerSimulator acquirer, TapEventDAO tapEventDAO, DenylistDAO denylistDAO, SeenCardDAO seenCardDAO,
+                      StandInAuthorizer standIn, AVRResultCache avrCache) {
         this.aquirer = acquirer;
-        this.conn = conn;
-        this.tapEventDAO = new TapEventDAO(this.conn);
-        this.denylistDAO = new DenylistDAO(this.conn);
-        this.seenCardDAO = new SeenCardDAO(this.conn);
+        this.tapEventDAO = tapEventDAO;
+        this.denylistDAO = denylistDAO;
+        this.seenCardDAO = seenCardDAO;
+        this.standIn = standIn;
+        this.avrCache = avrCache;
     }
 
     /**
@@ -46,41 +55,109 @@ public class AVRHandler {
      * @return true if AVR is approved and not denylisted, false otherwise.
      */
     public boolean processAVR(PaymentRequest request, TapEvent tap) {
+        try {
+            if (!prepareAVR(request, tap)) {
+                return false;
+            }
+
+            // Call Visa/acquirer for real-time account verification (or stand in for it)
+            AcquirerResponse response = sendAVR(request, tap).join();
+
+            return completeAVR(request, tap, response);
+
+        } catch (SQLException e) {
+            System.err.println("\u274C AVR DB error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Database stage run before the acquirer is contacted: logs the tap,
+     * records first-seen cards and enforces the denylist.
+     *
+     * @param request The full payment request.
+     * @param tap     Tap event object extracted from the request.
+     * @return true if the tap may proceed to the acquirer, false if the PAN is denylisted.
+     * @throws SQLException if any DB operation fails.
+     */
+    public boolean prepareAVR(PaymentRequest request, TapEvent tap) throws SQLException {
         String pan = request.getCardData().getPan();
 
-        try {
-            // Always log the tap first (even if it’s later denied)
-            tapEventDAO.insert(tap, true);
+        // Always log the tap first (even if it’s later denied)
+        tapEventDAO.insert(tap, true);
 
-            // Check if card has been seen before; if not, mark as first seen
-            if (!seenCardDAO.hasSeenCard(pan)) {
-                seenCardDAO.insert(pan);
-                System.out.println("\uD83D\uDC40 First time seeing PAN: " + pan);
-            }
+        // Mark the card as seen; the upsert reports whether this is its first sighting
+        tap.setFirstSeen(seenCardDAO.markSeen(tap.getHashedPan()));
+        if (tap.isFirstSeen()) {
+            System.out.println("\uD83D\uDC40 First time seeing PAN: " + pan);
+        }
 
-            // Denylist enforcement: immediately reject if PAN is listed
-            if (denylistDAO.isDenied(pan)) {
-                System.out.println("\u274C PAN is denylisted: " + pan);
-                return false;
-            }
+        // Denylist enforcement: immediately reject if PAN is listed
+        if (denylistDAO.isDenied(tap.getHashedPan())) {
+            System.out.println("\u274C PAN is denylisted: " + pan);
+            return false;
+        }
+        return true;
+    }
 
-            // Call Visa/acquirer for real-time account verification
-            boolean approved = aquirer.sendAVR(request);
+    /**
+     * Acquirer stage: approves from the AVR cache when the card was verified recently,
+     * otherwise sends the AVR, or lets the stand-in authorizer decide when configured.
+     *
+     * @param request The full payment request.
+     * @param tap     Tap event that passed prepareAVR.
+     * @return A future completed with the cached, acquirer's (or the stand-in) response.
+     */
+    public CompletableFuture<AcquirerResponse> sendAVR(PaymentRequest request, TapEvent tap) {
+        if (avrCache == null) {
+            return standIn != null ? standIn.authorize(request, tap) : aquirer.sendAVRAsync(request);
+        }
 
-            if (!approved) {
-                // If declined by Visa, proactively denylist the PAN
-                denylistDAO.addToDenylist(pan);
-                System.out.println("\uD83D\uDEAB AVR declined — PAN added to denylist");
-                return false;
+        AcquirerResponse cached = avrCache.lookup(tap.getHashedPan(), tap.getExpiry());
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<AcquirerResponse> response = standIn != null ? standIn.authorize(request, tap) : aquirer.sendAVRAsync(request);
+        return response.thenApply(r -> {
+            // Only a live acquirer approval vouches for the card.
+            if (r.isApproved() && !StandInAuthorizer.isStandIn(r)) {
+                avrCache.approved(tap.getHashedPan(), tap.getExpiry());
             }
+            return r;
+        });
+    }
 
-            System.out.println("\u2705 AVR approved: " + pan);
-            return true;
+    /**
+     * Database stage run once the acquirer has answered the AVR.
+     * Declined cards are proactively denylisted; approved entries open a journey.
+     * An ERROR (acquirer unavailable) denies the entry without denylisting the card.
+     *
+     * @param request  The full payment request.
+     * @param tap      Tap event object extracted from the request.
+     * @param response Response returned by the acquirer.
+     * @return true if the entry is approved, false otherwise.
+     * @throws SQLException if denylisting the PAN fails.
+     */
+    public boolean completeAVR(PaymentRequest request, TapEvent tap, AcquirerResponse response) throws SQLException {
+        String pan = request.getCardData().getPan();
 
-        } catch (SQLException e) {
-            System.err.println("\u274C AVR DB error: " + e.getMessage());
+        if (response.isError()) {
+            System.out.println("\u26A0\uFE0F AVR unavailable (" + response + ") — entry denied, PAN not denylisted");
             return false;
         }
+
+        if (!response.isApproved()) {
+            // If declined by Visa, proactively denylist the PAN
+            denylistDAO.addToDenylist(tap.getHashedPan());
+            System.out.println("\uD83D\uDEAB AVR declined — PAN added to denylist");
+            return false;
+        }
+
+        // Remember the open journey so the exit can be matched in memory
+        tapEventDAO.openJourney(tap);
+
+        System.out.println("\u2705 AVR approved: " + pan);
+        return true;
     }
 }
 
@@ -0,0 +1,132 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.utils.HashedPan;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AVRResultCache remembers cards the acquirer verified recently, so a commuter's repeat
+ * entries within the approval lifetime skip the AVR round trip.
+ *
+ * Only live acquirer approvals are cached; declines, errors and stand-in approvals never are.
+ * An approval covers one (hashed PAN, expiry date) pair: a reissued card with a new expiry
+ * date is verified again. The cache is bounded and evicts the least recently used card, and
+ * a card is dropped as soon as it is denylisted (see DenylistDAO.addDenylistListener).
+ * The denylist itself is still checked before the cache is consulted.
+ */
+public class AVRResultCache {
+
+    // Response reported for an entry approved from the cache.
+    private static final AcquirerResponse CACHED = new AcquirerResponse(AcquirerResponse.Outcome.APPROVED, 200, 0);
+
+    private final long lifetimeNanos;                  // How long an approval is trusted
+    private final int maxEntries;                      // Cards kept before LRU eviction
+    private final Map<HashedPan, Approval> approvals;  // Hashed PAN -> latest approval, in LRU order
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();          // Entries approved without an AVR
+    private final AtomicLong misses = new AtomicLong();        // Entries that needed an AVR
+    private final AtomicLong expired = new AtomicLong();       // Approvals found past their lifetime
+    private final AtomicLong evictions = new AtomicLong();     // Approvals evicted for space
+    private final AtomicLong invalidations = new AtomicLong(); // Approvals dropped by denylisting
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param lifetime   How long an acquirer approval is reused.
+     * @param maxEntries Cards kept; the least recently used is evicted beyond this.
+     */
+    public AVRResultCache(Duration lifetime, int maxEntries) {
+        this.lifetimeNanos = lifetime.toNanos();
+        this.maxEntries = maxEntries;
+        this.approvals = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HashedPan, Approval> eldest) {
+                if (size() > AVRResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up a recent approval for the card.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @param expiry    Card expiry date from the tap
+     * @return An APPROVED response if the card was verified within the lifetime, else null.
+     */
+    public synchronized AcquirerResponse lookup(HashedPan hashedPan, String expiry) {
+        Approval approval = approvals.get(hashedPan);
+        if (approval == null || !Objects.equals(approval.expiry, expiry)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.nanoTime() - approval.approvedNanos > lifetimeNanos) {
+            approvals.remove(hashedPan);
+            expired.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return CACHED;
+    }
+
+    /**
+     * Records an acquirer approval for the card.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @param expiry    Card expiry date the approval was given for
+     */
+    public synchronized void approved(HashedPan hashedPan, String expiry) {
+        approvals.put(hashedPan, new Approval(expiry, System.nanoTime()));
+    }
+
+    /**
+     * Forgets the card's approval, e.g. because it was just denylisted.
+     *
+     * @param hashedPan Hashed PAN of the card
+     */
+    public synchronized void invalidate(HashedPan hashedPan) {
+        if (approvals.remove(hashedPan) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return Number of cards with a cached approval (including ones past their lifetime).
+     */
+    public synchronized int size() {
+        return approvals.size();
+    }
+
+    /**
+     * @return A one-line summary of the cache metrics.
+     */
+    public String describeMetrics() {
+        long total = hits.get() + misses.get();
+        return String.format("avr-cache size=%d hits=%d misses=%d hitRate=%.3f expired=%d evictions=%d invalidations=%d",
+                size(), hits.get(), misses.get(), total == 0 ? 0.0 : (double) hits.get() / total,
+                expired.get(), evictions.get(), invalidations.get());
+    }
+
+    /**
+     * An approval for one expiry date, timestamped with System.nanoTime().
+     */
+    private static final class Approval {
+        final String expiry;
+        final long approvedNanos;
+
+        Approval(String expiry, long approvedNanos) {
+            this.expiry = expiry;
+            this.approvedNanos = approvedNanos;
+        }
+    }
+}
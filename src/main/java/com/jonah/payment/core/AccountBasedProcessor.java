@@ -3,25 +3,98 @@ package com.jonah.payment.core;
 import com.jonah.payment.data.TapEvent;
 import com.jonah.payment.data.PaymentRequest;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 
 /**
  * AccountBasedProcessor is responsible for calculating transit fares based on entry and exit tap events.
  * It operates on the principle of account-based ticketing, where fare computation is delayed until exit.
+ * The fare itself comes from a pluggable FareCalculator (e.g. a compiled FareTable), and is then
+ * reduced by an optional FareCapper so a card's daily and weekly totals stay within their caps.
  */
 public class AccountBasedProcessor {
 
+    // Charges one dollar per second between entry and exit (demonstration only).
+    public static final FareCalculator PER_SECOND_FARE = AccountBasedProcessor::calculateFare;
+
+    private final FareCalculator fareCalculator; // Prices a journey from its entry and exit taps
+    private final FareCapper fareCapper;         // Daily and weekly caps, or null to charge fares in full
+
+    /**
+     * Constructs a processor using the per-second demonstration fare.
+     */
+    public AccountBasedProcessor() {
+        this(PER_SECOND_FARE);
+    }
+
+    /**
+     * Constructs a processor using the given fare calculator.
+     *
+     * @param fareCalculator Calculator applied to each completed journey.
+     */
+    public AccountBasedProcessor(FareCalculator fareCalculator) {
+        this(fareCalculator, null);
+    }
+
+    /**
+     * Constructs a processor using the given fare calculator and fare caps.
+     *
+     * @param fareCalculator Calculator applied to each completed journey.
+     * @param fareCapper     Caps applied to each fare, or null to charge fares in full.
+     */
+    public AccountBasedProcessor(FareCalculator fareCalculator, FareCapper fareCapper) {
+        this.fareCalculator = fareCalculator;
+        this.fareCapper = fareCapper;
+    }
+
     /**
-     * Processes a completed tap-out event by calculating the fare between entry and exit.
+     * Processes a completed tap-out event by calculating the fare between entry and exit
+     * and reserving it against the card's fare caps, if configured.
      * The method directly modifies the PaymentRequest object to set the calculated fare amount.
      *
      * @param payment The mutable PaymentRequest to populate with fare.
      * @param enter The entry TapEvent marking when the rider entered the system.
      * @param exit The exit TapEvent marking when the rider left the system.
+     * @return The fare cap reservation to commit or release once the fare is authorized, or null without caps.
      */
-    public void processTapFare(PaymentRequest payment, TapEvent enter, TapEvent exit) {
-        payment.setAmount(calculateFare(enter, exit));
+    public FareCapper.Reservation processTapFare(PaymentRequest payment, TapEvent enter, TapEvent exit) {
+        double fare = fareCalculator.calculateFare(enter, exit);
+        FareCapper.Reservation reservation = null;
+        if (fareCapper != null) {
+            TapEvent start = enter != null ? enter : exit;
+            reservation = fareCapper.reserve(exit.getHashedPan(), start.getTimestamp(), fare);
+            fare = reservation.amount();
+        }
+        payment.setAmount(fare);
+        return reservation;
+    }
+
+    /**
+     * Adds an authorized fare to the card's capping totals.
+     *
+     * @param reservation Reservation returned by processTapFare, or null.
+     */
+    public void commitFare(FareCapper.Reservation reservation) {
+        if (reservation == null) {
+            return;
+        }
+        try {
+            fareCapper.commit(reservation);
+        } catch (IOException e) {
+            System.err.println("\u26A0\uFE0F Fare caps unavailable, charged fare not counted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the reserved headroom of a fare that was not authorized.
+     *
+     * @param reservation Reservation returned by processTapFare, or null.
+     */
+    public void releaseFare(FareCapper.Reservation reservation) {
+        if (reservation != null) {
+            fareCapper.release(reservation);
+        }
     }
 
     /**
@@ -31,8 +104,13 @@ public class AccountBasedProcessor {
      * @param enter The entry tap event.
      * @param exit The exit tap event.
      * @return The number of seconds spent in the system, treated as the fare.
+     * @throws IllegalArgumentException If there is no entry to measure from.
      */
-    private double calculateFare(TapEvent enter, TapEvent exit) {
+    private static double calculateFare(TapEvent enter, TapEvent exit) {
+        if (enter == null) {
+            throw new IllegalArgumentException("Per-second fare needs an entry tap; none found for this exit");
+        }
+
         // Extract timestamps from entry and exit events
         LocalDateTime entryTime = enter.getTimestamp();
         LocalDateTime exitTime = exit.getTimestamp();
@@ -44,7 +122,3 @@ public class AccountBasedProcessor {
         return fare;
     }
 }
-
-
-
-
@@ -0,0 +1,222 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.data.PaymentResponse;
+import com.jonah.payment.data.TapEvent;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AcquirerSimulator;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AsyncTapPipeline processes taps off the servlet container threads.
+ * Each tap is split into a DB stage, an acquirer stage and a final DB stage.
+ * DB stages run on a bounded executor; the acquirer stage is a non-blocking call,
+ * so no thread waits on the network and DB work for other taps overlaps acquirer I/O.
+ * When the DB executor is saturated or too many acquirer calls are in flight the
+ * tap is rejected with 503 instead of queueing without limit. Once the acquirer
+ * has answered, the final stage runs on a separate executor that never rejects
+ * work, so an approved charge is always recorded; an exit that fails before that
+ * stage releases its entry claim and fare reservation.
+ */
+public class AsyncTapPipeline {
+
+    private final AVRHandler avrHandler;                     // Entry tap stages
+    private final AuthorizationHandler authorizationHandler; // Exit tap stages
+    private final AcquirerSimulator acquirer;                // Visa acquirer interface (real or simulated)
+    private final ExecutorService dbExecutor;                // Runs Oracle work before the acquirer call
+    private final ExecutorService completionExecutor;        // Runs Oracle work after the acquirer answered
+    private final Semaphore acquirerPermits;                 // Bounds acquirer calls in flight
+
+    /**
+     * Constructs the pipeline and its bounded executors.
+     *
+     * @param avrHandler           Handler providing the entry tap stages.
+     * @param authorizationHandler Handler providing the exit tap stages.
+     * @param acquirer             Acquirer client (real or simulated).
+     * @param dbThreads            Number of threads for each of the DB stage executors.
+     * @param acquirerInFlight     Maximum acquirer calls in flight before taps are rejected.
+     * @param queueCapacity        Maximum taps waiting for a DB thread before rejection.
+     */
+    public AsyncTapPipeline(AVRHandler avrHandler, AuthorizationHandler authorizationHandler, AcquirerSimulator acquirer,
+                            int dbThreads, int acquirerInFlight, int queueCapacity) {
+        this.avrHandler = avrHandler;
+        this.authorizationHandler = authorizationHandler;
+        this.acquirer = acquirer;
+        this.dbExecutor = newBoundedExecutor("tap-db", dbThreads, queueCapacity);
+        this.completionExecutor = newUnboundedExecutor("tap-complete", dbThreads);
+        this.acquirerPermits = new Semaphore(acquirerInFlight);
+    }
+
+    /**
+     * Submits a tap for asynchronous processing.
+     *
+     * @param payment The parsed payment request.
+     * @param tap     Tap event extracted from the request.
+     * @return A future completed with the response to send to the terminal.
+     */
+    public CompletableFuture<PaymentResponse> submit(PaymentRequest payment, TapEvent tap) {
+        CompletableFuture<PaymentResponse> result = tap.getMode().equals("entry")
+                ? submitEntry(payment, tap)
+                : submitExit(payment, tap);
+
+        // Saturated executors surface as rejections at any stage.
+        return result.exceptionally(e -> {
+            if (unwrap(e) instanceof RejectedExecutionException) {
+                System.err.println("\u26A0\uFE0F Tap pipeline saturated, rejecting tap at " + tap.getTerminalId());
+                return new PaymentResponse(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Busy");
+            }
+            e.printStackTrace();
+            return new PaymentResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server Error");
+        });
+    }
+
+    /**
+     * Runs an entry tap: DB checks, AVR, then denylisting on decline.
+     * DB failures deny the entrance, matching AVRHandler.processAVR.
+     */
+    private CompletableFuture<PaymentResponse> submitEntry(PaymentRequest payment, TapEvent tap) {
+        return CompletableFuture
+                .supplyAsync(() -> call(() -> avrHandler.prepareAVR(payment, tap)), dbExecutor)
+                .thenCompose(allowed -> allowed
+                        ? callAcquirer(() -> avrHandler.sendAVR(payment, tap))
+                        : CompletableFuture.completedFuture(new AcquirerResponse(AcquirerResponse.Outcome.DECLINED, 0, 0)))
+                .thenApplyAsync(response -> call(() -> avrHandler.completeAVR(payment, tap, response)), completionExecutor)
+                .exceptionally(e -> {
+                    Throwable cause = unwrap(e);
+                    if (cause instanceof RejectedExecutionException) {
+                        throw new CompletionException(cause);
+                    }
+                    System.err.println("\u274C AVR DB error: " + cause.getMessage());
+                    return false;
+                })
+                .thenApply(approved -> {
+                    System.out.println(approved
+                            ? "\u2705 Approved entrance at " + tap.getTerminalId()
+                            : "\u274C Denied entrance at " + tap.getTerminalId());
+                    return PaymentProcessorServlet.toResponse(approved);
+                });
+    }
+
+    /**
+     * Runs an exit tap: entry claim and fare, authorization, then logging the outcome.
+     * If the acquirer stage fails (e.g. it is rejected), the claim and fare are released.
+     */
+    private CompletableFuture<PaymentResponse> submitExit(PaymentRequest payment, TapEvent tap) {
+        return CompletableFuture
+                .supplyAsync(() -> call(() -> authorizationHandler.prepareAuthorization(payment, tap)), dbExecutor)
+                .thenCompose(prepared -> callAcquirer(() -> authorizationHandler.sendAuthorization(payment, tap))
+                        .handleAsync((response, e) -> call(() -> {
+                            if (e != null) {
+                                authorizationHandler.abandonAuthorization(prepared);
+                                throw new CompletionException(unwrap(e));
+                            }
+                            authorizationHandler.completeAuthorization(payment, tap, prepared, response);
+                            return response.isApproved();
+                        }), completionExecutor))
+                .thenApply(approved -> {
+                    System.out.println(approved
+                            ? String.format("\u2705 Approved exit at %s: fare $%.2f", tap.getTerminalId(), payment.getAmount())
+                            : "\u274C Denied exit at " + tap.getTerminalId());
+                    return PaymentProcessorServlet.toResponse(approved);
+                });
+    }
+
+    /**
+     * Starts a non-blocking acquirer call if a permit is free, releasing it when the call completes.
+     * Without a permit the stage fails with RejectedExecutionException, like a saturated executor.
+     */
+    private CompletableFuture<AcquirerResponse> callAcquirer(Supplier<CompletableFuture<AcquirerResponse>> call) {
+        if (!acquirerPermits.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many acquirer calls in flight"));
+        }
+        try {
+            return call.get()
+                    .whenComplete((response, e) -> acquirerPermits.release());
+        } catch (RuntimeException e) {
+            acquirerPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a task on the DB executor without waiting for it (e.g. debug output).
+     *
+     * @param task Work to run.
+     */
+    public void runOnDbExecutor(Runnable task) {
+        try {
+            dbExecutor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // Best-effort work is dropped when the pipeline is saturated.
+        }
+    }
+
+    /**
+     * Stops accepting taps and waits briefly for in-flight stages to finish.
+     */
+    public void shutdown() {
+        dbExecutor.shutdown();
+        try {
+            dbExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            completionExecutor.shutdown();
+            completionExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a fixed-size executor with a bounded queue that rejects work when full.
+     */
+    private static ExecutorService newBoundedExecutor(String name, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads(name), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Creates a fixed-size executor whose queue never rejects work. Its backlog is bounded
+     * by the taps admitted through the DB executor and the acquirer permits.
+     */
+    private static ExecutorService newUnboundedExecutor(String name, int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads(name));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Runs a stage that may throw a checked exception, rethrowing it unchecked
+     * so it completes the future exceptionally.
+     */
+    private static <T> T call(Callable<T> stage) {
+        try {
+            return stage.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Strips CompletionException wrappers to reach the underlying cause.
+     */
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
@@ -0,0 +1,189 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.data.TapEvent;
+import com.jonah.payment.data.DenylistDAO;
+import com.jonah.payment.data.EntryClaim;
+import com.jonah.payment.data.TapEventDAO;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AcquirerSimulator;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AuthorizationHandler processes exit tap events. It matches the exit with the
+ * rider's open entry, calculates the fare, and sends the authorization to the acquirer,
+ * or adds the fare to the card's ledger when fares are aggregated.
+ */
+public class AuthorizationHandler {
+
+    private final AcquirerSimulator acquirer;          // Visa acquirer interface (real or simulated)
+    private final TapEventDAO tapEventDAO;             // DAO for tap event logging and entry claims
+    private final DenylistDAO denylistDAO;             // DAO for denylisting declined PANs
+    private final AccountBasedProcessor fareProcessor; // Fare calculation logic
+    private final FareAggregator fareAggregator;       // Aggregates fares into periodic authorizations, or null
+
+    /**
+     * Constructs an AuthorizationHandler over DAOs shared with the rest of the servlet.
+     *
+     * @param acquirer       Acquirer client (real or simulated).
+     * @param tapEventDAO    DAO for tap event logging and entry claims.
+     * @param denylistDAO    DAO for denylisting declined PANs.
+     * @param fareProcessor  Fare calculator applied between entry and exit.
+     * @param fareAggregator Fare aggregator, or null to authorize every exit individually.
+     */
+    public AuthorizationHandler(AcquirerSimulator acquirer, TapEventDAO tapEventDAO, DenylistDAO denylistDAO,
+                                AccountBasedProcessor fareProcessor, FareAggregator fareAggregator) {
+        this.acquirer = acquirer;
+        this.tapEventDAO = tapEventDAO;
+        this.denylistDAO = denylistDAO;
+        this.fareProcessor = fareProcessor;
+        this.fareAggregator = fareAggregator;
+    }
+
+    /**
+     * Main entry point for processing a contactless exit tap.
+     * Claims the entry, prices the journey, authorizes it and records the outcome.
+     *
+     * @param payment The mutable PaymentRequest; its amount is set to the calculated fare.
+     * @param tap     Exit tap event extracted from the request.
+     * @return true if the fare was authorized, false otherwise.
+     * @throws SQLException if claiming the entry or recording the exit fails.
+     */
+    public boolean processAuthorization(PaymentRequest payment, TapEvent tap) throws SQLException {
+        PreparedExit prepared = prepareAuthorization(payment, tap);
+
+        // Send authorization request to Visa/acquirer (or add the fare to the ledger).
+        AcquirerResponse response;
+        try {
+            response = sendAuthorization(payment, tap).join();
+        } catch (RuntimeException e) {
+            abandonAuthorization(prepared);
+            throw e;
+        }
+
+        completeAuthorization(payment, tap, prepared, response);
+        return response.isApproved();
+    }
+
+    /**
+     * Database stage run before the acquirer is contacted: claims the most recent
+     * unmatched approved entry (closing it with the exit time) and sets the fare
+     * on the PaymentRequest, reserving it against the card's fare caps.
+     *
+     * @param payment The mutable PaymentRequest to populate with fare.
+     * @param tap     Exit tap event extracted from the request.
+     * @return The entry claim (null if there was none) and fare cap reservation, to settle on completion.
+     * @throws SQLException if claiming the entry fails.
+     */
+    public PreparedExit prepareAuthorization(PaymentRequest payment, TapEvent tap) throws SQLException {
+        // Claim most recent unmatched approved entry tap in one round trip.
+        EntryClaim claim = tapEventDAO.claimOpenEntry(tap);
+
+        // Calculate fare and set amount in PaymentRequest; a fare that cannot be priced reopens the entry.
+        try {
+            FareCapper.Reservation reservation = fareProcessor.processTapFare(payment, claim == null ? null : claim.getEntry(), tap);
+            return new PreparedExit(claim, reservation);
+        } catch (RuntimeException e) {
+            abandonAuthorization(new PreparedExit(claim, null));
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the entry claim and fare reservation of an exit that failed before the
+     * acquirer answered (e.g. the call was rejected), so the rider is not left with a
+     * locked entry or a held fare. Failures are logged, as the tap has already failed.
+     *
+     * @param prepared Result of prepareAuthorization.
+     */
+    public void abandonAuthorization(PreparedExit prepared) {
+        fareProcessor.releaseFare(prepared.getReservation());
+        if (prepared.getClaim() != null) {
+            try {
+                tapEventDAO.releaseClaim(prepared.getClaim());
+            } catch (SQLException e) {
+                System.err.println("\u274C Failed to release entry claim: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Acquirer stage: with fare aggregation the fare is added to the card's ledger
+     * and the exit approved without contacting the acquirer; otherwise, or if the
+     * ledger cannot be written, the fare is authorized directly.
+     *
+     * @param payment The PaymentRequest carrying the calculated fare.
+     * @param tap     Exit tap event extracted from the request.
+     * @return A future completed with the acquirer's response, or an immediate approval.
+     */
+    public CompletableFuture<AcquirerResponse> sendAuthorization(PaymentRequest payment, TapEvent tap) {
+        if (fareAggregator != null) {
+            long start = System.nanoTime();
+            try {
+                fareAggregator.accrue(payment, tap);
+                return CompletableFuture.completedFuture(AcquirerResponse.fromStatus(200, start));
+            } catch (SQLException e) {
+                System.err.println("\u26A0\uFE0F Fare ledger unavailable, authorizing exit directly: " + e.getMessage());
+            }
+        }
+        return acquirer.sendAuthorizationAsync(payment);
+    }
+
+    /**
+     * Database stage run once the acquirer has answered: counts the fare towards
+     * the card's caps and confirms the entry claim on approval, otherwise releases
+     * both; logs the exit tap, and on decline denylists the PAN. An ERROR (acquirer
+     * unavailable) releases them without denylisting the card.
+     *
+     * @param payment  The authorized PaymentRequest.
+     * @param tap      Exit tap event extracted from the request.
+     * @param prepared Result of prepareAuthorization.
+     * @param response Response returned by the acquirer.
+     * @throws SQLException if logging the exit or confirming/releasing the claim fails; the claim
+     *                      is still confirmed or released if only logging the exit failed.
+     */
+    public void completeAuthorization(PaymentRequest payment, TapEvent tap, PreparedExit prepared, AcquirerResponse response)
+            throws SQLException {
+        boolean approved = response.isApproved();
+        EntryClaim claim = prepared.getClaim();
+
+        // Only a charged fare counts towards the caps; settled first, as the charge has happened.
+        if (approved) {
+            fareProcessor.commitFare(prepared.getReservation());
+        } else {
+            fareProcessor.releaseFare(prepared.getReservation());
+        }
+
+        try {
+            // Log this exit tap (whether approved or not).
+            tapEventDAO.insert(tap, approved);
+        } finally {
+            // An approved exit keeps the claim and closes the entry; otherwise the entry
+            // is reopened so that a later exit can still be charged for it.
+            if (claim != null && approved) {
+                tapEventDAO.confirmClaim(claim, tap.getTimestamp());
+            } else if (claim != null) {
+                tapEventDAO.releaseClaim(claim);
+            }
+        }
+
+        if (approved) {
+            return;
+        }
+
+        // No decision from the acquirer says nothing about the card.
+        if (response.isError()) {
+            System.out.println("\u26A0\uFE0F Authorization unavailable (" + response + ") — PAN not denylisted");
+            return;
+        }
+
+        // Denylist PAN if authorization fails.
+        try {
+            denylistDAO.addToDenylist(tap.getHashedPan());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
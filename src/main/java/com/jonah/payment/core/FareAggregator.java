@@ -0,0 +1,355 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.CardData;
+import com.jonah.payment.data.DenylistDAO;
+import com.jonah.payment.data.FareLedgerDAO;
+import com.jonah.payment.data.FareLedgerEntry;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.data.TapEvent;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AcquirerSimulator;
+import com.jonah.payment.utils.CryptoUtils;
+import com.jonah.payment.utils.HashedPan;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FareAggregator takes fare authorization off the exit gate: each exit's fare is
+ * added to the card's ledger entry (one upsert) and the gate opens at once. A
+ * background pass then sends one authorization per card for its accumulated total
+ * when the card's window closes (a fixed duration, or a daily cut-off time) or the
+ * total reaches the value threshold, whichever comes first.
+ *
+ * The ledger is kept in memory and written through to fare_ledger, so unsettled
+ * fares survive restarts. Authorized amounts are subtracted rather than deleted,
+ * so fares accrued while an authorization is in flight are kept. An approved total
+ * leaves the in-memory ledger at once; if fare_ledger cannot be updated, the update
+ * is retried by each pass and once more on close, so an approved amount is never
+ * authorized again. A declined total denylists the card and stays in the ledger for
+ * the next window; after an acquirer error the total is resubmitted by the next pass
+ * once its window has closed.
+ *
+ * The aggregated authorization is a deferred one carrying the card details only: a
+ * tap's EMV cryptogram covers that tap's amount and is not replayed for the total.
+ */
+public class FareAggregator implements AutoCloseable {
+
+    // Separates card fields in the encrypted card data.
+    private static final String FIELD_SEPARATOR = "\u001F";
+
+    private final AcquirerSimulator acquirer;      // Visa acquirer interface (real or simulated)
+    private final FareLedgerDAO ledgerDAO;         // Durable copy of the ledger
+    private final DenylistDAO denylistDAO;         // Denylists cards whose aggregated total is declined
+    private final Duration window;                 // Longest a fare waits before it is authorized
+    private final LocalTime dailyCutoff;           // If set, windows close at this time of day instead
+    private final double thresholdAmount;          // Totals reaching this are authorized immediately
+    private final Map<HashedPan, FareLedgerEntry> ledger = new ConcurrentHashMap<>(); // Unsettled fares per card
+    private final Set<HashedPan> submitting = ConcurrentHashMap.newKeySet();           // Cards with an authorization in flight
+    private final Queue<FareLedgerEntry> unsettled = new ConcurrentLinkedQueue<>();    // Approved totals still in fare_ledger
+    private final ScheduledExecutorService settler;                                     // Runs sweeps and threshold submissions
+
+    // Metrics
+    private final AtomicLong journeys = new AtomicLong();       // Fares accrued
+    private final AtomicLong submissions = new AtomicLong();    // Aggregated authorizations sent
+    private final AtomicLong approved = new AtomicLong();       // Aggregated authorizations approved
+    private final AtomicLong declined = new AtomicLong();       // Aggregated authorizations declined
+    private final AtomicLong errors = new AtomicLong();         // Authorizations to retry (acquirer failure)
+    private final AtomicLong ledgerErrors = new AtomicLong();   // Failed fare_ledger updates after an approval
+
+    /**
+     * Constructs the aggregator.
+     *
+     * @param acquirer        Acquirer client (real or simulated).
+     * @param ledgerDAO       DAO for the durable fare ledger.
+     * @param denylistDAO     DAO used to denylist cards whose total is declined.
+     * @param window          Longest a fare waits before it is authorized.
+     * @param dailyCutoff     Time of day at which all windows close (e.g. end of service day), or null to use window.
+     * @param thresholdAmount Total at which a card is authorized without waiting for its window.
+     */
+    public FareAggregator(AcquirerSimulator acquirer, FareLedgerDAO ledgerDAO, DenylistDAO denylistDAO,
+                          Duration window, LocalTime dailyCutoff, double thresholdAmount) {
+        this.acquirer = acquirer;
+        this.ledgerDAO = ledgerDAO;
+        this.denylistDAO = denylistDAO;
+        this.window = window;
+        this.dailyCutoff = dailyCutoff;
+        this.thresholdAmount = thresholdAmount;
+        this.settler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fare-aggregator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Loads the unsettled ledger from fare_ledger.
+     *
+     * @throws SQLException if the table cannot be read
+     */
+    public void load() throws SQLException {
+        ledger.clear();
+        for (FareLedgerEntry entry : ledgerDAO.loadAll()) {
+            ledger.put(entry.getHashedPan(), entry);
+        }
+    }
+
+    /**
+     * Starts the periodic pass that authorizes cards whose window has closed.
+     *
+     * @param intervalMs Delay between passes
+     */
+    public void start(long intervalMs) {
+        settler.scheduleWithFixedDelay(this::sweep, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds an exit's fare to the card's ledger. This replaces the per-exit authorization:
+     * once it returns, the exit can be treated as approved.
+     *
+     * @param payment Exit payment request carrying the fare and card data.
+     * @param exit    Exit tap event.
+     * @throws SQLException if the ledger cannot be written; the fare must then be authorized directly
+     */
+    public void accrue(PaymentRequest payment, TapEvent exit) throws SQLException {
+        HashedPan hashedPan = exit.getHashedPan();
+        double fare = payment.getAmount();
+        byte[] card = encryptCard(payment);
+
+        ledgerDAO.accrue(hashedPan, card, fare, exit.getTimestamp());
+        FareLedgerEntry entry = ledger.compute(hashedPan, (k, e) -> {
+            if (e == null) {
+                return new FareLedgerEntry(k, card, fare, 1, exit.getTimestamp());
+            }
+            e.setEncryptedCard(card);
+            e.setTotal(e.getTotal() + fare);
+            e.setJourneys(e.getJourneys() + 1);
+            return e;
+        });
+        journeys.incrementAndGet();
+
+        if (entry.getTotal() >= thresholdAmount) {
+            try {
+                settler.execute(() -> submit(hashedPan));
+            } catch (RejectedExecutionException e) {
+                // Closed: the fare is in fare_ledger and is authorized after the next start.
+            }
+        }
+    }
+
+    /**
+     * Retries pending fare_ledger updates, then submits every card whose window has closed.
+     * Threshold submissions are made by accrue.
+     */
+    public void sweep() {
+        retrySettlements();
+        LocalDateTime now = LocalDateTime.now();
+        for (FareLedgerEntry entry : ledger.values()) {
+            if (!now.isBefore(windowEnd(entry.getOpenedAt()))) {
+                submit(entry.getHashedPan());
+            }
+        }
+    }
+
+    /**
+     * Returns when a window opened at the given time closes.
+     */
+    private LocalDateTime windowEnd(LocalDateTime openedAt) {
+        if (dailyCutoff == null) {
+            return openedAt.plus(window);
+        }
+        LocalDateTime cutoff = openedAt.toLocalDate().atTime(dailyCutoff);
+        return cutoff.isAfter(openedAt) ? cutoff : cutoff.plusDays(1);
+    }
+
+    /**
+     * Sends one authorization for the card's current total unless one is already in flight.
+     */
+    private void submit(HashedPan hashedPan) {
+        if (!submitting.add(hashedPan)) {
+            return;
+        }
+
+        // Snapshot the total atomically with respect to concurrent accruals.
+        FareLedgerEntry snapshot = new FareLedgerEntry(hashedPan, null, 0, 0, null);
+        ledger.computeIfPresent(hashedPan, (k, e) -> {
+            snapshot.setEncryptedCard(e.getEncryptedCard());
+            snapshot.setTotal(e.getTotal());
+            snapshot.setJourneys(e.getJourneys());
+            return e;
+        });
+        if (snapshot.getJourneys() == 0) {
+            submitting.remove(hashedPan);
+            return;
+        }
+
+        PaymentRequest request;
+        try {
+            request = decryptCard(snapshot.getEncryptedCard());
+        } catch (GeneralSecurityException e) {
+            System.err.println("\u274C Cannot decrypt ledger card data: " + e.getMessage());
+            errors.incrementAndGet();
+            submitting.remove(hashedPan);
+            return;
+        }
+        request.setAmount(Math.round(snapshot.getTotal() * 100) / 100.0);
+
+        submissions.incrementAndGet();
+        acquirer.sendAuthorizationAsync(request).whenComplete((response, e) -> {
+            try {
+                settle(snapshot, e == null ? response : AcquirerResponse.error(System.nanoTime()));
+            } finally {
+                submitting.remove(hashedPan);
+            }
+        });
+    }
+
+    /**
+     * Applies the outcome of an aggregated authorization to the ledger.
+     */
+    private void settle(FareLedgerEntry snapshot, AcquirerResponse response) {
+        HashedPan hashedPan = snapshot.getHashedPan();
+        try {
+            if (response.isApproved()) {
+                // The total is charged: drop it from memory first, so no later pass authorizes it again.
+                ledger.computeIfPresent(hashedPan, (k, e) -> {
+                    e.setTotal(e.getTotal() - snapshot.getTotal());
+                    e.setJourneys(e.getJourneys() - snapshot.getJourneys());
+                    return e.getJourneys() <= 0 ? null : e;
+                });
+                approved.incrementAndGet();
+                System.out.printf("\u2705 Aggregated authorization approved: %d journeys, $%.2f%n",
+                        snapshot.getJourneys(), snapshot.getTotal());
+                settleLedger(snapshot);
+            } else if (response.isError()) {
+                errors.incrementAndGet();
+            } else {
+                // Block further travel and retry the debt in the next window.
+                denylistDAO.addToDenylist(hashedPan);
+                LocalDateTime now = LocalDateTime.now();
+                ledgerDAO.reopen(hashedPan, now);
+                ledger.computeIfPresent(hashedPan, (k, e) -> {
+                    e.setOpenedAt(now);
+                    return e;
+                });
+                declined.incrementAndGet();
+                System.out.printf("\uD83D\uDEAB Aggregated authorization declined: $%.2f — PAN added to denylist%n",
+                        snapshot.getTotal());
+            }
+        } catch (SQLException e) {
+            errors.incrementAndGet();
+            System.err.println("\u274C Fare ledger update failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Subtracts an approved total from fare_ledger, queueing it for the next pass on failure.
+     */
+    private void settleLedger(FareLedgerEntry snapshot) {
+        try {
+            ledgerDAO.settle(snapshot.getHashedPan(), snapshot.getTotal(), snapshot.getJourneys());
+        } catch (SQLException e) {
+            ledgerErrors.incrementAndGet();
+            unsettled.add(snapshot);
+            System.err.printf("\u274C Fare ledger update failed, approved $%.2f kept for retry: %s%n",
+                    snapshot.getTotal(), e.getMessage());
+        }
+    }
+
+    /**
+     * Retries the fare_ledger updates that failed after an approval, each at most once.
+     */
+    private void retrySettlements() {
+        for (int pending = unsettled.size(); pending > 0; pending--) {
+            FareLedgerEntry snapshot = unsettled.poll();
+            if (snapshot == null) {
+                return;
+            }
+            settleLedger(snapshot);
+        }
+    }
+
+    /**
+     * Encrypts the card fields needed to authorize the card later. The tap's cryptogram is
+     * not kept: it is bound to that tap's amount and cannot authorize the aggregated total.
+     */
+    private static byte[] encryptCard(PaymentRequest payment) {
+        CardData card = payment.getCardData();
+        String fields = String.join(FIELD_SEPARATOR, nonNull(card.getPan()), nonNull(card.getExpiry()),
+                nonNull(card.getAid()), nonNull(payment.getCurrency()));
+        try {
+            return CryptoUtils.encrypt(fields.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Card data encryption is not available", e);
+        }
+    }
+
+    /**
+     * Rebuilds a payment request from encrypted card fields. Entries written with a
+     * cryptogram field have it ignored.
+     */
+    private static PaymentRequest decryptCard(byte[] encrypted) throws GeneralSecurityException {
+        String[] fields = new String(CryptoUtils.decrypt(encrypted), StandardCharsets.UTF_8).split(FIELD_SEPARATOR, -1);
+        CardData card = new CardData();
+        card.setPan(fields[0]);
+        card.setExpiry(fields[1]);
+        card.setAid(fields[2]);
+
+        PaymentRequest request = new PaymentRequest();
+        request.setCardData(card);
+        request.setCurrency(fields[fields.length - 1]);
+        request.setTerminalId("AGGREGATE");
+        request.setMode("exit");
+        return request;
+    }
+
+    private static String nonNull(String s) {
+        return s == null ? "" : s;
+    }
+
+    /**
+     * @return Number of cards with unsettled fares.
+     */
+    public int size() {
+        return ledger.size();
+    }
+
+    /**
+     * @return A one-line summary of aggregation and settlement metrics.
+     */
+    public String describeMetrics() {
+        long sent = submissions.get();
+        return String.format("fare-aggregator cards=%d journeys=%d authorizations=%d journeysPerAuth=%.1f approved=%d declined=%d errors=%d ledgerErrors=%d unsettled=%d",
+                ledger.size(), journeys.get(), sent, sent == 0 ? 0.0 : (double) journeys.get() / sent,
+                approved.get(), declined.get(), errors.get(), ledgerErrors.get(), unsettled.size());
+    }
+
+    /**
+     * Stops the background pass; unsettled fares remain in fare_ledger. Pending updates of
+     * approved totals are tried once more; any still failing are logged for manual settlement,
+     * as the next start would otherwise authorize them again.
+     */
+    @Override
+    public void close() {
+        settler.shutdownNow();
+        retrySettlements();
+        for (FareLedgerEntry snapshot : unsettled) {
+            System.err.printf("\u274C Approved total not removed from fare_ledger: $%.2f for %d journeys (%s)%n",
+                    snapshot.getTotal(), snapshot.getJourneys(), snapshot.getHashedPan());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.TapEvent;
+
+/**
+ * FareCalculator prices a journey from its entry and exit taps.
+ * Implementations are called on the exit path and must be thread-safe. A calculator
+ * without a rule for incomplete journeys rejects them, which fails the exit.
+ */
+public interface FareCalculator {
+
+    /**
+     * Computes the fare for a journey.
+     *
+     * @param enter The entry tap event, or null if no open entry was found (incomplete journey).
+     * @param exit  The exit tap event.
+     * @return The fare in dollars.
+     * @throws IllegalArgumentException If the calculator cannot price an incomplete journey.
+     */
+    double calculateFare(TapEvent enter, TapEvent exit);
+}
@@ -0,0 +1,775 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.utils.HashedPan;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FareCapper applies daily and weekly fare caps as each exit is priced.
+ *
+ * Every card has one 48-byte record keyed by its hashed PAN: the service day and the amount
+ * charged that day, and the week and the amount charged that week. An exit's fare is reduced
+ * so neither total exceeds its cap, and the totals are updated in place, so capping never
+ * reads tap history. The capped fare is reserved when the exit is priced and only added to
+ * the totals once the acquirer approves it (commit); a declined or failed authorization
+ * releases it. Open reservations count towards the caps, so concurrent exits of one card
+ * cannot both charge the headroom. Service days start at serviceDayStart (e.g. 03:00, so a late-night
+ * journey counts towards the previous day); weeks start on Monday. A journey is counted on
+ * the service day of its entry. Late journeys from an earlier day count towards the current totals.
+ *
+ * Records live in a memory-mapped file with open addressing and linear probing (the same
+ * layout as MappedDigestSet), so they use no Java heap and survive restarts. The day and
+ * week halves of a record are each one aligned 8-byte write.
+ *
+ * Totals from an earlier day or week are reset lazily by the exit that finds them, and by
+ * a background rollover pass: on a new day it zeroes stale daily totals in place, a chunk
+ * at a time; on a new week it rewrites the file keeping only cards charged this week.
+ * Rewrites (weekly, and growth when the table fills) copy records a chunk at a time and
+ * write the new file without holding the lock; cards charged meanwhile are recopied
+ * when the new table is swapped in.
+ *
+ * Record layout: 32-byte digest | (service day &lt;&lt; 32 | daily cents) | (week &lt;&lt; 32 | weekly cents).
+ * An all-zero first word marks an empty slot; see MappedDigestSet for the digest encoding.
+ */
+public class FareCapper implements AutoCloseable {
+
+    private static final long MAGIC = 0x4641524543415031L;  // "FARECAP1"
+    private static final int HEADER_BYTES = 4096;
+    private static final int SLOT_BYTES = 48;
+    private static final long MIN_SLOTS = 1024;
+    private static final long MAX_SLOTS = 1L << 25;          // Keeps the file within one mapping
+    private static final double MAX_LOAD = 0.7;
+    private static final int ROLLOVER_CHUNK_SLOTS = 4096;     // Slots reset per lock hold
+    private static final long RESERVATION_TTL_NANOS = TimeUnit.MINUTES.toNanos(10); // Unsettled reservations expire
+
+    // Header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int WEEK_OFFSET = 24;                // Week of the last rollover pass
+
+    // Record fields, after the digest
+    private static final int DAY_OFFSET = 32;
+    private static final int WEEKLY_OFFSET = 40;
+
+    private static final VarHandle ARRAY_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;                         // Backing file
+    private final int dailyCapCents;                 // Most charged per card per service day
+    private final int weeklyCapCents;                // Most charged per card per week
+    private final int serviceDayStartMinute;         // Minute of day at which a service day begins
+    private final ScheduledExecutorService roller;   // Runs the rollover pass and growth
+    private final Object rebuildLock = new Object(); // Serializes rollover passes and rewrites; taken before this
+    private Table table;                             // Current mapping; replaced on growth and weekly rollover
+    private final Map<HashedPan, Reservation> pending = new HashMap<>(); // Open reservations per card, chained
+    private Set<HashedPan> rewritten;                // Cards committed during a rewrite, or null
+    private boolean growing;                         // A growth rewrite is scheduled
+
+    // Metrics
+    private final AtomicLong journeys = new AtomicLong();       // Fares passed through the capper
+    private final AtomicLong capped = new AtomicLong();         // Fares reduced by a cap
+    private final AtomicLong centsWaived = new AtomicLong();    // Total reduction, in cents
+    private final AtomicLong rollovers = new AtomicLong();      // Rollover passes run
+    private final AtomicLong dailyResets = new AtomicLong();    // Daily totals zeroed by the pass
+    private final AtomicLong weeklyDrops = new AtomicLong();    // Cards dropped at a weekly rollover
+    private final AtomicLong released = new AtomicLong();       // Reservations released unpaid
+
+    /**
+     * A capped fare set aside for an exit until its authorization is settled.
+     */
+    public static final class Reservation {
+        private final HashedPan hashedPan;
+        private final int day;
+        private final int week;
+        private final int fareCents;
+        private final int cents;
+        private final long reservedAt;   // System.nanoTime() when reserved
+        private Table table;             // Table probed when reserved, and the card's slot in it (or -1)
+        private long slot;
+        private Reservation next;        // The card's next open reservation
+
+        private Reservation(HashedPan hashedPan, int day, int week, int fareCents, int cents) {
+            this.hashedPan = hashedPan;
+            this.day = day;
+            this.week = week;
+            this.fareCents = fareCents;
+            this.cents = cents;
+            this.reservedAt = System.nanoTime();
+        }
+
+        /**
+         * @return The capped fare in cents.
+         */
+        public int cents() {
+            return cents;
+        }
+
+        /**
+         * @return The capped fare in dollars.
+         */
+        public double amount() {
+            return cents / 100.0;
+        }
+    }
+
+    /**
+     * One mapped table: header plus slots.
+     */
+    private static final class Table {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final long slots;
+        final long mask;
+        long size;
+
+        Table(FileChannel channel, MappedByteBuffer buffer, long slots, long size) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.slots = slots;
+            this.mask = slots - 1;
+            this.size = size;
+        }
+    }
+
+    private FareCapper(Path path, Table table, double dailyCap, double weeklyCap, LocalTime serviceDayStart) {
+        this.path = path;
+        this.table = table;
+        this.dailyCapCents = toCents(dailyCap);
+        this.weeklyCapCents = toCents(weeklyCap);
+        this.serviceDayStartMinute = serviceDayStart.getHour() * 60 + serviceDayStart.getMinute();
+        this.roller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fare-cap-rollover");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Opens the capping totals stored at the path, creating the file if it does not exist.
+     *
+     * @param path            Backing file.
+     * @param expectedCards   Cards to size a new file for; ignored when the file exists.
+     * @param dailyCap        Most charged per card per service day, in dollars.
+     * @param weeklyCap       Most charged per card per week, in dollars.
+     * @param serviceDayStart Time of day at which a service day begins.
+     * @return The opened capper.
+     * @throws IOException if the file cannot be created, mapped, or is not a fare cap file.
+     */
+    public static FareCapper open(Path path, long expectedCards, double dailyCap, double weeklyCap,
+                                  LocalTime serviceDayStart) throws IOException {
+        Table table;
+        if (Files.exists(path) && Files.size(path) >= HEADER_BYTES) {
+            table = map(path, -1);
+        } else {
+            table = map(path, slotsFor(expectedCards));
+        }
+        return new FareCapper(path, table, dailyCap, weeklyCap, serviceDayStart);
+    }
+
+    private static long slotsFor(long cards) throws IOException {
+        long slots = MIN_SLOTS;
+        while (slots * MAX_LOAD < cards) {
+            slots <<= 1;
+        }
+        if (slots > MAX_SLOTS) {
+            throw new IOException("Too many cards for a fare cap file: " + cards);
+        }
+        return slots;
+    }
+
+    /**
+     * Maps a table file. With slots &gt; 0 a new file is initialized; otherwise the header is read.
+     */
+    private static Table map(Path file, long newSlots) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long slots = newSlots;
+            long size = 0;
+            if (newSlots <= 0) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                slots = header.getLong(SLOTS_OFFSET);
+                size = header.getLong(SIZE_OFFSET);
+                if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+                    throw new IOException("Not a fare cap file: " + file);
+                }
+                if (Long.bitCount(slots) != 1 || slots > MAX_SLOTS || channel.size() < HEADER_BYTES + slots * SLOT_BYTES) {
+                    throw new IOException("Corrupt fare cap header: " + file);
+                }
+            }
+
+            // Mapping beyond the end of the file extends it (sparse, zero-filled).
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + slots * SLOT_BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (newSlots > 0) {
+                buffer.putLong(MAGIC_OFFSET, MAGIC);
+                buffer.putLong(SLOTS_OFFSET, slots);
+                buffer.putLong(SIZE_OFFSET, 0);
+                buffer.putLong(WEEK_OFFSET, Long.MIN_VALUE);
+            }
+            return new Table(channel, buffer, slots, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the background rollover pass.
+     *
+     * @param intervalMs Delay between passes; a day's stale totals are cleared within one interval.
+     */
+    public void start(long intervalMs) {
+        roller.scheduleWithFixedDelay(() -> {
+            try {
+                rollover(LocalDateTime.now());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("\u26A0\uFE0F Fare cap rollover failed: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Caps a journey's fare and adds the charged amount to the card's totals at once,
+     * for callers that charge without a separate authorization.
+     *
+     * @param hashedPan   Hashed PAN of the card.
+     * @param journeyTime Time the journey started (its entry tap), or the exit time if there was no entry.
+     * @param fare        Uncapped fare in dollars.
+     * @return The fare to charge, in dollars.
+     * @throws IOException if the table is full.
+     */
+    public double apply(HashedPan hashedPan, LocalDateTime journeyTime, double fare) throws IOException {
+        return applyCents(hashedPan, journeyTime, toCents(fare)) / 100.0;
+    }
+
+    /**
+     * Caps a journey's fare in cents and adds the charged amount to the card's totals at once.
+     *
+     * @param hashedPan   Hashed PAN of the card.
+     * @param journeyTime Time the journey started (its entry tap), or the exit time if there was no entry.
+     * @param fareCents   Uncapped fare in cents.
+     * @return The fare to charge, in cents.
+     * @throws IOException if the table is full.
+     */
+    public synchronized int applyCents(HashedPan hashedPan, LocalDateTime journeyTime, int fareCents) throws IOException {
+        Reservation reservation = reserveCents(hashedPan, journeyTime, fareCents);
+        commit(reservation);
+        return reservation.cents;
+    }
+
+    /**
+     * Caps a journey's fare and sets the capped fare aside until commit or release.
+     *
+     * @param hashedPan   Hashed PAN of the card.
+     * @param journeyTime Time the journey started (its entry tap), or the exit time if there was no entry.
+     * @param fare        Uncapped fare in dollars.
+     * @return The reservation holding the fare to charge.
+     */
+    public Reservation reserve(HashedPan hashedPan, LocalDateTime journeyTime, double fare) {
+        return reserveCents(hashedPan, journeyTime, toCents(fare));
+    }
+
+    /**
+     * Caps a journey's fare in cents against the card's totals and its other open reservations,
+     * and sets the capped fare aside until commit or release. The file is not written.
+     *
+     * @param hashedPan   Hashed PAN of the card.
+     * @param journeyTime Time the journey started (its entry tap), or the exit time if there was no entry.
+     * @param fareCents   Uncapped fare in cents.
+     * @return The reservation holding the fare to charge.
+     */
+    public synchronized Reservation reserveCents(HashedPan hashedPan, LocalDateTime journeyTime, int fareCents) {
+        int day = serviceDay(journeyTime);
+        int week = week(day);
+        int daily = 0;
+        int weekly = 0;
+
+        byte[] digest = hashedPan.bytes();
+        Table t = table;
+        long slot = find(t, word0(digest), (long) ARRAY_LONGS.get(digest, 8),
+                (long) ARRAY_LONGS.get(digest, 16), (long) ARRAY_LONGS.get(digest, 24));
+        if (slot >= 0) {
+            int offset = offset(slot);
+            long dayState = t.buffer.getLong(offset + DAY_OFFSET);
+            long weekState = t.buffer.getLong(offset + WEEKLY_OFFSET);
+            daily = day > (int) (dayState >> 32) ? 0 : (int) dayState;
+            weekly = week > (int) (weekState >> 32) ? 0 : (int) weekState;
+        }
+
+        Reservation open = pending.get(hashedPan);
+        for (Reservation r = open; r != null; r = r.next) {
+            daily += r.day >= day ? r.cents : 0;
+            weekly += r.week >= week ? r.cents : 0;
+        }
+
+        int charged = Math.max(0, Math.min(fareCents, Math.min(dailyCapCents - daily, weeklyCapCents - weekly)));
+        Reservation reservation = new Reservation(hashedPan, day, week, fareCents, charged);
+        reservation.table = t;
+        reservation.slot = slot;
+        reservation.next = open;
+        pending.put(hashedPan, reservation);
+        return reservation;
+    }
+
+    /**
+     * Adds a reserved fare to the card's totals once its authorization is approved.
+     * Committing a reservation that was already settled does nothing.
+     *
+     * @param reservation Reservation returned by reserve or reserveCents.
+     * @throws IOException if the table is full.
+     */
+    public synchronized void commit(Reservation reservation) throws IOException {
+        if (!settle(reservation)) {
+            return;
+        }
+
+        byte[] digest = reservation.hashedPan.bytes();
+        long w0 = word0(digest);
+        long w1 = (long) ARRAY_LONGS.get(digest, 8);
+        long w2 = (long) ARRAY_LONGS.get(digest, 16);
+        long w3 = (long) ARRAY_LONGS.get(digest, 24);
+
+        // Records never move within a table, so the slot found when reserving is still valid.
+        Table t = table;
+        long slot = reservation.table == t ? reservation.slot : -1;
+        if (slot < 0) {
+            slot = find(t, w0, w1, w2, w3);
+        }
+        if (slot < 0) {
+            if (t.size + 1 >= t.slots) {
+                throw new IOException("Fare cap table is full: " + t.size + " cards");
+            }
+            if (t.size + 1 > t.slots * MAX_LOAD) {
+                scheduleGrowth();
+            }
+            slot = insert(t, w0, w1, w2, w3, 0, 0);
+            t.size++;
+            t.buffer.putLong(SIZE_OFFSET, t.size);
+        }
+        int offset = offset(slot);
+
+        long dayState = t.buffer.getLong(offset + DAY_OFFSET);
+        long weekState = t.buffer.getLong(offset + WEEKLY_OFFSET);
+        int daily = (int) dayState;
+        int weekly = (int) weekState;
+        int recordDay = (int) (dayState >> 32);
+        int recordWeek = (int) (weekState >> 32);
+        if (reservation.day > recordDay) {
+            daily = 0;
+            recordDay = reservation.day;
+        }
+        if (reservation.week > recordWeek) {
+            weekly = 0;
+            recordWeek = reservation.week;
+        }
+        t.buffer.putLong(offset + DAY_OFFSET, pack(recordDay, daily + reservation.cents));
+        t.buffer.putLong(offset + WEEKLY_OFFSET, pack(recordWeek, weekly + reservation.cents));
+        if (rewritten != null) {
+            rewritten.add(reservation.hashedPan);
+        }
+
+        journeys.incrementAndGet();
+        if (reservation.cents < reservation.fareCents) {
+            capped.incrementAndGet();
+            centsWaived.addAndGet(reservation.fareCents - reservation.cents);
+        }
+    }
+
+    /**
+     * Drops a reserved fare whose authorization was declined or failed, returning its
+     * headroom to the card. Releasing a reservation that was already settled does nothing.
+     *
+     * @param reservation Reservation returned by reserve or reserveCents.
+     */
+    public synchronized void release(Reservation reservation) {
+        if (settle(reservation)) {
+            released.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a reservation from the open ones. Caller holds the lock.
+     *
+     * @return false if it was already committed or released.
+     */
+    private boolean settle(Reservation reservation) {
+        Reservation head = pending.get(reservation.hashedPan);
+        if (head == reservation) {
+            if (reservation.next == null) {
+                pending.remove(reservation.hashedPan);
+            } else {
+                pending.put(reservation.hashedPan, reservation.next);
+            }
+            return true;
+        }
+        for (Reservation r = head; r != null; r = r.next) {
+            if (r.next == reservation) {
+                r.next = reservation.next;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The card's charged total for the service day containing the time, in cents.
+     */
+    public synchronized int dailyTotalCents(HashedPan hashedPan, LocalDateTime time) {
+        long dayState = state(hashedPan, DAY_OFFSET);
+        return (int) (dayState >> 32) == serviceDay(time) ? (int) dayState : 0;
+    }
+
+    /**
+     * @return The card's charged total for the week containing the time, in cents.
+     */
+    public synchronized int weeklyTotalCents(HashedPan hashedPan, LocalDateTime time) {
+        long weekState = state(hashedPan, WEEKLY_OFFSET);
+        return (int) (weekState >> 32) == week(serviceDay(time)) ? (int) weekState : 0;
+    }
+
+    private long state(HashedPan hashedPan, int field) {
+        byte[] digest = hashedPan.bytes();
+        Table t = table;
+        long slot = find(t, word0(digest), (long) ARRAY_LONGS.get(digest, 8),
+                (long) ARRAY_LONGS.get(digest, 16), (long) ARRAY_LONGS.get(digest, 24));
+        return slot < 0 ? 0 : t.buffer.getLong(offset(slot) + field);
+    }
+
+    /**
+     * Rolls totals over to the service day and week containing now, in a single pass:
+     * on a new week, cards not charged this week are dropped and the file is rewritten;
+     * then stale daily totals are zeroed in place, ROLLOVER_CHUNK_SLOTS slots per lock hold.
+     * The file is rewritten and forced without holding the lock. Reservations never settled
+     * (e.g. the exit failed before its authorization completed) are released once they expire.
+     *
+     * @param now Current time.
+     * @throws IOException if rewriting the file fails.
+     */
+    public void rollover(LocalDateTime now) throws IOException {
+        int day = serviceDay(now);
+        int week = week(day);
+        rollovers.incrementAndGet();
+        expireReservations();
+
+        synchronized (rebuildLock) {
+            long lastWeek;
+            synchronized (this) {
+                lastWeek = table.buffer.getLong(WEEK_OFFSET);
+            }
+            if (lastWeek < week) {
+                // Every total from an earlier week is void: keep only cards charged this week.
+                rebuild(week, 0);
+            }
+
+            Table t = null;
+            for (long start = 0; ; start += ROLLOVER_CHUNK_SLOTS) {
+                synchronized (this) {
+                    t = table;
+                    if (start >= t.slots) {
+                        break;
+                    }
+                    long end = Math.min(t.slots, start + ROLLOVER_CHUNK_SLOTS);
+                    for (long slot = start; slot < end; slot++) {
+                        int offset = offset(slot);
+                        if (t.buffer.getLong(offset) == 0) {
+                            continue;
+                        }
+                        long dayState = t.buffer.getLong(offset + DAY_OFFSET);
+                        if ((int) (dayState >> 32) < day) {
+                            t.buffer.putLong(offset + DAY_OFFSET, pack(day, 0));
+                            dailyResets.incrementAndGet();
+                        }
+                    }
+                }
+            }
+            force(t);
+        }
+    }
+
+    private synchronized void expireReservations() {
+        long now = System.nanoTime();
+        for (Reservation head : pending.values().toArray(new Reservation[0])) {
+            for (Reservation r = head; r != null; r = r.next) {
+                if (now - r.reservedAt > RESERVATION_TTL_NANOS) {
+                    release(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a rewrite into a larger file on the rollover thread. Caller holds the lock.
+     */
+    private void scheduleGrowth() {
+        if (growing) {
+            return;
+        }
+        growing = true;
+        try {
+            roller.execute(() -> {
+                try {
+                    synchronized (rebuildLock) {
+                        long week;
+                        synchronized (this) {
+                            if (table.size <= table.slots * MAX_LOAD) {
+                                return;
+                            }
+                            week = table.buffer.getLong(WEEK_OFFSET);
+                        }
+                        rebuild(week, 1);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("\u26A0\uFE0F Fare cap table growth failed: " + e.getMessage());
+                } finally {
+                    synchronized (this) {
+                        growing = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed; the table keeps filling up to its capacity.
+            growing = false;
+        }
+    }
+
+    /**
+     * Probes for a digest; returns its slot index or -1 if absent.
+     */
+    private static long find(Table t, long w0, long w1, long w2, long w3) {
+        long slot = w1 & t.mask;
+        for (long probes = 0; probes < t.slots; probes++) {
+            int offset = offset(slot);
+            long s0 = t.buffer.getLong(offset);
+            if (s0 == 0) {
+                return -1;
+            }
+            if (s0 == w0
+                    && t.buffer.getLong(offset + 8) == w1
+                    && t.buffer.getLong(offset + 16) == w2
+                    && t.buffer.getLong(offset + 24) == w3) {
+                return slot;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a record into the first free slot of its probe sequence and returns the slot.
+     */
+    private static long insert(Table t, long w0, long w1, long w2, long w3, long dayState, long weekState) {
+        long slot = w1 & t.mask;
+        while (true) {
+            int offset = offset(slot);
+            if (t.buffer.getLong(offset) == 0) {
+                t.buffer.putLong(offset + 8, w1);
+                t.buffer.putLong(offset + 16, w2);
+                t.buffer.putLong(offset + 24, w3);
+                t.buffer.putLong(offset + DAY_OFFSET, dayState);
+                t.buffer.putLong(offset + WEEKLY_OFFSET, weekState);
+                t.buffer.putLong(offset, w0);
+                return slot;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Rewrites the table into a new file sized for the cards charged in the week plus
+     * extraCards, drops the rest, and atomically swaps it in. Records are copied a chunk
+     * per lock hold and the new file is forced unlocked; cards committed during the copy
+     * are copied again at the swap. Caller holds rebuildLock but not the lock.
+     */
+    private void rebuild(long week, long extraCards) throws IOException {
+        Table old;
+        long live = 0;
+        synchronized (this) {
+            old = table;
+        }
+        for (long start = 0; start < old.slots; start += ROLLOVER_CHUNK_SLOTS) {
+            synchronized (this) {
+                long end = Math.min(old.slots, start + ROLLOVER_CHUNK_SLOTS);
+                for (long slot = start; slot < end; slot++) {
+                    int offset = offset(slot);
+                    if (old.buffer.getLong(offset) != 0 && (int) (old.buffer.getLong(offset + WEEKLY_OFFSET) >> 32) >= week) {
+                        live++;
+                    }
+                }
+            }
+        }
+
+        Path next = path.resolveSibling(path.getFileName() + ".rebuild");
+        Files.deleteIfExists(next);
+        Table rebuilt = map(next, slotsFor(Math.max(live + extraCards, (long) (old.slots * MAX_LOAD / 2))));
+        try {
+            synchronized (this) {
+                rewritten = new HashSet<>();
+            }
+            for (long start = 0; start < old.slots; start += ROLLOVER_CHUNK_SLOTS) {
+                synchronized (this) {
+                    long end = Math.min(old.slots, start + ROLLOVER_CHUNK_SLOTS);
+                    for (long slot = start; slot < end; slot++) {
+                        int offset = offset(slot);
+                        long w0 = old.buffer.getLong(offset);
+                        if (w0 == 0) {
+                            continue;
+                        }
+                        long weekState = old.buffer.getLong(offset + WEEKLY_OFFSET);
+                        if ((int) (weekState >> 32) < week) {
+                            weeklyDrops.incrementAndGet();
+                            continue;
+                        }
+                        insert(rebuilt, w0, old.buffer.getLong(offset + 8), old.buffer.getLong(offset + 16),
+                                old.buffer.getLong(offset + 24), old.buffer.getLong(offset + DAY_OFFSET), weekState);
+                        rebuilt.size++;
+                    }
+                }
+            }
+            rebuilt.buffer.putLong(WEEK_OFFSET, week);
+            rebuilt.buffer.putLong(SIZE_OFFSET, rebuilt.size);
+            force(rebuilt);
+
+            synchronized (this) {
+                // Bring over cards charged since their chunk was copied.
+                for (HashedPan card : rewritten) {
+                    recopy(old, rebuilt, card.bytes());
+                }
+                rewritten = null;
+                rebuilt.buffer.putLong(SIZE_OFFSET, rebuilt.size);
+
+                Files.move(next, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                table = rebuilt;
+                old.channel.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                rewritten = null;
+            }
+            rebuilt.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies one card's current totals from the old table into the new one. Caller holds the lock.
+     */
+    private static void recopy(Table old, Table rebuilt, byte[] digest) {
+        long w0 = word0(digest);
+        long w1 = (long) ARRAY_LONGS.get(digest, 8);
+        long w2 = (long) ARRAY_LONGS.get(digest, 16);
+        long w3 = (long) ARRAY_LONGS.get(digest, 24);
+        long from = find(old, w0, w1, w2, w3);
+        if (from < 0) {
+            return;
+        }
+        long dayState = old.buffer.getLong(offset(from) + DAY_OFFSET);
+        long weekState = old.buffer.getLong(offset(from) + WEEKLY_OFFSET);
+        long to = find(rebuilt, w0, w1, w2, w3);
+        if (to < 0) {
+            insert(rebuilt, w0, w1, w2, w3, dayState, weekState);
+            rebuilt.size++;
+        } else {
+            rebuilt.buffer.putLong(offset(to) + DAY_OFFSET, dayState);
+            rebuilt.buffer.putLong(offset(to) + WEEKLY_OFFSET, weekState);
+        }
+    }
+
+    /**
+     * @return Days since the epoch of the service day containing the time.
+     */
+    private int serviceDay(LocalDateTime time) {
+        int day = (int) time.toLocalDate().toEpochDay();
+        return time.getHour() * 60 + time.getMinute() < serviceDayStartMinute ? day - 1 : day;
+    }
+
+    /**
+     * @return Weeks since the Monday before the epoch (1970-01-01 was a Thursday).
+     */
+    private static int week(int epochDay) {
+        return Math.floorDiv(epochDay + 3, 7);
+    }
+
+    private static long pack(int period, int cents) {
+        return (long) period << 32 | (cents & 0xFFFFFFFFL);
+    }
+
+    private static int offset(long slot) {
+        return (int) (HEADER_BYTES + slot * SLOT_BYTES);
+    }
+
+    private static long word0(byte[] digest) {
+        long w0 = (long) ARRAY_LONGS.get(digest, 0);
+        return w0 == 0 ? 1 : w0;
+    }
+
+    private static int toCents(double amount) {
+        return Math.toIntExact(Math.round(amount * 100));
+    }
+
+    private static void force(Table t) {
+        t.buffer.force();
+    }
+
+    /**
+     * @return Number of cards with totals in the file.
+     */
+    public synchronized long size() {
+        return table.size;
+    }
+
+    /**
+     * @return A one-line summary of the capper metrics.
+     */
+    public synchronized String describeMetrics() {
+        Table t = table;
+        return String.format("fare-capper cards=%d slots=%d load=%.2f journeys=%d capped=%d waived=%.2f reserved=%d released=%d rollovers=%d dailyResets=%d weeklyDrops=%d",
+                t.size, t.slots, (double) t.size / t.slots, journeys.get(), capped.get(), centsWaived.get() / 100.0,
+                openReservations(), released.get(), rollovers.get(), dailyResets.get(), weeklyDrops.get());
+    }
+
+    private int openReservations() {
+        int open = 0;
+        for (Reservation head : pending.values()) {
+            for (Reservation r = head; r != null; r = r.next) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Stops the rollover pass, flushes dirty pages to the file and closes it.
+     */
+    @Override
+    public synchronized void close() {
+        roller.shutdownNow();
+        Table t = table;
+        force(t);
+        try {
+            t.channel.close();
+        } catch (IOException e) {
+            System.err.println("\u26A0\uFE0F Failed to close fare cap file " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.TapEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FareTable prices journeys by entry and exit terminal, fare zone and time-of-day band.
+ *
+ * The table is compiled once into dense arrays: terminal and zone ids are interned to
+ * indices, the band is looked up by minute of day, and fares are held in cents, so a
+ * lookup is a hash lookup per terminal and a few array reads, with no allocation.
+ *
+ * The band is chosen by entry time; bands run from their start time until the next band
+ * starts, and the last band wraps past midnight. A station-to-station fare, if defined,
+ * takes precedence over the zone fare. Incomplete journeys (no entry) are charged the
+ * highest fare to the exit zone, and journeys touching an unknown terminal the highest
+ * fare in the table.
+ *
+ * Text format, one entry per line ('#' starts a comment):
+ * <pre>
+ * band,&lt;band&gt;,&lt;HH:mm start&gt;
+ * terminal,&lt;terminal id&gt;,&lt;zone&gt;
+ * fare,&lt;band&gt;,&lt;from zone&gt;,&lt;to zone&gt;,&lt;amount&gt;
+ * pair,&lt;band&gt;,&lt;from terminal&gt;,&lt;to terminal&gt;,&lt;amount&gt;
+ * </pre>
+ * Every band must define a fare for every pair of zones.
+ */
+public final class FareTable implements FareCalculator {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int NO_FARE = -1;
+
+    private final Map<String, Integer> terminals; // Terminal id -> terminal index
+    private final String[] bandNames;             // Band index -> name
+    private final int zoneCount;
+    private final int terminalCount;
+    private final byte[] bandByMinute;            // Minute of day -> band index
+    private final int[] zoneOfTerminal;           // Terminal index -> zone index
+    private final int[] zoneFares;                // [band][from zone][to zone] -> cents
+    private final int[] pairFares;                // [band][from terminal][to terminal] -> cents or NO_FARE; null if none
+    private final int[] maxFareToZone;            // Zone index -> highest fare into it, in cents
+    private final int maxFare;                    // Highest fare in the table, in cents
+
+    // Metrics
+    private final LongAdder incompleteJourneys = new LongAdder(); // Exits without an entry
+    private final LongAdder unknownTerminals = new LongAdder();   // Journeys touching a terminal not in the table
+
+    private FareTable(Map<String, Integer> terminals, String[] bandNames, int zoneCount, byte[] bandByMinute,
+                      int[] zoneOfTerminal, int[] zoneFares, int[] pairFares) {
+        this.terminals = terminals;
+        this.bandNames = bandNames;
+        this.zoneCount = zoneCount;
+        this.terminalCount = zoneOfTerminal.length;
+        this.bandByMinute = bandByMinute;
+        this.zoneOfTerminal = zoneOfTerminal;
+        this.zoneFares = zoneFares;
+        this.pairFares = pairFares;
+
+        // Pair fares are left out: the fallbacks are defined by zone.
+        this.maxFareToZone = new int[zoneCount];
+        int max = 0;
+        for (int i = 0; i < zoneFares.length; i++) {
+            int to = i % zoneCount;
+            maxFareToZone[to] = Math.max(maxFareToZone[to], zoneFares[i]);
+            max = Math.max(max, zoneFares[i]);
+        }
+        this.maxFare = max;
+    }
+
+    /**
+     * @return A builder for a new fare table.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Loads and compiles a fare table file (format in the class comment).
+     *
+     * @param file Path of the fare table.
+     * @return The compiled table.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If the table is malformed or incomplete.
+     */
+    public static FareTable load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Parses and compiles a fare table (format in the class comment).
+     *
+     * @param reader Source of the table text.
+     * @return The compiled table.
+     * @throws IOException If the source cannot be read.
+     * @throws IllegalArgumentException If the table is malformed or incomplete.
+     */
+    public static FareTable parse(Reader reader) throws IOException {
+        Builder builder = new Builder();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] f = line.split(",");
+            for (int i = 0; i < f.length; i++) {
+                f[i] = f[i].trim();
+            }
+            try {
+                switch (f[0]) {
+                    case "band" -> {
+                        expectFields(f, 3);
+                        builder.band(f[1], LocalTime.parse(f[2]));
+                    }
+                    case "terminal" -> {
+                        expectFields(f, 3);
+                        builder.terminal(f[1], f[2]);
+                    }
+                    case "fare" -> {
+                        expectFields(f, 5);
+                        builder.fare(f[1], f[2], f[3], Double.parseDouble(f[4]));
+                    }
+                    case "pair" -> {
+                        expectFields(f, 5);
+                        builder.pairFare(f[1], f[2], f[3], Double.parseDouble(f[4]));
+                    }
+                    default -> throw new IllegalArgumentException("unknown entry '" + f[0] + "'");
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Fare table line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void expectFields(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("expected " + count + " fields, found " + fields.length);
+        }
+    }
+
+    /**
+     * Computes the fare for a journey from the compiled table.
+     *
+     * @param enter The entry tap event, or null for an incomplete journey.
+     * @param exit  The exit tap event.
+     * @return The fare in dollars.
+     */
+    @Override
+    public double calculateFare(TapEvent enter, TapEvent exit) {
+        return fareCents(enter, exit) / 100.0;
+    }
+
+    /**
+     * Computes the fare for a journey in cents.
+     *
+     * @param enter The entry tap event, or null for an incomplete journey.
+     * @param exit  The exit tap event.
+     * @return The fare in cents.
+     */
+    public int fareCents(TapEvent enter, TapEvent exit) {
+        Integer to = terminals.get(exit.getTerminalId());
+        if (enter == null) {
+            incompleteJourneys.increment();
+            return to == null ? maxFare : maxFareToZone[zoneOfTerminal[to]];
+        }
+        Integer from = terminals.get(enter.getTerminalId());
+        if (from == null || to == null) {
+            unknownTerminals.increment();
+            return maxFare;
+        }
+
+        LocalDateTime entryTime = enter.getTimestamp();
+        int band = bandByMinute[entryTime.getHour() * 60 + entryTime.getMinute()];
+        if (pairFares != null) {
+            int fare = pairFares[(band * terminalCount + from) * terminalCount + to];
+            if (fare != NO_FARE) {
+                return fare;
+            }
+        }
+        return zoneFares[(band * zoneCount + zoneOfTerminal[from]) * zoneCount + zoneOfTerminal[to]];
+    }
+
+    /**
+     * @return A one-line summary of the table and its metrics.
+     */
+    public String describeMetrics() {
+        return String.format("fare-table bands=%s zones=%d terminals=%d pairFares=%s maxFare=%.2f incompleteJourneys=%d unknownTerminals=%d",
+                Arrays.toString(bandNames), zoneCount, terminalCount, pairFares != null, maxFare / 100.0,
+                incompleteJourneys.sum(), unknownTerminals.sum());
+    }
+
+    /**
+     * Collects bands, terminals and fares, then compiles them into a FareTable.
+     * Ids are interned in the order they are first seen.
+     */
+    public static final class Builder {
+        private final Map<String, LocalTime> bands = new LinkedHashMap<>();   // Band name -> start time
+        private final Map<String, Integer> zones = new HashMap<>();           // Zone id -> zone index
+        private final Map<String, Integer> terminals = new HashMap<>();       // Terminal id -> terminal index
+        private final List<Integer> zoneOfTerminal = new ArrayList<>();
+        private final Map<List<Object>, Integer> fares = new HashMap<>();     // (band, from zone, to zone) -> cents
+        private final Map<List<Object>, Integer> pairFares = new HashMap<>(); // (band, from terminal, to terminal) -> cents
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a time-of-day band running from start until the next band's start.
+         */
+        public Builder band(String name, LocalTime start) {
+            if (bands.containsValue(start)) {
+                throw new IllegalArgumentException("two bands start at " + start);
+            }
+            if (bands.putIfAbsent(name, start) != null) {
+                throw new IllegalArgumentException("duplicate band " + name);
+            }
+            return this;
+        }
+
+        /**
+         * Places a terminal in a fare zone.
+         */
+        public Builder terminal(String terminalId, String zone) {
+            if (terminals.containsKey(terminalId)) {
+                throw new IllegalArgumentException("duplicate terminal " + terminalId);
+            }
+            terminals.put(terminalId, terminals.size());
+            zoneOfTerminal.add(zones.computeIfAbsent(zone, z -> zones.size()));
+            return this;
+        }
+
+        /**
+         * Sets the fare between two zones for journeys entering in the band.
+         */
+        public Builder fare(String band, String fromZone, String toZone, double amount) {
+            fares.put(List.of(requireBand(band), fromZone, toZone), toCents(amount));
+            return this;
+        }
+
+        /**
+         * Sets a station-to-station fare overriding the zone fare for journeys entering in the band.
+         */
+        public Builder pairFare(String band, String fromTerminal, String toTerminal, double amount) {
+            pairFares.put(List.of(requireBand(band), fromTerminal, toTerminal), toCents(amount));
+            return this;
+        }
+
+        /**
+         * Compiles the table.
+         *
+         * @throws IllegalArgumentException If the table is empty, refers to unknown zones or
+         *                                  terminals, or misses a zone fare.
+         */
+        public FareTable build() {
+            if (bands.isEmpty() || terminals.isEmpty()) {
+                throw new IllegalArgumentException("a fare table needs at least one band and one terminal");
+            }
+            if (bands.size() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("too many bands: " + bands.size());
+            }
+            String[] bandNames = bands.keySet().toArray(new String[0]);
+            int zoneCount = zones.size();
+            int terminalCount = terminals.size();
+
+            // Minute of day -> band; minutes before the first start belong to the last band.
+            List<String> byStart = new ArrayList<>(bands.keySet());
+            byStart.sort((a, b) -> bands.get(a).compareTo(bands.get(b)));
+            byte[] bandByMinute = new byte[MINUTES_PER_DAY];
+            int current = indexOf(bandNames, byStart.get(byStart.size() - 1));
+            int next = 0;
+            for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                while (next < byStart.size() && toMinute(bands.get(byStart.get(next))) <= minute) {
+                    current = indexOf(bandNames, byStart.get(next++));
+                }
+                bandByMinute[minute] = (byte) current;
+            }
+
+            for (List<Object> key : fares.keySet()) {
+                requireZone(key.get(1));
+                requireZone(key.get(2));
+            }
+            int[] zoneFareArray = new int[bandNames.length * zoneCount * zoneCount];
+            for (int band = 0; band < bandNames.length; band++) {
+                for (Map.Entry<String, Integer> from : zones.entrySet()) {
+                    for (Map.Entry<String, Integer> to : zones.entrySet()) {
+                        Integer cents = fares.get(List.of(bandNames[band], from.getKey(), to.getKey()));
+                        if (cents == null) {
+                            throw new IllegalArgumentException("no " + bandNames[band] + " fare from zone "
+                                    + from.getKey() + " to zone " + to.getKey());
+                        }
+                        zoneFareArray[(band * zoneCount + from.getValue()) * zoneCount + to.getValue()] = cents;
+                    }
+                }
+            }
+
+            int[] pairFareArray = null;
+            if (!pairFares.isEmpty()) {
+                pairFareArray = new int[bandNames.length * terminalCount * terminalCount];
+                Arrays.fill(pairFareArray, NO_FARE);
+                for (Map.Entry<List<Object>, Integer> pair : pairFares.entrySet()) {
+                    int band = indexOf(bandNames, (String) pair.getKey().get(0));
+                    int from = requireTerminal(pair.getKey().get(1));
+                    int to = requireTerminal(pair.getKey().get(2));
+                    pairFareArray[(band * terminalCount + from) * terminalCount + to] = pair.getValue();
+                }
+            }
+
+            int[] zones = new int[terminalCount];
+            for (int i = 0; i < terminalCount; i++) {
+                zones[i] = zoneOfTerminal.get(i);
+            }
+            return new FareTable(new HashMap<>(terminals), bandNames, zoneCount, bandByMinute, zones, zoneFareArray, pairFareArray);
+        }
+
+        private String requireBand(String band) {
+            if (!bands.containsKey(band)) {
+                throw new IllegalArgumentException("unknown band " + band + " (declare bands before fares)");
+            }
+            return band;
+        }
+
+        private void requireZone(Object zone) {
+            if (!zones.containsKey(zone)) {
+                throw new IllegalArgumentException("fare for zone " + zone + ", which has no terminals");
+            }
+        }
+
+        private int requireTerminal(Object terminalId) {
+            Integer index = terminals.get(terminalId);
+            if (index == null) {
+                throw new IllegalArgumentException("pair fare for unknown terminal " + terminalId);
+            }
+            return index;
+        }
+
+        private static int toCents(double amount) {
+            if (amount < 0 || Double.isNaN(amount)) {
+                throw new IllegalArgumentException("invalid fare " + amount);
+            }
+            return Math.toIntExact(Math.round(amount * 100));
+        }
+
+        private static int toMinute(LocalTime time) {
+            return time.getHour() * 60 + time.getMinute();
+        }
+
+        private static int indexOf(String[] names, String name) {
+            return Arrays.asList(names).indexOf(name);
+        }
+    }
+}
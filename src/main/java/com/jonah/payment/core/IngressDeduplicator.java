@@ -0,0 +1,235 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.PaymentResponse;
+import com.jonah.payment.data.TapEvent;
+import com.jonah.payment.utils.HashedPan;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * IngressDeduplicator suppresses repeated taps before they reach the database or the acquirer.
+ *
+ * A tap is a duplicate if an earlier tap within the window had
+ * - the same hashed PAN, terminal and cryptogram (a terminal retrying after a timeout), or
+ * - the same hashed PAN, terminal and mode in the same or the previous time bucket
+ *   (a rider tapping twice; a new cryptogram is generated for each tap).
+ * A duplicate gets the original tap's response; if the original is still being processed,
+ * the duplicate waits for it instead of starting a second AVR or authorization.
+ *
+ * Responses are kept for the window. Server errors (5xx) are not kept, so a terminal
+ * retrying after one is processed again. Checks for one card are serialized on a lock stripe.
+ */
+public class IngressDeduplicator implements AutoCloseable {
+
+    private static final int LOCK_STRIPES = 256;
+    private static final long RETRY_BUCKET = Long.MIN_VALUE; // Marks cryptogram keys apart from time-bucket keys
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>(); // Retry and double-tap keys -> original response
+    private final Object[] locks = new Object[LOCK_STRIPES];           // Serializes checks per card
+    private final long windowNanos;                                     // Entry lifetime and bucket width
+    private final ScheduledExecutorService sweeper;                     // Periodic eviction of expired entries
+
+    // Metrics
+    private final AtomicLong taps = new AtomicLong();          // Taps checked
+    private final AtomicLong retries = new AtomicLong();       // Duplicates matched by cryptogram
+    private final AtomicLong doubleTaps = new AtomicLong();    // Duplicates matched by time bucket
+    private final AtomicLong coalesced = new AtomicLong();     // Duplicates that waited for an in-flight original
+    private final AtomicLong evicted = new AtomicLong();       // Entries dropped after the window
+
+    /**
+     * Creates an empty deduplicator.
+     *
+     * @param window How long a tap suppresses its duplicates.
+     */
+    public IngressDeduplicator(Duration window) {
+        this.windowNanos = window.toNanos();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingress-dedup-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts evicting expired entries.
+     *
+     * @param intervalMs Delay between sweeps
+     */
+    public void start(long intervalMs) {
+        sweeper.scheduleWithFixedDelay(this::sweep, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Processes a tap unless it duplicates a recent one.
+     *
+     * @param tap       The incoming tap.
+     * @param processor Processes the tap; only called for taps that are not duplicates.
+     * @return The response for this tap, or the original's response for a duplicate.
+     */
+    public CompletableFuture<PaymentResponse> submit(TapEvent tap, Supplier<CompletableFuture<PaymentResponse>> processor) {
+        taps.incrementAndGet();
+        HashedPan hashedPan = tap.getHashedPan();
+        long now = System.nanoTime();
+        long bucket = Math.floorDiv(now, windowNanos) + 1; // Never RETRY_BUCKET or its predecessor
+
+        Key retryKey = new Key(hashedPan, tap.getTerminalId(), tap.getCryptogram(), RETRY_BUCKET);
+        Key bucketKey = new Key(hashedPan, tap.getTerminalId(), tap.getMode(), bucket);
+        Key previousBucketKey = new Key(hashedPan, tap.getTerminalId(), tap.getMode(), bucket - 1);
+
+        Entry entry;
+        synchronized (locks[(hashedPan.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES]) {
+            Entry original = live(retryKey, now);
+            if (original != null) {
+                retries.incrementAndGet();
+                return duplicate(original);
+            }
+            original = live(bucketKey, now);
+            if (original == null) {
+                original = live(previousBucketKey, now);
+            }
+            if (original != null) {
+                doubleTaps.incrementAndGet();
+                return duplicate(original);
+            }
+
+            entry = new Entry(now, retryKey, bucketKey);
+            entries.put(retryKey, entry);
+            entries.put(bucketKey, entry);
+        }
+
+        CompletableFuture<PaymentResponse> result;
+        try {
+            result = processor.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((response, e) -> {
+            if (e != null || response.getHttpStatus() >= 500) {
+                // Let the terminal's retry be processed again.
+                entries.remove(entry.retryKey, entry);
+                entries.remove(entry.bucketKey, entry);
+            }
+            if (e != null) {
+                entry.response.completeExceptionally(e);
+            } else {
+                entry.response.complete(response);
+            }
+        });
+        return entry.response;
+    }
+
+    /**
+     * @return The entry for the key if it was created within the window, else null.
+     */
+    private Entry live(Key key, long now) {
+        Entry entry = entries.get(key);
+        return entry != null && now - entry.createdNanos <= windowNanos ? entry : null;
+    }
+
+    private CompletableFuture<PaymentResponse> duplicate(Entry original) {
+        if (!original.response.isDone()) {
+            coalesced.incrementAndGet();
+        }
+        return original.response;
+    }
+
+    /**
+     * Drops entries older than the window.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        entries.entrySet().removeIf(e -> {
+            if (now - e.getValue().createdNanos > windowNanos) {
+                evicted.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return Number of retry and double-tap keys held.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return A one-line summary of the deduplicator metrics.
+     */
+    public String describeMetrics() {
+        long duplicates = retries.get() + doubleTaps.get();
+        return String.format("ingress-dedup taps=%d duplicates=%d retries=%d doubleTaps=%d coalesced=%d dupRate=%.3f keys=%d evicted=%d",
+                taps.get(), duplicates, retries.get(), doubleTaps.get(), coalesced.get(),
+                taps.get() == 0 ? 0.0 : (double) duplicates / taps.get(), entries.size(), evicted.get());
+    }
+
+    /**
+     * Stops the background sweep.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * A card at a terminal, qualified by cryptogram (RETRY_BUCKET) or by mode and time bucket.
+     */
+    private static final class Key {
+        final HashedPan hashedPan;
+        final String terminalId;
+        final String qualifier;
+        final long bucket;
+
+        Key(HashedPan hashedPan, String terminalId, String qualifier, long bucket) {
+            this.hashedPan = hashedPan;
+            this.terminalId = terminalId;
+            this.qualifier = qualifier;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return bucket == other.bucket && hashedPan.equals(other.hashedPan)
+                    && Objects.equals(terminalId, other.terminalId) && Objects.equals(qualifier, other.qualifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * hashedPan.hashCode() + Objects.hashCode(terminalId)) + Objects.hashCode(qualifier))
+                    + Long.hashCode(bucket);
+        }
+    }
+
+    /**
+     * The original tap's response, shared by its duplicates.
+     */
+    private static final class Entry {
+        final long createdNanos;
+        final Key retryKey;
+        final Key bucketKey;
+        final CompletableFuture<PaymentResponse> response = new CompletableFuture<>();
+
+        Entry(long createdNanos, Key retryKey, Key bucketKey) {
+            this.createdNanos = createdNanos;
+            this.retryKey = retryKey;
+            this.bucketKey = bucketKey;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.jonah.payment.core;
+
+import javax.net.ssl.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyManagementException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ManagedSSLContext is a long-lived mutual TLS context built once from PEM files through
+ * VisaSSLContextLoader and shared by every client that uses the same identity.
+ *
+ * Because the SSLContext instance never changes, its session cache survives reconnects and
+ * new VisaClient instances, so later handshakes resume a cached session instead of repeating
+ * the full certificate exchange. Certificates rotated on disk are picked up by a background
+ * check: the key and trust managers are swapped behind the context, so connections already
+ * in a pool keep working and only new handshakes use the new material. A rotation that
+ * cannot be parsed keeps the previous material.
+ *
+ * Handshakes are counted per SSLEngine created; the ones that validate a peer certificate
+ * are full handshakes and the rest are resumptions.
+ */
+public class ManagedSSLContext implements AutoCloseable {
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1_024;   // Sessions kept for resumption
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3_600;
+
+    // Contexts shared by certificate, key and trust anchor paths, so each identity is parsed once per JVM.
+    private static final Map<List<Object>, ManagedSSLContext> SHARED = new HashMap<>();
+
+    private final String certPath;                 // PEM certificate
+    private final String keyPath;                  // PEM private key
+    private final String[] caPaths;                // PEM CA certificates
+    private final boolean trustCaPaths;            // Trust only caPaths instead of the JVM trust store
+    private final SSLContext delegate;             // The JDK context, initialized once with the reloading managers
+    private final SSLContext context;              // Counting wrapper handed to clients and servers
+    private final ReloadingKeyManager keyManager;
+    private final ReloadingTrustManager trustManager;
+    private final ScheduledExecutorService reloader;
+    private volatile long[] fingerprint;           // Sizes and modification times of the files last loaded
+    private boolean started;
+
+    // Metrics
+    private final AtomicLong engines = new AtomicLong();          // TLS connections started
+    private final AtomicLong fullHandshakes = new AtomicLong();   // Handshakes that validated a peer certificate
+    private final AtomicLong reloads = new AtomicLong();          // Successful rotations
+    private final AtomicLong reloadFailures = new AtomicLong();   // Rotations rejected as unreadable
+
+    /**
+     * Loads the identity and CAs and creates the context.
+     *
+     * @param certPath     Path to the PEM-encoded certificate file.
+     * @param keyPath      Path to the PEM-encoded private key file.
+     * @param caPaths      Paths to PEM-encoded CA certificates.
+     * @param trustCaPaths If true, trust only caPaths; if false, use the JVM trust store.
+     * @throws Exception If the files cannot be read or the context cannot be created.
+     */
+    public ManagedSSLContext(String certPath, String keyPath, String[] caPaths, boolean trustCaPaths) throws Exception {
+        this.certPath = certPath;
+        this.keyPath = keyPath;
+        this.caPaths = caPaths.clone();
+        this.trustCaPaths = trustCaPaths;
+
+        this.fingerprint = fingerprint();
+        this.keyManager = new ReloadingKeyManager(keyManager(VisaSSLContextLoader.loadKeyManagers(certPath, keyPath)));
+        this.trustManager = new ReloadingTrustManager(trustManager(VisaSSLContextLoader.loadTrustManagers(caPaths, trustCaPaths)));
+
+        this.delegate = SSLContext.getInstance("TLS");
+        delegate.init(new KeyManager[] {keyManager}, new TrustManager[] {trustManager}, null);
+        this.context = new CountingSSLContext(new CountingSpi(), delegate);
+        setSessionCache(DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+
+        this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tls-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the context shared by every caller using the same certificate, key and
+     * trust anchors, creating it on first use.
+     *
+     * @param certPath     Path to the PEM-encoded certificate file.
+     * @param keyPath      Path to the PEM-encoded private key file.
+     * @param caPaths      Paths to PEM-encoded CA certificates.
+     * @param trustCaPaths If true, trust only caPaths; if false, use the JVM trust store.
+     * @return The shared context.
+     * @throws Exception If the context has to be created and that fails.
+     */
+    public static synchronized ManagedSSLContext shared(String certPath, String keyPath, String[] caPaths,
+                                                        boolean trustCaPaths) throws Exception {
+        List<Object> key = Arrays.asList(certPath, keyPath, Arrays.asList(caPaths.clone()), trustCaPaths);
+        ManagedSSLContext managed = SHARED.get(key);
+        if (managed == null) {
+            managed = new ManagedSSLContext(certPath, keyPath, caPaths, trustCaPaths);
+            SHARED.put(key, managed);
+        }
+        return managed;
+    }
+
+    /**
+     * @return The SSLContext to give HttpClient or HttpsServer. Always the same instance.
+     */
+    public SSLContext getSSLContext() {
+        return context;
+    }
+
+    /**
+     * Sizes the client and server session caches used for resumption.
+     *
+     * @param size           Sessions kept per side; 0 means unlimited.
+     * @param timeoutSeconds Lifetime of a cached session; 0 means no limit.
+     */
+    public void setSessionCache(int size, int timeoutSeconds) {
+        for (SSLSessionContext sessions : new SSLSessionContext[] {delegate.getClientSessionContext(), delegate.getServerSessionContext()}) {
+            sessions.setSessionCacheSize(size);
+            sessions.setSessionTimeout(timeoutSeconds);
+        }
+    }
+
+    /**
+     * Starts checking the PEM files for rotation. Later calls are ignored.
+     *
+     * @param intervalMs Delay between checks
+     */
+    public synchronized void start(long intervalMs) {
+        if (!started) {
+            started = true;
+            reloader.scheduleWithFixedDelay(this::reloadIfChanged, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reloads the key material if any of the files changed since it was last loaded.
+     *
+     * @return true if new material was installed.
+     */
+    public synchronized boolean reloadIfChanged() {
+        long[] current = fingerprint();
+        if (Arrays.equals(current, fingerprint)) {
+            return false;
+        }
+        try {
+            X509ExtendedKeyManager keys = keyManager(VisaSSLContextLoader.loadKeyManagers(certPath, keyPath));
+            X509ExtendedTrustManager trust = trustManager(VisaSSLContextLoader.loadTrustManagers(caPaths, trustCaPaths));
+            keyManager.current = keys;
+            trustManager.current = trust;
+            fingerprint = current;
+            reloads.incrementAndGet();
+            System.out.println("\uD83D\uDD04 Reloaded TLS key material from " + certPath);
+            return true;
+        } catch (Exception e) {
+            // Possibly a rotation caught half-written; retried on the next check until it parses.
+            reloadFailures.incrementAndGet();
+            System.err.println("\u26A0\uFE0F TLS reload failed, keeping previous key material: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Sizes and modification times of the certificate, key and CA files (-1 if missing).
+     */
+    private long[] fingerprint() {
+        String[] paths = new String[caPaths.length + 2];
+        paths[0] = certPath;
+        paths[1] = keyPath;
+        System.arraycopy(caPaths, 0, paths, 2, caPaths.length);
+        long[] result = new long[paths.length * 2];
+        for (int i = 0; i < paths.length; i++) {
+            Path path = Paths.get(paths[i]);
+            try {
+                result[2 * i] = Files.size(path);
+                result[2 * i + 1] = Files.getLastModifiedTime(path).toMillis();
+            } catch (Exception e) {
+                result[2 * i] = -1;
+                result[2 * i + 1] = -1;
+            }
+        }
+        return result;
+    }
+
+    private static X509ExtendedKeyManager keyManager(KeyManager[] managers) {
+        for (KeyManager manager : managers) {
+            if (manager instanceof X509ExtendedKeyManager) {
+                return (X509ExtendedKeyManager) manager;
+            }
+        }
+        throw new IllegalStateException("No X.509 key manager available");
+    }
+
+    private static X509ExtendedTrustManager trustManager(TrustManager[] managers) {
+        for (TrustManager manager : managers) {
+            if (manager instanceof X509ExtendedTrustManager) {
+                return (X509ExtendedTrustManager) manager;
+            }
+        }
+        throw new IllegalStateException("No X.509 trust manager available");
+    }
+
+    /**
+     * @return TLS connections started with this context.
+     */
+    public long getHandshakes() {
+        return engines.get();
+    }
+
+    /**
+     * @return Handshakes that resumed a cached session instead of validating certificates.
+     */
+    public long getResumedHandshakes() {
+        return Math.max(0, engines.get() - fullHandshakes.get());
+    }
+
+    /**
+     * @return Share of handshakes that resumed a cached session.
+     */
+    public double getResumptionRate() {
+        long total = engines.get();
+        return total == 0 ? 0.0 : (double) getResumedHandshakes() / total;
+    }
+
+    /**
+     * @return A one-line summary of the context metrics.
+     */
+    public String describeMetrics() {
+        return String.format("tls cert=%s handshakes=%d full=%d resumed=%d resumptionRate=%.3f cachedSessions=%d reloads=%d reloadFailures=%d",
+                certPath, engines.get(), fullHandshakes.get(), getResumedHandshakes(), getResumptionRate(),
+                Collections.list(delegate.getClientSessionContext().getIds()).size()
+                        + Collections.list(delegate.getServerSessionContext().getIds()).size(),
+                reloads.get(), reloadFailures.get());
+    }
+
+    /**
+     * Stops checking for rotated files.
+     */
+    @Override
+    public void close() {
+        reloader.shutdownNow();
+    }
+
+    /**
+     * Key manager forwarding to the most recently loaded identity.
+     */
+    private static final class ReloadingKeyManager extends X509ExtendedKeyManager {
+        volatile X509ExtendedKeyManager current;
+
+        ReloadingKeyManager(X509ExtendedKeyManager current) {
+            this.current = current;
+        }
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return current.getClientAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return current.chooseClientAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+            return current.chooseEngineClientAlias(keyType, issuers, engine);
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            return current.getServerAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            return current.chooseServerAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return current.chooseEngineServerAlias(keyType, issuers, engine);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return current.getCertificateChain(alias);
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            return current.getPrivateKey(alias);
+        }
+    }
+
+    /**
+     * Trust manager forwarding to the most recently loaded CAs and counting full handshakes,
+     * the only ones in which a peer certificate is validated.
+     */
+    private final class ReloadingTrustManager extends X509ExtendedTrustManager {
+        volatile X509ExtendedTrustManager current;
+
+        ReloadingTrustManager(X509ExtendedTrustManager current) {
+            this.current = current;
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            fullHandshakes.incrementAndGet();
+            current.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            fullHandshakes.incrementAndGet();
+            current.checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            fullHandshakes.incrementAndGet();
+            current.checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            fullHandshakes.incrementAndGet();
+            current.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            fullHandshakes.incrementAndGet();
+            current.checkServerTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            fullHandshakes.incrementAndGet();
+            current.checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return current.getAcceptedIssuers();
+        }
+    }
+
+    /**
+     * SSLContext whose engines and factories come from the JDK context, counted per engine.
+     */
+    private static final class CountingSSLContext extends SSLContext {
+        CountingSSLContext(SSLContextSpi spi, SSLContext delegate) {
+            super(spi, delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+    private final class CountingSpi extends SSLContextSpi {
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            throw new KeyManagementException("ManagedSSLContext is already initialized");
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            engines.incrementAndGet();
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            engines.incrementAndGet();
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+}
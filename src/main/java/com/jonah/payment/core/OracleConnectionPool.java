@@ -0,0 +1,429 @@
+package com.jonah.payment.core;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * OracleConnectionPool is a bounded JDBC connection pool exposed as a DataSource.
+ * DAOs borrow a connection per unit of work and return it by closing it.
+ *
+ * Features:
+ * - At most maxSize physical connections; borrowers wait up to maxWaitMs, then time out
+ * - Idle connections are validated with Connection.isValid before being handed out
+ * - Connections held longer than leakThresholdMs are reported with the borrower's stack trace
+ * - Each physical connection keeps an LRU cache of prepared statements keyed by SQL,
+ *   so DAOs reuse parsed statements transparently through prepareStatement(sql)
+ * - Usage metrics (borrows, timeouts, waits, peak usage, statement cache hits) for monitoring
+ */
+public class OracleConnectionPool implements DataSource, AutoCloseable {
+
+    // Idle connections older than this are validated before reuse.
+    private static final long VALIDATION_INTERVAL_MS = 5_000;
+
+    // Seconds allowed for Connection.isValid to answer.
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String name;                         // Pool name used in logs
+    private final Callable<Connection> factory;        // Opens new physical connections
+    private final int maxSize;                         // Upper bound on physical connections
+    private final long maxWaitMs;                      // Longest a borrower waits for a connection
+    private final long leakThresholdMs;                // Hold time after which a lease is reported
+    private final int statementCacheSize;              // Cached statements per connection; 0 disables
+
+    private final Semaphore permits;                                  // One permit per connection that may be in use
+    private final BlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet(); // Connections currently borrowed
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed;
+
+    // Usage metrics.
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    /**
+     * Creates a pool. Physical connections are opened lazily on demand.
+     *
+     * @param name            Pool name used in logs and metrics.
+     * @param factory         Opens a new physical connection (e.g. OracleConnector::getConnection).
+     * @param maxSize         Maximum number of physical connections.
+     * @param maxWaitMs       Maximum time to wait for a free connection before failing.
+     * @param leakThresholdMs Hold time after which a borrowed connection is reported as a leak;
+     *                        0 disables leak detection.
+     */
+    public OracleConnectionPool(String name, Callable<Connection> factory, int maxSize, long maxWaitMs, long leakThresholdMs) {
+        this(name, factory, maxSize, maxWaitMs, leakThresholdMs, 0);
+    }
+
+    /**
+     * Creates a pool whose connections cache prepared statements.
+     *
+     * @param name               Pool name used in logs and metrics.
+     * @param factory            Opens a new physical connection (e.g. OracleConnector::getConnection).
+     * @param maxSize            Maximum number of physical connections.
+     * @param maxWaitMs          Maximum time to wait for a free connection before failing.
+     * @param leakThresholdMs    Hold time after which a borrowed connection is reported as a leak;
+     *                           0 disables leak detection.
+     * @param statementCacheSize Maximum prepared statements cached per connection; 0 disables caching.
+     */
+    public OracleConnectionPool(String name, Callable<Connection> factory, int maxSize, long maxWaitMs,
+                                long leakThresholdMs, int statementCacheSize) {
+        this.name = name;
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.maxWaitMs = maxWaitMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-leak-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        if (leakThresholdMs > 0) {
+            long period = Math.max(1_000, leakThresholdMs / 2);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting up to maxWaitMs for one to become free.
+     * Closing the returned connection gives it back to the pool.
+     *
+     * @return A validated connection with auto-commit enabled.
+     * @throws SQLTimeoutException if no connection becomes free within maxWaitMs.
+     * @throws SQLException if the pool is closed or a new connection cannot be opened.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + name + "' is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + maxWaitMs + " ms waiting for a connection from pool '" + name + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        totalWaitNanos.addAndGet(System.nanoTime() - start);
+
+        try {
+            PhysicalConnection physical = takeValidIdle();
+            if (physical == null) {
+                physical = open();
+            }
+
+            Lease lease = new Lease(physical);
+            leased.add(lease);
+            borrows.incrementAndGet();
+            peakActive.accumulateAndGet(leased.size(), Math::max);
+            return lease.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection that passes validation, discarding dead ones.
+     */
+    private PhysicalConnection takeValidIdle() {
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - physical.lastUsed < VALIDATION_INTERVAL_MS) {
+                return physical;
+            }
+            try {
+                if (physical.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return physical;
+                }
+            } catch (SQLException ignored) {
+                // Treated as invalid below.
+            }
+            validationFailures.incrementAndGet();
+            discard(physical);
+        }
+        return null;
+    }
+
+    /**
+     * Opens a new physical connection through the factory.
+     */
+    private PhysicalConnection open() throws SQLException {
+        try {
+            Connection connection = factory.call();
+            created.incrementAndGet();
+            StatementCache statements = statementCacheSize > 0
+                    ? new StatementCache(connection, statementCacheSize, statementHits, statementMisses, statementEvictions)
+                    : null;
+            return new PhysicalConnection(connection, statements);
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to open connection for pool '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Returns a leased connection to the pool, resetting transaction state first.
+     */
+    private void release(Lease lease) {
+        leased.remove(lease);
+        PhysicalConnection physical = lease.physical;
+        try {
+            if (closed) {
+                discard(physical);
+                return;
+            }
+            try {
+                if (!physical.connection.getAutoCommit()) {
+                    physical.connection.rollback();
+                    physical.connection.setAutoCommit(true);
+                }
+                physical.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(physical);
+            } catch (SQLException e) {
+                // A connection that cannot be reset is not reused.
+                discard(physical);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes a physical connection, ignoring errors.
+     */
+    private void discard(PhysicalConnection physical) {
+        if (physical.statements != null) {
+            physical.statements.clear();
+        }
+        try {
+            physical.connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Reports connections held longer than the leak threshold, once per lease.
+     */
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leased) {
+            if (!lease.reported && now - lease.borrowedAt > leakThresholdMs) {
+                lease.reported = true;
+                leaksDetected.incrementAndGet();
+                System.err.println("\u26A0\uFE0F Possible connection leak in pool '" + name + "': held for "
+                        + (now - lease.borrowedAt) + " ms by " + lease.borrower.getName() + ", borrowed at:");
+                lease.borrowStack.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops leak detection.
+     * Connections still borrowed are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        leakDetector.shutdownNow();
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            discard(physical);
+        }
+    }
+
+    // Metrics ──────────────────────────────────────────────────────────
+
+    /** @return Pool name. */
+    public String getName() { return name; }
+
+    /** @return Maximum number of physical connections. */
+    public int getMaxSize() { return maxSize; }
+
+    /** @return Connections currently borrowed. */
+    public int getActiveCount() { return leased.size(); }
+
+    /** @return Connections currently idle in the pool. */
+    public int getIdleCount() { return idle.size(); }
+
+    /** @return Highest number of connections borrowed at the same time. */
+    public int getPeakActiveCount() { return peakActive.get(); }
+
+    /** @return Total successful borrows. */
+    public long getBorrowCount() { return borrows.get(); }
+
+    /** @return Borrows that failed after waiting maxWaitMs. */
+    public long getTimeoutCount() { return timeouts.get(); }
+
+    /** @return Physical connections opened over the pool's lifetime. */
+    public long getCreatedCount() { return created.get(); }
+
+    /** @return Idle connections discarded because validation failed. */
+    public long getValidationFailureCount() { return validationFailures.get(); }
+
+    /** @return Leases reported as possible leaks. */
+    public long getLeakCount() { return leaksDetected.get(); }
+
+    /** @return prepareStatement calls served from a statement cache. */
+    public long getStatementCacheHits() { return statementHits.get(); }
+
+    /** @return prepareStatement calls that had to prepare a new statement. */
+    public long getStatementCacheMisses() { return statementMisses.get(); }
+
+    /** @return Cached statements closed to stay within the per-connection bound. */
+    public long getStatementCacheEvictions() { return statementEvictions.get(); }
+
+    /** @return Fraction of prepareStatement calls served from a statement cache. */
+    public double getStatementCacheHitRatio() {
+        long total = statementHits.get() + statementMisses.get();
+        return total == 0 ? 0 : (double) statementHits.get() / total;
+    }
+
+    /** @return Mean time spent waiting for a connection, in milliseconds. */
+    public double getAverageWaitMs() {
+        long count = borrows.get() + timeouts.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return One-line summary of the pool metrics for logs.
+     */
+    public String describeMetrics() {
+        return String.format("pool=%s active=%d idle=%d peak=%d/%d borrows=%d timeouts=%d created=%d invalid=%d leaks=%d avgWait=%.2fms"
+                        + " stmtHits=%d stmtMisses=%d stmtEvictions=%d stmtHitRatio=%.3f",
+                name, getActiveCount(), getIdleCount(), getPeakActiveCount(), maxSize, getBorrowCount(),
+                getTimeoutCount(), getCreatedCount(), getValidationFailureCount(), getLeakCount(), getAverageWaitMs(),
+                getStatementCacheHits(), getStatementCacheMisses(), getStatementCacheEvictions(), getStatementCacheHitRatio());
+    }
+
+    // DataSource methods not supported by this pool ──────────────────────
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool '" + name + "' uses fixed credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {}
+
+    @Override
+    public void setLoginTimeout(int seconds) {}
+
+    @Override
+    public int getLoginTimeout() { return 0; }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private static class PhysicalConnection {
+        final Connection connection;
+        final StatementCache statements;   // null when statement caching is disabled
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PhysicalConnection(Connection connection, StatementCache statements) {
+            this.connection = connection;
+            this.statements = statements;
+        }
+    }
+
+    /**
+     * One borrow of a physical connection. The proxy handed to callers returns the
+     * connection to the pool on close() and rejects use after that.
+     */
+    private class Lease implements InvocationHandler {
+        final PhysicalConnection physical;
+        final Connection proxy;
+        final long borrowedAt = System.currentTimeMillis();
+        final Thread borrower = Thread.currentThread();
+        final Throwable borrowStack = leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+        final AtomicBoolean returned = new AtomicBoolean();
+        volatile boolean reported;
+
+        Lease(PhysicalConnection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (returned.get()) {
+                        throw new SQLException("Connection has already been returned to pool '" + name + "'");
+                    }
+                    // Plain prepareStatement(sql) calls go through the statement cache.
+                    if (physical.statements != null && method.getName().equals("prepareStatement")
+                            && args.length == 1) {
+                        return physical.statements.prepare((String) args[0]);
+                    }
+                    try {
+                        return method.invoke(physical.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
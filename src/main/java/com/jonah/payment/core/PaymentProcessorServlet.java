@@ -2,29 +2,40 @@ package com.jonah.payment.core;
 
 import com.jonah.payment.data.*;
 import com.jonah.payment.network.*;
+import com.jonah.payment.utils.CryptoUtils;
+import com.jonah.payment.utils.MappedDigestSet;
+import com.jonah.payment.utils.ThreadUtils;
 import java.sql.Connection;
 
 
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.*;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * PaymentProcessorServlet handles incoming XML requests representing transit card tap events.
  * It routes requests either through account verification (entry) or fare processing (exit),
  * and returns XML-based authorization responses.
  */
-@WebServlet(name = "PaymentProcessorServlet", urlPatterns = "/api/payment")
+@WebServlet(name = "PaymentProcessorServlet", urlPatterns = "/api/payment", asyncSupported = true)
 public class PaymentProcessorServlet extends HttpServlet {
 
     // Configurable debug flag to print table contents after each request.
@@ -33,18 +44,147 @@ public class PaymentProcessorServlet extends HttpServlet {
     // Flag to toggle between real Visa integration and the simulator.
     private static final boolean USE_REAL_VISA = true;
 
+    // Prints every Visa request and response body (they contain the PAN; debug only).
+    private static final boolean LOG_VISA_PAYLOADS = false;
+
+    // Mutual TLS context shared by every VisaClient: session cache for resumption, and how
+    // often the PEM files are checked for rotated certificates.
+    private static final int TLS_SESSION_CACHE_SIZE = 1_024;
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = 3_600;
+    private static final long TLS_RELOAD_INTERVAL_MS = 60_000;
+
+    // Wraps the acquirer client with deadlines, retries, a circuit breaker and hedging.
+    private static final boolean ACQUIRER_RESILIENCE = false;
+    private static final long ACQUIRER_DEADLINE_MS = 2_000;
+    private static final long ACQUIRER_ATTEMPT_TIMEOUT_MS = 800;
+    private static final int ACQUIRER_MAX_RETRIES = 1;
+    private static final int ACQUIRER_BREAKER_FAILURES = 5;
+    private static final long ACQUIRER_BREAKER_OPEN_MS = 10_000;
+    private static final double ACQUIRER_HEDGE_PERCENTILE = 0.95;
+
+    // Approves entries of known, non-denylisted cards locally when the AVR is slower than the
+    // live wait or fails; the AVR completes in the background and denylists the card on decline.
+    private static final boolean STAND_IN_AUTHORIZATION = false;
+    private static final long STAND_IN_LIVE_WAIT_MS = 150;
+    private static final int STAND_IN_MAX_PENDING_PER_CARD = 1;
+    private static final int STAND_IN_MAX_PENDING_TOTAL = 10_000;
+    private static final int STAND_IN_MAX_RETRIES = 5;
+    private static final long STAND_IN_RETRY_DELAY_MS = 1_000;
+
+    // Adds exit fares to a durable per-card ledger and authorizes each card's total once per
+    // window (closing at the daily cut-off) or when it reaches the threshold, instead of per exit.
+    private static final boolean FARE_AGGREGATION = false;
+    private static final Duration FARE_AGGREGATION_WINDOW = Duration.ofDays(1);
+    private static final LocalTime FARE_AGGREGATION_CUTOFF = LocalTime.of(3, 0);
+    private static final double FARE_AGGREGATION_THRESHOLD = 100.00;
+    private static final long FARE_AGGREGATION_SWEEP_MS = 60_000;
+
+    // Fare table priced by terminal, zone and time-of-day band (see FareTable for the format);
+    // null keeps the per-second demonstration fare.
+    private static final String FARE_TABLE_FILE = null;
+
+    // Caps each card's charges per service day and per week (Monday to Sunday); running totals
+    // live in a memory-mapped file, and a background pass rolls them over.
+    private static final boolean FARE_CAPPING = false;
+    private static final double FARE_CAP_DAILY = 12.00;
+    private static final double FARE_CAP_WEEKLY = 40.00;
+    private static final LocalTime FARE_CAP_SERVICE_DAY_START = LocalTime.of(3, 0);
+    private static final String FARE_CAP_FILE = "fare_caps.dat";
+    private static final long FARE_CAP_EXPECTED_CARDS = 1_000_000;
+    private static final long FARE_CAP_ROLLOVER_MS = 60_000;
+
     // Determines whether to reset the database schema upon startup.
     private static final boolean RESET_TABLES = true;
 
+    // tap_events layout: covering open-entry index and interval partitioning by tap_time.
+    private static final boolean INDEX_TAP_EVENTS = true;
+    private static final boolean PARTITION_TAP_EVENTS = false;
+
+    // PAN digest storage: BASE64 (VARCHAR2) or RAW(32); switching to RAW migrates existing tables online.
+    private static final PanStorageFormat PAN_STORAGE_FORMAT = PanStorageFormat.BASE64;
+
+    // Connection pool sizing: max Oracle sessions, max wait to borrow, and hold time reported as a leak.
+    private static final int DB_POOL_SIZE = 32;
+    private static final long DB_POOL_MAX_WAIT_MS = 2_000;
+    private static final long DB_POOL_LEAK_THRESHOLD_MS = 30_000;
+
+    // Prepared statements cached per pooled connection (LRU); 0 disables the cache.
+    private static final int DB_STATEMENT_CACHE_SIZE = 32;
+
+    // Serves denylist lookups from memory (Bloom filter + hash set) with periodic refresh.
+    private static final boolean DENYLIST_CACHE = false;
+    private static final long DENYLIST_EXPECTED_ENTRIES = 100_000;
+    private static final double DENYLIST_FALSE_POSITIVE_RATE = 0.01;
+    private static final long DENYLIST_REFRESH_MS = 5_000;
+
+    // Matches exits against an in-memory index of open journeys, rebuilt from tap_events at startup.
+    private static final boolean OPEN_JOURNEY_INDEX = false;
+    private static final Duration OPEN_JOURNEY_MAX_AGE = Duration.ofHours(24);
+    private static final long OPEN_JOURNEY_SWEEP_MS = 60_000;
+
+    // Reuses recent acquirer approvals for repeat entries; denylisting a card drops its approval.
+    private static final boolean AVR_CACHE = false;
+    private static final Duration AVR_CACHE_LIFETIME = Duration.ofMinutes(15);
+    private static final int AVR_CACHE_MAX_ENTRIES = 100_000;
+
+    // Answers repeated taps (terminal retries, rider double-taps) with the original response
+    // instead of processing them again.
+    private static final boolean INGRESS_DEDUPLICATION = false;
+    private static final Duration INGRESS_DEDUPLICATION_WINDOW = Duration.ofSeconds(10);
+    private static final long INGRESS_DEDUPLICATION_SWEEP_MS = 10_000;
+
+    // Answers first-seen checks from a persistent off-heap set of PAN digests (memory-mapped file).
+    private static final boolean SEEN_CARD_SET = false;
+    private static final String SEEN_CARD_SET_FILE = "seen_cards.set";
+    private static final long SEEN_CARD_SET_EXPECTED_ENTRIES = 1_000_000;
+
+    // Journals tap_events inserts locally and writes them to Oracle in background batches.
+    private static final boolean WRITE_BEHIND_TAPS = false;
+
+    // Write-behind journal location, rows per batch/commit, max buffering delay and in-memory capacity.
+    private static final String TAP_JOURNAL_FILE = "tap_events.journal";
+    private static final int TAP_JOURNAL_BATCH_SIZE = 500;
+    private static final long TAP_JOURNAL_MAX_LATENCY_MS = 50;
+    private static final int TAP_JOURNAL_BUFFER_CAPACITY = 65_536;
+
+    // Releases the container thread and processes taps on the async pipeline.
+    private static final boolean ASYNC_MODE = false;
+
+    // Async pipeline sizing: DB threads, non-blocking acquirer calls in flight and DB queue depth.
+    private static final int ASYNC_DB_THREADS = 16;
+    private static final int ASYNC_ACQUIRER_IN_FLIGHT = 512;
+    private static final int ASYNC_QUEUE_CAPACITY = 1_000;
+
+    // Runs each tap, from XML parsing to the acquirer call, on its own virtual thread.
+    // Takes precedence over ASYNC_MODE when both are enabled.
+    private static final boolean VIRTUAL_THREADS = false;
+
+    // Maximum time an async tap may take before the terminal receives a timeout.
+    private static final long ASYNC_TIMEOUT_MS = 10_000;
+
     // List of database tables to print if debug mode is enabled.
-    private final String[] tables = {"tap_events", "denylist", "seen_cards"};
+    private final String[] tables = {"tap_events", "denylist", "seen_cards", "fare_ledger"};
 
     // Dependencies for request handling.
-    private DenylistDAO denylistDAO;
-    private Connection conn;
+    private OracleConnectionPool pool;
     private AcquirerSimulator acquirer;
+    private ResilientVisaClient resilientClient;
+    private ManagedSSLContext tlsContext;
+    private IngressDeduplicator deduplicator;
+    private AVRResultCache avrCache;
+    private StandInAuthorizer standIn;
+    private FareAggregator fareAggregator;
+    private TapEventJournal tapJournal;
+    private DenylistCache denylistCache;
+    private MappedDigestSet seenCardSet;
+    private OpenJourneyIndex openJourneys;
     private AVRHandler avrHandler;
+    private AuthorizationHandler authorizationHandler;
     private AccountBasedProcessor fareProcessor;
+    private FareTable fareTable;
+    private FareCapper fareCapper;
+    private AsyncTapPipeline asyncPipeline;
+    private ExecutorService virtualThreadExecutor;
 
     /**
      * Initializes the servlet by creating a database connection, schema,
@@ -53,19 +193,137 @@ public class PaymentProcessorServlet extends HttpServlet {
     @Override
     public void init() {
         try {
-            // Connect to Oracle database.
-            this.conn = OracleConnector.getConnection();
+            // Create the bounded Oracle connection pool shared by all DAOs.
+            this.pool = new OracleConnectionPool("oracle", OracleConnector::getConnection,
+                    DB_POOL_SIZE, DB_POOL_MAX_WAIT_MS, DB_POOL_LEAK_THRESHOLD_MS, DB_STATEMENT_CACHE_SIZE);
 
             // Reset tables if configured to do so.
-            SchemaInitializer.setupSchema(conn, RESET_TABLES);
+            try (Connection conn = pool.getConnection()) {
+                SchemaInitializer.setupSchema(conn, RESET_TABLES, new SchemaOptions(INDEX_TAP_EVENTS, PARTITION_TAP_EVENTS, PAN_STORAGE_FORMAT));
+            }
+
+            // In virtual-thread mode, taps and VisaClient HTTP calls share a virtual-thread executor.
+            if (VIRTUAL_THREADS) {
+                this.virtualThreadExecutor = ThreadUtils.newVirtualThreadPerTaskExecutor();
+            }
+
+            // Size the shared TLS session cache and watch the client certificate for rotation.
+            if (USE_REAL_VISA) {
+                this.tlsContext = VisaClient.sharedTlsContext();
+                tlsContext.setSessionCache(TLS_SESSION_CACHE_SIZE, TLS_SESSION_TIMEOUT_SECONDS);
+                tlsContext.start(TLS_RELOAD_INTERVAL_MS);
+            }
 
             // Choose real Visa integration or local simulator.
-            this.acquirer = new AcquirerSimulator(USE_REAL_VISA);
+            AsyncVisaClientInterface visaClient = USE_REAL_VISA
+                    ? new VisaClient(virtualThreadExecutor, LOG_VISA_PAYLOADS)
+                    : new VisaClientSimulator();
+
+            // Bound how long a tap waits for the acquirer and keep its failures from denylisting riders.
+            if (ACQUIRER_RESILIENCE) {
+                ResilienceOptions resilience = new ResilienceOptions();
+                resilience.deadlineMs = ACQUIRER_DEADLINE_MS;
+                resilience.attemptTimeoutMs = ACQUIRER_ATTEMPT_TIMEOUT_MS;
+                resilience.maxRetries = ACQUIRER_MAX_RETRIES;
+                resilience.breakerFailureThreshold = ACQUIRER_BREAKER_FAILURES;
+                resilience.breakerOpenMs = ACQUIRER_BREAKER_OPEN_MS;
+                resilience.hedgePercentile = ACQUIRER_HEDGE_PERCENTILE;
+                this.resilientClient = new ResilientVisaClient(visaClient, resilience);
+                visaClient = resilientClient;
+            }
+            this.acquirer = new AcquirerSimulator(visaClient);
+
+            // Start the write-behind tap journal, replaying taps not yet in tap_events.
+            if (WRITE_BEHIND_TAPS) {
+                Path journalFile = Paths.get(TAP_JOURNAL_FILE);
+                if (RESET_TABLES) {
+                    // Journaled taps belong to the tables that were just dropped.
+                    Files.deleteIfExists(journalFile);
+                }
+                this.tapJournal = new TapEventJournal(pool, journalFile,
+                        TAP_JOURNAL_BATCH_SIZE, TAP_JOURNAL_MAX_LATENCY_MS, TAP_JOURNAL_BUFFER_CAPACITY, PAN_STORAGE_FORMAT);
+                tapJournal.start();
+            }
+
+            // Load the denylist into memory and keep it refreshed from the table.
+            if (DENYLIST_CACHE) {
+                this.denylistCache = new DenylistCache(pool, DENYLIST_EXPECTED_ENTRIES, DENYLIST_FALSE_POSITIVE_RATE,
+                        PAN_STORAGE_FORMAT);
+                denylistCache.load();
+                denylistCache.start(DENYLIST_REFRESH_MS);
+            }
+
+            // Map the persistent seen-card set; it mirrors seen_cards, so it is cleared with it.
+            if (SEEN_CARD_SET) {
+                Path setFile = Paths.get(SEEN_CARD_SET_FILE);
+                if (RESET_TABLES) {
+                    Files.deleteIfExists(setFile);
+                }
+                this.seenCardSet = MappedDigestSet.open(setFile, SEEN_CARD_SET_EXPECTED_ENTRIES);
+            }
+
+            // Rebuild the open-journey index after any journal replay has reached tap_events.
+            if (OPEN_JOURNEY_INDEX) {
+                this.openJourneys = new OpenJourneyIndex(OPEN_JOURNEY_MAX_AGE);
+                openJourneys.rebuild(pool, PAN_STORAGE_FORMAT);
+                openJourneys.start(OPEN_JOURNEY_SWEEP_MS);
+            }
+
+            // Suppress duplicate taps before they reach the database or the acquirer.
+            if (INGRESS_DEDUPLICATION) {
+                this.deduplicator = new IngressDeduplicator(INGRESS_DEDUPLICATION_WINDOW);
+                deduplicator.start(INGRESS_DEDUPLICATION_SWEEP_MS);
+            }
 
             // Initialize DAOs and handlers for data access and processing logic.
-            this.denylistDAO = new DenylistDAO(conn);
-            this.avrHandler = new AVRHandler(acquirer, conn);
-            this.fareProcessor = new AccountBasedProcessor();
+            TapEventDAO tapEventDAO = new TapEventDAO(pool, tapJournal, openJourneys, PAN_STORAGE_FORMAT);
+            DenylistDAO denylistDAO = new DenylistDAO(pool, denylistCache, PAN_STORAGE_FORMAT);
+            SeenCardDAO seenCardDAO = new SeenCardDAO(pool, seenCardSet, PAN_STORAGE_FORMAT);
+            FareCalculator fareCalculator = AccountBasedProcessor.PER_SECOND_FARE;
+            if (FARE_TABLE_FILE != null) {
+                this.fareTable = FareTable.load(Path.of(FARE_TABLE_FILE));
+                System.out.println("\uD83D\uDCCA Loaded " + fareTable.describeMetrics());
+                fareCalculator = fareTable;
+            }
+
+            // Map the per-card capping totals; they count charged journeys, so they are cleared with tap_events.
+            if (FARE_CAPPING) {
+                Path capFile = Paths.get(FARE_CAP_FILE);
+                if (RESET_TABLES) {
+                    Files.deleteIfExists(capFile);
+                }
+                this.fareCapper = FareCapper.open(capFile, FARE_CAP_EXPECTED_CARDS, FARE_CAP_DAILY, FARE_CAP_WEEKLY,
+                        FARE_CAP_SERVICE_DAY_START);
+                fareCapper.rollover(LocalDateTime.now());
+                fareCapper.start(FARE_CAP_ROLLOVER_MS);
+            }
+            this.fareProcessor = new AccountBasedProcessor(fareCalculator, fareCapper);
+            if (STAND_IN_AUTHORIZATION) {
+                this.standIn = new StandInAuthorizer(acquirer, denylistDAO, STAND_IN_LIVE_WAIT_MS,
+                        STAND_IN_MAX_PENDING_PER_CARD, STAND_IN_MAX_PENDING_TOTAL, STAND_IN_MAX_RETRIES, STAND_IN_RETRY_DELAY_MS);
+            }
+            if (AVR_CACHE) {
+                this.avrCache = new AVRResultCache(AVR_CACHE_LIFETIME, AVR_CACHE_MAX_ENTRIES);
+                denylistDAO.addDenylistListener(avrCache::invalidate);
+            }
+            this.avrHandler = new AVRHandler(acquirer, tapEventDAO, denylistDAO, seenCardDAO, standIn, avrCache);
+
+            // Load unsettled fares and start authorizing cards as their windows close.
+            if (FARE_AGGREGATION) {
+                // Ledger rows hold encrypted card data; fail at startup if the key is not configured.
+                CryptoUtils.loadCardDataKey();
+                this.fareAggregator = new FareAggregator(acquirer, new FareLedgerDAO(pool, PAN_STORAGE_FORMAT), denylistDAO,
+                        FARE_AGGREGATION_WINDOW, FARE_AGGREGATION_CUTOFF, FARE_AGGREGATION_THRESHOLD);
+                fareAggregator.load();
+                fareAggregator.start(FARE_AGGREGATION_SWEEP_MS);
+            }
+            this.authorizationHandler = new AuthorizationHandler(acquirer, tapEventDAO, denylistDAO, fareProcessor, fareAggregator);
+
+            // Start the bounded DB and acquirer executors used in async mode.
+            if (ASYNC_MODE && !VIRTUAL_THREADS) {
+                this.asyncPipeline = new AsyncTapPipeline(avrHandler, authorizationHandler, acquirer,
+                        ASYNC_DB_THREADS, ASYNC_ACQUIRER_IN_FLIGHT, ASYNC_QUEUE_CAPACITY);
+            }
 
             System.out.println("\u2705 Database ready.");
         } catch (Exception e) {
@@ -74,20 +332,106 @@ public class PaymentProcessorServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Stops background work, flushes pending writes and closes the connection pool
+     * when the webapp is undeployed.
+     */
+    @Override
+    public void destroy() {
+        if (asyncPipeline != null) {
+            asyncPipeline.shutdown();
+        }
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+        if (fareAggregator != null) {
+            fareAggregator.close();
+            System.out.println("\uD83D\uDCCA " + fareAggregator.describeMetrics());
+        }
+        if (standIn != null) {
+            standIn.close();
+            System.out.println("\uD83D\uDCCA " + standIn.describeMetrics());
+        }
+        if (resilientClient != null) {
+            resilientClient.close();
+            System.out.println("\uD83D\uDCCA " + resilientClient.describeMetrics());
+        }
+        if (avrCache != null) {
+            System.out.println("\uD83D\uDCCA " + avrCache.describeMetrics());
+        }
+        if (fareTable != null) {
+            System.out.println("\uD83D\uDCCA " + fareTable.describeMetrics());
+        }
+        if (deduplicator != null) {
+            deduplicator.close();
+            System.out.println("\uD83D\uDCCA " + deduplicator.describeMetrics());
+        }
+        if (tlsContext != null) {
+            // Shared with other servlet instances in this JVM, so it is left running.
+            System.out.println("\uD83D\uDCCA " + tlsContext.describeMetrics());
+        }
+        if (denylistCache != null) {
+            denylistCache.close();
+            System.out.println("\uD83D\uDCCA " + denylistCache.describeMetrics());
+        }
+        if (openJourneys != null) {
+            openJourneys.close();
+            System.out.println("\uD83D\uDCCA " + openJourneys.describeMetrics());
+        }
+        if (seenCardSet != null) {
+            System.out.println("\uD83D\uDCCA " + seenCardSet.describeMetrics());
+            seenCardSet.close();
+        }
+        if (fareCapper != null) {
+            fareCapper.close();
+            System.out.println("\uD83D\uDCCA " + fareCapper.describeMetrics());
+        }
+        if (tapJournal != null) {
+            tapJournal.close();
+            System.out.println("\uD83D\uDCCA " + tapJournal.describeMetrics());
+        }
+        if (pool != null) {
+            System.out.println("\uD83D\uDCCA " + pool.describeMetrics());
+            pool.close();
+        }
+    }
+
     /**
      * Main entry point for all incoming XML payment requests.
-     * Parses the XML, determines tap mode (entry/exit), and routes accordingly.
+     * In virtual-thread mode the whole request is handled on a new virtual thread;
+     * otherwise it is handled on the container thread.
      */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        // Read the entire XML body from the incoming request.
-        String xml = new String(request.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-        System.out.println("\n\u2709\uFE0F Incoming PaymentRequest:\n" + xml);
+        if (VIRTUAL_THREADS) {
+            // Blocking style is kept: the virtual thread parks on JDBC and HTTP I/O
+            // instead of pinning a container thread.
+            AsyncContext async = request.startAsync();
+            async.setTimeout(0);
+            virtualThreadExecutor.execute(() -> {
+                try {
+                    handleRequest((HttpServletRequest) async.getRequest(), (HttpServletResponse) async.getResponse());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    async.complete();
+                }
+            });
+            return;
+        }
+
+        handleRequest(request, response);
+    }
 
+    /**
+     * Parses the XML, determines tap mode (entry/exit), and routes accordingly.
+     */
+    private void handleRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
         PaymentRequest payment;
         try {
-            // Attempt to parse the XML body into a Java PaymentRequest object.
-            payment = XMLParser.fromXml(xml);
+            // Stream the XML body straight into a Java PaymentRequest object.
+            payment = XMLParser.fromXml(request.getInputStream());
+            System.out.println("\n\u2709\uFE0F Incoming PaymentRequest: " + payment.getMode() + " at " + payment.getTerminalId());
         } catch (Exception e) {
             // Respond with HTTP 400 Bad Request if parsing fails.
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -96,6 +440,31 @@ public class PaymentProcessorServlet extends HttpServlet {
         }
 
         // Construct TapEvent object from parsed PaymentRequest.
+        TapEvent tap = toTapEvent(payment);
+
+        if (asyncPipeline != null) {
+            processAsync(request, payment, tap);
+            return;
+        }
+
+        PaymentResponse result = deduplicator != null
+                ? deduplicator.submit(tap, () -> CompletableFuture.completedFuture(processTap(payment, tap))).join()
+                : processTap(payment, tap);
+        writeResponse(response, result);
+
+        // Optional: Print contents of all tables for debugging.
+        if (DEBUG_MODE) {
+            printTables();
+        }
+    }
+
+    /**
+     * Builds the TapEvent recorded for a parsed PaymentRequest.
+     *
+     * @param payment The parsed payment request.
+     * @return A tap event stamped with the current time.
+     */
+    private TapEvent toTapEvent(PaymentRequest payment) {
         TapEvent tap = new TapEvent();
         tap.setPan(payment.getCardData().getPan());
         tap.setExpiry(payment.getCardData().getExpiry());
@@ -104,7 +473,17 @@ public class PaymentProcessorServlet extends HttpServlet {
         tap.setTerminalId(payment.getTerminalId());
         tap.setTimestamp(LocalDateTime.now());
         tap.setMode(payment.getMode());
+        return tap;
+    }
 
+    /**
+     * Processes a tap on the calling thread.
+     *
+     * @param payment The parsed payment request.
+     * @param tap     Tap event extracted from the request.
+     * @return The response to send to the terminal.
+     */
+    private PaymentResponse processTap(PaymentRequest payment, TapEvent tap) {
         // Handle tap based on mode.
         if (tap.getMode().equals("entry")) {
             // ENTRY MODE ────────────────────────────────────────────
@@ -116,94 +495,169 @@ public class PaymentProcessorServlet extends HttpServlet {
                     ? "\u2705 Approved entrance at " + tap.getTerminalId()
                     : "\u274C Denied entrance at " + tap.getTerminalId());
 
-            // Respond with appropriate HTTP status and XML body.
-            response.setContentType("application/xml");
-            response.setStatus(approved ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_FORBIDDEN);
-            response.getWriter().write("<PaymentResponse><Status>" + (approved ? "Accepted" : "AVR Declined") + "</Status></PaymentResponse>");
-
-        } else {
-            // EXIT MODE ───────────────────────────────────────────────
-            TapEventDAO dao = new TapEventDAO(conn);
-            TapEvent matchedEntry = null;
-            boolean approved = false;
-
-            try {
-                // Step 1: Find most recent unmatched approved entry tap.
-                matchedEntry = dao.findMostRecentUnmatchedEntry(tap.getPan());
+            return toResponse(approved);
+        }
 
-                // Step 2: Calculate fare and set amount in PaymentRequest.
-                fareProcessor.processTapFare(payment, matchedEntry, tap);
+        // EXIT MODE ───────────────────────────────────────────────
+        boolean approved;
+        try {
+            // Find entry, calculate fare, authorize and log the exit.
+            approved = authorizationHandler.processAuthorization(payment, tap);
+        } catch (Exception e) {
+            // Internal server error due to DB or processing failure.
+            e.printStackTrace();
+            return new PaymentResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server Error");
+        }
 
-                // Step 3: Send authorization request to Visa/acquirer.
-                approved = acquirer.sendAuthorization(payment);
+        // Log final approval or rejection to server console.
+        System.out.println(approved
+                ? String.format("\u2705 Approved exit at %s: fare $%.2f", tap.getTerminalId(), payment.getAmount())
+                : "\u274C Denied exit at " + tap.getTerminalId());
 
-                // Step 4: Log this exit tap (whether approved or not).
-                dao.insert(tap, approved);
+        return toResponse(approved);
+    }
 
-                // Step 5: If approved exit, mark the entry as matched.
-                if (approved) {
-                    dao.markEntryAsMatched(tap.getPan(), tap.getTimestamp());
+    /**
+     * Hands the tap to the async pipeline and releases the container thread.
+     * The response is written and the AsyncContext completed once the pipeline finishes,
+     * or with 504 if the tap exceeds ASYNC_TIMEOUT_MS.
+     */
+    private void processAsync(HttpServletRequest request, PaymentRequest payment, TapEvent tap) {
+        AsyncContext async = request.startAsync();
+        async.setTimeout(ASYNC_TIMEOUT_MS);
+
+        // Guards against the timeout and the pipeline both completing the request.
+        AtomicBoolean done = new AtomicBoolean();
+
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (done.compareAndSet(false, true)) {
+                    writeResponse((HttpServletResponse) async.getResponse(),
+                            new PaymentResponse(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Timeout"));
+                    async.complete();
                 }
+            }
 
-            } catch (Exception e) {
-                // Internal server error due to DB or processing failure.
-                e.printStackTrace();
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                response.setContentType("application/xml");
-                response.getWriter().write("<PaymentResponse><Status>Server Error</Status></PaymentResponse>");
+            @Override public void onComplete(AsyncEvent event) {}
+            @Override public void onError(AsyncEvent event) {}
+            @Override public void onStartAsync(AsyncEvent event) {}
+        });
+
+        CompletableFuture<PaymentResponse> pending = deduplicator != null
+                ? deduplicator.submit(tap, () -> asyncPipeline.submit(payment, tap))
+                : asyncPipeline.submit(payment, tap);
+        pending.thenAccept(result -> {
+            if (!done.compareAndSet(false, true)) {
                 return;
             }
+            try {
+                writeResponse((HttpServletResponse) async.getResponse(), result);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                async.complete();
+            }
 
-            // Denylist PAN if authorization fails.
-            if (!approved) {
-                try {
-                    denylistDAO.addToDenylist(tap.getPan());
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+            // Optional: Print contents of all tables for debugging.
+            if (DEBUG_MODE) {
+                asyncPipeline.runOnDbExecutor(this::printTables);
             }
+        });
+    }
 
-            // Log final approval or rejection to server console.
-            System.out.println(approved
-                    ? String.format("\u2705 Approved exit at %s: fare $%.2f", tap.getTerminalId(), payment.getAmount())
-                    : "\u274C Denied exit at " + tap.getTerminalId());
+    /**
+     * Maps an approval decision to the response sent to the terminal.
+     *
+     * @param approved Whether the tap was approved.
+     * @return 202 Accepted or 403 declined response.
+     */
+    static PaymentResponse toResponse(boolean approved) {
+        return approved
+                ? new PaymentResponse(HttpServletResponse.SC_ACCEPTED, "Accepted")
+                : new PaymentResponse(HttpServletResponse.SC_FORBIDDEN, "AVR Declined");
+    }
 
-            // Respond with HTTP status and authorization result in XML.
-            response.setContentType("application/xml");
-            response.setStatus(approved ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_FORBIDDEN);
-            response.getWriter().write("<PaymentResponse><Status>" + (approved ? "Accepted" : "AVR Declined") + "</Status></PaymentResponse>");
+    /**
+     * Writes a PaymentResponse as the XML HTTP response.
+     */
+    private void writeResponse(HttpServletResponse response, PaymentResponse result) throws IOException {
+        // Respond with HTTP status and authorization result in XML.
+        response.setContentType("application/xml");
+        response.setStatus(result.getHttpStatus());
+        response.getWriter().write(result.toXml());
+    }
+
+    /**
+     * Prints the contents of all tables for debugging.
+     */
+    private void printTables() {
+        System.out.println("\n\uD83D\uDCCA " + pool.describeMetrics());
+        if (resilientClient != null) {
+            System.out.println("\uD83D\uDCCA " + resilientClient.describeMetrics());
+        }
+        if (tlsContext != null) {
+            System.out.println("\uD83D\uDCCA " + tlsContext.describeMetrics());
+        }
+        if (deduplicator != null) {
+            System.out.println("\uD83D\uDCCA " + deduplicator.describeMetrics());
+        }
+        if (avrCache != null) {
+            System.out.println("\uD83D\uDCCA " + avrCache.describeMetrics());
+        }
+        if (fareTable != null) {
+            System.out.println("\uD83D\uDCCA " + fareTable.describeMetrics());
+        }
+        if (fareCapper != null) {
+            System.out.println("\uD83D\uDCCA " + fareCapper.describeMetrics());
+        }
+        if (standIn != null) {
+            System.out.println("\uD83D\uDCCA " + standIn.describeMetrics());
+        }
+        if (fareAggregator != null) {
+            System.out.println("\uD83D\uDCCA " + fareAggregator.describeMetrics());
+        }
+        if (tapJournal != null) {
+            System.out.println("\uD83D\uDCCA " + tapJournal.describeMetrics());
+        }
+        if (denylistCache != null) {
+            System.out.println("\uD83D\uDCCA " + denylistCache.describeMetrics());
+        }
+        if (seenCardSet != null) {
+            System.out.println("\uD83D\uDCCA " + seenCardSet.describeMetrics());
+        }
+        if (openJourneys != null) {
+            System.out.println("\uD83D\uDCCA " + openJourneys.describeMetrics());
         }
 
-        // Optional: Print contents of all tables for debugging.
-        if (DEBUG_MODE) {
-            try (Statement stmt = conn.createStatement()) {
-                for (String table : tables) {
-                    System.out.println("\n\uD83D\uDCCB Contents of table: " + table);
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String table : tables) {
+                System.out.println("\n\uD83D\uDCCB Contents of table: " + table);
 
-                    try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + table)) {
-                        ResultSetMetaData meta = rs.getMetaData();
-                        int colCount = meta.getColumnCount();
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + table)) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int colCount = meta.getColumnCount();
+
+                    int colWidth = 32;
+                    for (int i = 1; i <= colCount; i++) {
+                        System.out.printf("%-" + colWidth + "s", meta.getColumnName(i));
+                    }
+                    System.out.println();
 
-                        int colWidth = 32;
+                    while (rs.next()) {
                         for (int i = 1; i <= colCount; i++) {
-                            System.out.printf("%-" + colWidth + "s", meta.getColumnName(i));
+                            String value = rs.getString(i);
+                            if (value == null) value = "NULL";
+                            System.out.printf("%-" + colWidth + "s", value);
                         }
                         System.out.println();
-
-                        while (rs.next()) {
-                            for (int i = 1; i <= colCount; i++) {
-                                String value = rs.getString(i);
-                                if (value == null) value = "NULL";
-                                System.out.printf("%-" + colWidth + "s", value);
-                            }
-                            System.out.println();
-                        }
                     }
                 }
-            } catch (SQLException e) {
-                System.out.println("\u274C Error while querying tables:");
-                e.printStackTrace();
             }
+        } catch (SQLException e) {
+            System.out.println("\u274C Error while querying tables:");
+            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
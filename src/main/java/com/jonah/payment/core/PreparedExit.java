@@ -0,0 +1,37 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.EntryClaim;
+
+/**
+ * PreparedExit is what an exit's database stage sets aside before the acquirer is
+ * contacted: the claim on the rider's entry and the fare cap reservation. Both are
+ * settled by AuthorizationHandler.completeAuthorization once the acquirer answers.
+ */
+public class PreparedExit {
+
+    private final EntryClaim claim;                   // Claim on the matched entry, or null
+    private final FareCapper.Reservation reservation; // Capped fare set aside, or null
+
+    /**
+     * @param claim       Claim on the matched entry, or null for an incomplete journey.
+     * @param reservation Fare cap reservation, or null if fares are not capped.
+     */
+    public PreparedExit(EntryClaim claim, FareCapper.Reservation reservation) {
+        this.claim = claim;
+        this.reservation = reservation;
+    }
+
+    /**
+     * @return The claim on the matched entry, or null if there was none.
+     */
+    public EntryClaim getClaim() {
+        return claim;
+    }
+
+    /**
+     * @return The fare cap reservation, or null if fares are not capped.
+     */
+    public FareCapper.Reservation getReservation() {
+        return reservation;
+    }
+}
@@ -0,0 +1,239 @@
+package com.jonah.payment.core;
+
+import com.jonah.payment.data.DenylistDAO;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.data.TapEvent;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AcquirerSimulator;
+import com.jonah.payment.utils.HashedPan;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StandInAuthorizer approves entry taps locally when the acquirer does not answer
+ * the AVR in time, so the gate opens at local DB and cache speed.
+ *
+ * Every entry still sends its AVR. If the answer arrives within the live wait it
+ * decides the tap as usual. Otherwise (slow acquirer, or an ERROR such as an open
+ * circuit) the tap is approved in stand-in when the risk rules allow it:
+ * - the card is not denylisted (checked by AVRHandler.prepareAVR before this runs)
+ * - the card has been seen before (a first-time card always waits for the acquirer)
+ * - the card has fewer than maxPendingPerCard unverified stand-in entries
+ * - fewer than maxPendingTotal stand-in entries are unverified overall
+ * The AVR then completes in the background: a decline denylists the PAN after the fact,
+ * an error is retried with backoff. Pending AVRs are held in memory only.
+ */
+public class StandInAuthorizer implements AutoCloseable {
+
+    // Marks a decision taken locally rather than by the acquirer.
+    private static final AcquirerResponse STAND_IN = new AcquirerResponse(AcquirerResponse.Outcome.APPROVED, 0, 0);
+
+    private final AcquirerSimulator acquirer;          // Visa acquirer interface (real or simulated)
+    private final DenylistDAO denylistDAO;             // Denylists cards whose deferred AVR is declined
+    private final long liveWaitMs;                     // Time an entry waits for the live AVR before standing in
+    private final int maxPendingPerCard;               // Unverified stand-in entries allowed per card
+    private final int maxPendingTotal;                 // Unverified stand-in entries allowed overall
+    private final int maxRetries;                      // Deferred AVR retries after errors
+    private final long retryDelayMs;                   // Delay before the first deferred retry, doubled each time
+    private final Map<HashedPan, Integer> pendingByCard = new ConcurrentHashMap<>();       // Card -> unverified entries
+    private final AtomicInteger pendingTotal = new AtomicInteger();                        // All unverified entries
+    private final ScheduledExecutorService timer;      // Live-wait timeouts and deferred retries
+
+    // Metrics
+    private final AtomicLong liveDecisions = new AtomicLong();    // Entries decided by the acquirer in time
+    private final AtomicLong standIns = new AtomicLong();         // Entries approved locally
+    private final AtomicLong refused = new AtomicLong();          // Slow entries the risk rules kept waiting
+    private final AtomicLong verified = new AtomicLong();         // Deferred AVRs approved
+    private final AtomicLong denylisted = new AtomicLong();       // Deferred AVRs declined (PAN denylisted)
+    private final AtomicLong unverified = new AtomicLong();       // Deferred AVRs abandoned after retries
+
+    /**
+     * @param response A response returned by authorize.
+     * @return true if the decision was taken locally rather than by the acquirer.
+     */
+    public static boolean isStandIn(AcquirerResponse response) {
+        return response == STAND_IN;
+    }
+
+    /**
+     * Constructs the authorizer.
+     *
+     * @param acquirer          Acquirer client (real or simulated).
+     * @param denylistDAO       DAO used to denylist cards whose deferred AVR is declined.
+     * @param liveWaitMs        Time to wait for the live AVR before standing in; 0 stands in at once.
+     * @param maxPendingPerCard Unverified stand-in entries allowed per card.
+     * @param maxPendingTotal   Unverified stand-in entries allowed overall.
+     * @param maxRetries        Deferred AVR retries after acquirer errors.
+     * @param retryDelayMs      Delay before the first deferred retry, doubled for each further retry.
+     */
+    public StandInAuthorizer(AcquirerSimulator acquirer, DenylistDAO denylistDAO, long liveWaitMs,
+                             int maxPendingPerCard, int maxPendingTotal, int maxRetries, long retryDelayMs) {
+        this.acquirer = acquirer;
+        this.denylistDAO = denylistDAO;
+        this.liveWaitMs = liveWaitMs;
+        this.maxPendingPerCard = maxPendingPerCard;
+        this.maxPendingTotal = maxPendingTotal;
+        this.maxRetries = maxRetries;
+        this.retryDelayMs = retryDelayMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stand-in-avr");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sends the AVR for an entry tap that passed prepareAVR, standing in if it is slow or fails.
+     *
+     * @param request The entry payment request.
+     * @param tap     The entry tap, with its first-seen flag set by prepareAVR.
+     * @return A future completed with the live response, or with an approval taken in stand-in.
+     */
+    public CompletableFuture<AcquirerResponse> authorize(PaymentRequest request, TapEvent tap) {
+        long start = System.nanoTime();
+        CompletableFuture<AcquirerResponse> live = acquirer.sendAVRAsync(request);
+
+        HashedPan hashedPan = tap.getHashedPan();
+        if (tap.isFirstSeen() || !reserve(hashedPan)) {
+            refused.incrementAndGet();
+            return live;
+        }
+
+        // Whichever comes first decides: a live decision, or the wait expiring / the acquirer failing.
+        CompletableFuture<AcquirerResponse> decision = new CompletableFuture<>();
+        live.whenComplete((response, e) -> decision.complete(e != null || response.isError() ? STAND_IN : response));
+        if (liveWaitMs <= 0) {
+            decision.complete(STAND_IN);
+        } else {
+            timer.schedule(() -> decision.complete(STAND_IN), liveWaitMs, TimeUnit.MILLISECONDS);
+        }
+
+        return decision.thenApply(response -> {
+            if (response != STAND_IN) {
+                liveDecisions.incrementAndGet();
+                release(hashedPan);
+                return response;
+            }
+            standIns.incrementAndGet();
+            System.out.println("\uD83D\uDEE1\uFE0F Stand-in approval at " + tap.getTerminalId() + ", AVR deferred");
+            live.whenComplete((deferred, e) -> settle(request, hashedPan, orError(deferred, e), 0));
+            return new AcquirerResponse(AcquirerResponse.Outcome.APPROVED, 0, System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Applies the outcome of a deferred AVR: approvals and declines end the card's exposure,
+     * declines also denylist it, and errors are retried. Every path ends by releasing the
+     * exposure, whether the AVR completed normally, exceptionally or could not be retried.
+     */
+    private void settle(PaymentRequest request, HashedPan hashedPan, AcquirerResponse response, int attempt) {
+        if (response.isError()) {
+            if (attempt < maxRetries && retry(request, hashedPan, attempt)) {
+                return;
+            }
+            unverified.incrementAndGet();
+            System.err.println("\u26A0\uFE0F Deferred AVR abandoned after " + (attempt + 1) + " attempts: " + response);
+        } else if (response.isApproved()) {
+            verified.incrementAndGet();
+        } else {
+            try {
+                denylistDAO.addToDenylist(hashedPan);
+                denylisted.incrementAndGet();
+                System.out.println("\uD83D\uDEAB Deferred AVR declined — PAN added to denylist");
+            } catch (SQLException e) {
+                System.err.println("\u274C Failed to denylist after deferred AVR decline: " + e.getMessage());
+            }
+        }
+        release(hashedPan);
+    }
+
+    /**
+     * Schedules another attempt of a deferred AVR.
+     *
+     * @return false if the timer has been closed.
+     */
+    private boolean retry(PaymentRequest request, HashedPan hashedPan, int attempt) {
+        try {
+            timer.schedule(() -> {
+                CompletableFuture<AcquirerResponse> retried;
+                try {
+                    retried = acquirer.sendAVRAsync(request);
+                } catch (RuntimeException e) {
+                    retried = CompletableFuture.failedFuture(e);
+                }
+                retried.whenComplete((response, e) -> settle(request, hashedPan, orError(response, e), attempt + 1));
+            }, retryDelayMs << attempt, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private static AcquirerResponse orError(AcquirerResponse response, Throwable e) {
+        return e == null ? response : AcquirerResponse.error(System.nanoTime());
+    }
+
+    /**
+     * Takes one unit of exposure for the card if the per-card and global limits allow it.
+     */
+    private boolean reserve(HashedPan hashedPan) {
+        if (pendingTotal.incrementAndGet() > maxPendingTotal) {
+            pendingTotal.decrementAndGet();
+            return false;
+        }
+        boolean[] reserved = new boolean[1];
+        pendingByCard.compute(hashedPan, (k, count) -> {
+            int pending = count == null ? 0 : count;
+            if (pending >= maxPendingPerCard) {
+                return count;
+            }
+            reserved[0] = true;
+            return pending + 1;
+        });
+        if (!reserved[0]) {
+            pendingTotal.decrementAndGet();
+        }
+        return reserved[0];
+    }
+
+    /**
+     * Returns one unit of exposure, forgetting cards with none outstanding.
+     */
+    private void release(HashedPan hashedPan) {
+        pendingTotal.decrementAndGet();
+        pendingByCard.computeIfPresent(hashedPan, (k, count) -> count <= 1 ? null : count - 1);
+    }
+
+    /**
+     * @return Number of stand-in entries whose AVR has not completed.
+     */
+    public int getPendingCount() {
+        return pendingTotal.get();
+    }
+
+    /**
+     * @return A one-line summary of stand-in decisions and deferred AVR outcomes.
+     */
+    public String describeMetrics() {
+        return String.format("stand-in live=%d standIn=%d refused=%d pending=%d verified=%d denylisted=%d unverified=%d",
+                liveDecisions.get(), standIns.get(), refused.get(), pendingTotal.get(),
+                verified.get(), denylisted.get(), unverified.get());
+    }
+
+    /**
+     * Stops the timer; deferred AVRs still waiting for a retry are dropped.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
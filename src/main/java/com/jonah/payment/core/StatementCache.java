@@ -0,0 +1,217 @@
+package com.jonah.payment.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StatementCache keeps prepared statements for one physical connection, keyed by SQL text,
+ * so repeated DAO calls reuse the already-parsed cursor instead of preparing it again.
+ *
+ * The cache is bounded and evicts the least recently used statement. Statements handed out
+ * are wrapped so that close() returns them to the cache rather than closing them.
+ * Settings a borrower changes (fetch size, max rows, query timeout, ...) are put back to
+ * their previous values on return; a statement whose other settings were changed is closed
+ * instead of being reused.
+ * A connection is only used by one borrower at a time, so the cache is not synchronized.
+ */
+public class StatementCache {
+
+    // Settings restored to their previous value when a statement is returned
+    private static final Set<String> RESTORED_SETTINGS = Set.of(
+            "setMaxRows", "setQueryTimeout", "setFetchSize", "setFetchDirection", "setMaxFieldSize");
+
+    // Settings that make a statement unfit for reuse
+    private static final Set<String> DISCARDING_SETTINGS = Set.of(
+            "setLargeMaxRows", "setEscapeProcessing", "setCursorName", "setPoolable", "closeOnCompletion");
+
+    private final Connection connection;                      // Physical connection owning the statements
+    private final int maxSize;                                // Maximum idle statements kept
+    private final Map<String, PreparedStatement> idle;        // Idle statements in LRU order
+    private final AtomicLong hits;                            // Pool-wide hit counter
+    private final AtomicLong misses;                          // Pool-wide miss counter
+    private final AtomicLong evictions;                       // Pool-wide eviction counter
+
+    /**
+     * Creates a statement cache for a physical connection.
+     *
+     * @param connection Physical connection used to prepare statements on a miss.
+     * @param maxSize    Maximum number of idle statements kept.
+     * @param hits       Counter incremented when a cached statement is reused.
+     * @param misses     Counter incremented when a statement has to be prepared.
+     * @param evictions  Counter incremented when a statement is evicted and closed.
+     */
+    public StatementCache(Connection connection, int maxSize, AtomicLong hits, AtomicLong misses, AtomicLong evictions) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the SQL, reusing an idle one when available.
+     * The same SQL prepared twice while the first is still open gets a second statement.
+     *
+     * @param sql SQL text to prepare.
+     * @return A statement whose close() returns it to this cache.
+     * @throws SQLException if preparing a new statement fails.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = idle.remove(sql);
+        if (statement != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            statement = connection.prepareStatement(sql);
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new CachedStatement(sql, statement));
+    }
+
+    /**
+     * Puts a statement back once its borrower closes it, resetting its parameters and
+     * any changed settings first.
+     *
+     * @param changed Previous values of the settings the borrower changed, by setter name.
+     */
+    private void giveBack(String sql, PreparedStatement statement, Map<String, Integer> changed) {
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+            for (Map.Entry<String, Integer> setting : changed.entrySet()) {
+                apply(statement, setting.getKey(), setting.getValue());
+            }
+        } catch (SQLException e) {
+            // A statement that cannot be reset is not reused.
+            closeQuietly(statement);
+            return;
+        }
+
+        PreparedStatement previous = idle.put(sql, statement);
+        if (previous != null && previous != statement) {
+            closeQuietly(previous);
+        }
+    }
+
+    /**
+     * Closes all idle statements, e.g. before the physical connection is discarded.
+     */
+    public void clear() {
+        List<PreparedStatement> statements = new ArrayList<>(idle.values());
+        idle.clear();
+        for (PreparedStatement statement : statements) {
+            closeQuietly(statement);
+        }
+    }
+
+    /**
+     * @return Number of idle statements currently cached.
+     */
+    public int size() {
+        return idle.size();
+    }
+
+    private static int current(PreparedStatement statement, String setter) throws SQLException {
+        return switch (setter) {
+            case "setMaxRows" -> statement.getMaxRows();
+            case "setQueryTimeout" -> statement.getQueryTimeout();
+            case "setFetchSize" -> statement.getFetchSize();
+            case "setFetchDirection" -> statement.getFetchDirection();
+            case "setMaxFieldSize" -> statement.getMaxFieldSize();
+            default -> throw new IllegalArgumentException(setter);
+        };
+    }
+
+    private static void apply(PreparedStatement statement, String setter, int value) throws SQLException {
+        switch (setter) {
+            case "setMaxRows" -> statement.setMaxRows(value);
+            case "setQueryTimeout" -> statement.setQueryTimeout(value);
+            case "setFetchSize" -> statement.setFetchSize(value);
+            case "setFetchDirection" -> statement.setFetchDirection(value);
+            case "setMaxFieldSize" -> statement.setMaxFieldSize(value);
+            default -> throw new IllegalArgumentException(setter);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Wraps a cached statement handed to a DAO; close() returns it to the cache.
+     */
+    private class CachedStatement implements InvocationHandler {
+        private final String sql;
+        private final PreparedStatement statement;
+        private final Map<String, Integer> changed = new HashMap<>(); // Previous values of changed settings
+        private boolean reusable = true;
+        private boolean closed;
+
+        CachedStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        if (reusable) {
+                            giveBack(sql, statement, changed);
+                        } else {
+                            closeQuietly(statement);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (closed) {
+                        throw new SQLException("Statement has already been closed");
+                    }
+                    if (RESTORED_SETTINGS.contains(method.getName()) && !changed.containsKey(method.getName())) {
+                        changed.put(method.getName(), current(statement, method.getName()));
+                    } else if (DISCARDING_SETTINGS.contains(method.getName())) {
+                        reusable = false;
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
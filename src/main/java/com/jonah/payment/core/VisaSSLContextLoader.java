@@ -14,6 +14,8 @@ import java.util.Base64;
  * VisaSSLContextLoader is responsible for creating an SSLContext configured
  * for mutual TLS authentication using a client certificate and private key.
  * This SSLContext is used when communicating with Visa's APIs securely.
+ * ManagedSSLContext uses the key and trust manager loaders directly to keep one
+ * long-lived context whose material can be reloaded.
  */
 public class VisaSSLContextLoader {
 
@@ -28,8 +30,39 @@ public class VisaSSLContextLoader {
      * @throws Exception If an error occurs while reading, parsing, or initializing SSL context.
      */
     public static SSLContext loadSSLContext(String certPath, String keyPath, String[] unusedCaPaths) throws Exception {
-        System.out.println("\uD83D\uDD10 Loading Visa client cert and key for mutual TLS...");
+        return loadSSLContext(certPath, keyPath, unusedCaPaths, false);
+    }
+
+    /**
+     * Loads an SSLContext using a PEM certificate and private key, optionally trusting only
+     * the given CA certificates instead of the JVM trust store. The same context serves as a
+     * client identity (calling an acquirer) or as a server identity that verifies client
+     * certificates against the CAs (the local acquirer stand-in).
+     *
+     * @param certPath     Path to the PEM-encoded certificate file.
+     * @param keyPath      Path to the PEM-encoded private key file.
+     * @param caPaths      Paths to PEM-encoded CA certificates.
+     * @param trustCaPaths If true, trust only caPaths; if false, ignore them and use the JVM trust store.
+     * @return Configured SSLContext instance ready for mutual TLS.
+     * @throws Exception If an error occurs while reading, parsing, or initializing SSL context.
+     */
+    public static SSLContext loadSSLContext(String certPath, String keyPath, String[] caPaths, boolean trustCaPaths) throws Exception {
+        // Final SSLContext initialization with both key and trust managers
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(loadKeyManagers(certPath, keyPath), loadTrustManagers(caPaths, trustCaPaths), null);
+        return sslContext;
+    }
 
+    /**
+     * Parses a PEM certificate and private key into key managers presenting that identity.
+     *
+     * @param certPath Path to the PEM-encoded certificate file.
+     * @param keyPath  Path to the PEM-encoded private key file.
+     * @return Key managers for SSLContext.init.
+     * @throws Exception If the files cannot be read or parsed.
+     */
+    public static KeyManager[] loadKeyManagers(String certPath, String keyPath) throws Exception {
+        System.out.println("\uD83D\uDD10 Loading cert and key for mutual TLS: " + certPath);
         // ─────────────────────────────────────────────────────────────
         // Read and decode the PEM-encoded certificate file
         // ─────────────────────────────────────────────────────────────
@@ -67,14 +100,33 @@ public class VisaSSLContextLoader {
         KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
         kmf.init(ks, new char[0]);
 
-        // Prepare a TrustManagerFactory using the JVM's default trusted CA set
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init((KeyStore) null);
+        return kmf.getKeyManagers();
+    }
 
-        // Final SSLContext initialization with both key and trust managers
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-        return sslContext;
+    /**
+     * Builds trust managers for the given CA certificates, or for the JVM trust store.
+     *
+     * @param caPaths      Paths to PEM-encoded CA certificates.
+     * @param trustCaPaths If true, trust only caPaths; if false, ignore them and use the JVM trust store.
+     * @return Trust managers for SSLContext.init.
+     * @throws Exception If a CA file cannot be read or parsed.
+     */
+    public static TrustManager[] loadTrustManagers(String[] caPaths, boolean trustCaPaths) throws Exception {
+        // Prepare a TrustManagerFactory using either the given CAs or the JVM's default trusted CA set
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        if (trustCaPaths) {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            KeyStore trusted = KeyStore.getInstance("JKS");
+            trusted.load(null);
+            for (int i = 0; i < caPaths.length; i++) {
+                trusted.setCertificateEntry("ca-" + i, cf.generateCertificate(
+                        new ByteArrayInputStream(Files.readAllBytes(Paths.get(caPaths[i])))));
+            }
+            tmf.init(trusted);
+        } else {
+            tmf.init((KeyStore) null);
+        }
+        return tmf.getTrustManagers();
     }
 }
 
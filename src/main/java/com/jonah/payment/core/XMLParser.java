@@ -1,19 +1,54 @@
 package com.jonah.payment.core;
 
+import com.jonah.payment.data.CardData;
 import com.jonah.payment.data.PaymentRequest;
 
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
- * XMLParser provides utility functionality to convert an XML string
- * into a PaymentRequest Java object using JAXB (Java Architecture for XML Binding).
+ * XMLParser provides utility functionality to convert XML into a PaymentRequest
+ * Java object. It offers two engines:
+ * - JAXB binding from a String, using a JAXBContext built once and pooled unmarshallers
+ * - StAX streaming straight from an InputStream, without building a String copy
  */
 public class XMLParser {
 
+    // Maximum number of idle unmarshallers kept for reuse.
+    private static final int UNMARSHALLER_POOL_SIZE = 64;
+
+    // Unmarshallers are not thread-safe, so each one is used by a single thread at a time.
+    private static final BlockingQueue<Unmarshaller> UNMARSHALLERS = new ArrayBlockingQueue<>(UNMARSHALLER_POOL_SIZE);
+
+    // XMLInputFactory is thread-safe once configured; DTDs and external entities are disabled.
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Holds the JAXB context, built on first use. Creating a JAXBContext is one of the
+     * most expensive JAXB calls, so it is done once rather than per tap.
+     */
+    private static class ContextHolder {
+        private static final JAXBContext CONTEXT = createContext();
+
+        private static JAXBContext createContext() {
+            try {
+                return JAXBContext.newInstance(PaymentRequest.class);
+            } catch (JAXBException e) {
+                throw new IllegalStateException("Failed to create JAXB context for PaymentRequest", e);
+            }
+        }
+    }
+
     /**
      * Deserializes a raw XML string into a PaymentRequest instance.
      * This method uses JAXB to automatically bind XML elements to their
@@ -24,14 +59,114 @@ public class XMLParser {
      * @throws JAXBException if the XML is malformed or does not match expected structure.
      */
     public static PaymentRequest fromXml(String xml) throws JAXBException {
-        // Create a new JAXB context for the PaymentRequest class (root XML element)
-        JAXBContext context = JAXBContext.newInstance(PaymentRequest.class);
+        // Borrow a pooled unmarshaller, or create one from the shared context
+        Unmarshaller unmarshaller = UNMARSHALLERS.poll();
+        if (unmarshaller == null) {
+            unmarshaller = ContextHolder.CONTEXT.createUnmarshaller();
+        }
 
-        // Create an unmarshaller from the context
-        Unmarshaller unmarshaller = context.createUnmarshaller();
+        try {
+            // Unmarshal the XML string to a Java object
+            return (PaymentRequest) unmarshaller.unmarshal(new StringReader(xml));
+        } finally {
+            // Return it for reuse; dropped if the pool is already full
+            UNMARSHALLERS.offer(unmarshaller);
+        }
+    }
+
+    /**
+     * Deserializes a PaymentRequest directly from a stream (e.g. the servlet request body)
+     * using StAX. Elements are read into PaymentRequest and CardData as they arrive;
+     * unknown elements are skipped.
+     *
+     * @param in The XML input stream representing a PaymentRequest.
+     * @return A deserialized PaymentRequest object.
+     * @throws XMLStreamException if the XML is malformed, the root element is not
+     *                            PaymentRequest, or a numeric field cannot be parsed.
+     */
+    public static PaymentRequest fromXml(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            reader.nextTag();
+            if (!"PaymentRequest".equals(reader.getLocalName())) {
+                throw new XMLStreamException("Unexpected root element: " + reader.getLocalName(), reader.getLocation());
+            }
 
-        // Unmarshal the XML string to a Java object
-        return (PaymentRequest) unmarshaller.unmarshal(new StringReader(xml));
+            PaymentRequest request = new PaymentRequest();
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "TerminalId" -> request.setTerminalId(reader.getElementText());
+                    case "CardData" -> request.setCardData(readCardData(reader));
+                    case "Amount" -> request.setAmount(parseAmount(reader));
+                    case "Currency" -> request.setCurrency(reader.getElementText());
+                    case "EntryMode" -> request.setEntryMode(reader.getElementText());
+                    case "POSConditionCode" -> request.setPosConditionCode(reader.getElementText());
+                    case "TVR" -> request.setTvr(reader.getElementText());
+                    case "TerminalType" -> request.setTerminalType(reader.getElementText());
+                    case "TerminalCapability" -> request.setTerminalCapability(reader.getElementText());
+                    case "CardholderVerification" -> request.setCardholderVerification(reader.getElementText());
+                    case "MessageReasonCode" -> request.setMessageReasonCode(reader.getElementText());
+                    case "Mode" -> request.setMode(reader.getElementText());
+                    default -> skipElement(reader);
+                }
+            }
+            return request;
+        } finally {
+            reader.close();
+        }
     }
-}
 
+    /**
+     * Reads the children of a CardData element; the reader is left on its end tag.
+     */
+    private static CardData readCardData(XMLStreamReader reader) throws XMLStreamException {
+        CardData card = new CardData();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "PAN" -> card.setPan(reader.getElementText());
+                case "Expiry" -> card.setExpiry(reader.getElementText());
+                case "AID" -> card.setAid(reader.getElementText());
+                case "Cryptogram" -> card.setCryptogram(reader.getElementText());
+                default -> skipElement(reader);
+            }
+        }
+        return card;
+    }
+
+    /**
+     * Parses the Amount element, trimming whitespace as JAXB does for xs:double.
+     */
+    private static double parseAmount(XMLStreamReader reader) throws XMLStreamException {
+        String text = reader.getElementText().trim();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid Amount: " + text, reader.getLocation(), e);
+        }
+    }
+
+    /**
+     * Skips the current element and everything nested inside it.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Creates the shared StAX factory with DTD processing and external entities disabled.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,267 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.BloomFilter;
+import com.jonah.payment.utils.HashedPan;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DenylistCache keeps the denylist in memory so entry taps do not need an Oracle round trip.
+ *
+ * A Bloom filter answers the common "definitely not denied" case without touching the set;
+ * only filter positives are confirmed against a concurrent set of hashed PANs, compared by
+ * digest. The cache is loaded in full at startup, written through by
+ * DenylistDAO.addToDenylist, and periodically picks up rows added by other servers
+ * through the denylist.added_at column.
+ * Removals from the denylist are only seen after a full reload.
+ *
+ * Lookups are lock-free; writers (load, refresh and write-through) are serialized so that
+ * a filter rebuild never misses a concurrent add.
+ */
+public class DenylistCache implements AutoCloseable {
+
+    // Rows committed slightly out of added_at order are caught by re-reading this window.
+    private static final long REFRESH_OVERLAP_MS = 60_000;
+
+    private final DataSource dataSource;             // Pool used for loading and refreshing
+    private final long expectedEntries;              // Initial Bloom filter sizing
+    private final double falsePositiveRate;          // Target Bloom filter false-positive rate
+    private final PanStorageFormat panFormat;        // How the pan column stores digests
+    private final ScheduledExecutorService refresher; // Periodic incremental refresh
+
+    private volatile Snapshot snapshot;              // Current filter and confirmed set
+    private volatile Timestamp watermark;            // Latest added_at seen in the table
+
+    // Metrics
+    private final AtomicLong lookups = new AtomicLong();        // isDenied calls
+    private final AtomicLong filterNegatives = new AtomicLong(); // Answered by the Bloom filter alone
+    private final AtomicLong denied = new AtomicLong();          // Confirmed denylisted PANs
+    private final AtomicLong falsePositives = new AtomicLong();  // Filter said maybe, set said no
+    private final AtomicLong refreshes = new AtomicLong();       // Completed refreshes
+    private final AtomicLong refreshFailures = new AtomicLong(); // Failed refreshes
+
+    /**
+     * Filter and set that are swapped together when the filter is rebuilt.
+     */
+    private static class Snapshot {
+        final BloomFilter filter;
+        final Set<HashedPan> pans;
+
+        Snapshot(BloomFilter filter, Set<HashedPan> pans) {
+            this.filter = filter;
+            this.pans = pans;
+        }
+    }
+
+    /**
+     * Creates an empty cache; call load() before serving lookups.
+     *
+     * @param dataSource        Pool providing JDBC connections to the Oracle database
+     * @param expectedEntries   Denylist size the Bloom filter is initially sized for
+     * @param falsePositiveRate Target Bloom filter false-positive rate, e.g. 0.01
+     */
+    public DenylistCache(DataSource dataSource, long expectedEntries, double falsePositiveRate) {
+        this(dataSource, expectedEntries, falsePositiveRate, PanStorageFormat.BASE64);
+    }
+
+    /**
+     * Creates an empty cache over a denylist table in the given pan format.
+     *
+     * @param dataSource        Pool providing JDBC connections to the Oracle database
+     * @param expectedEntries   Denylist size the Bloom filter is initially sized for
+     * @param falsePositiveRate Target Bloom filter false-positive rate, e.g. 0.01
+     * @param panFormat         Storage format of the pan column
+     */
+    public DenylistCache(DataSource dataSource, long expectedEntries, double falsePositiveRate, PanStorageFormat panFormat) {
+        this.dataSource = dataSource;
+        this.panFormat = panFormat;
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+        this.snapshot = new Snapshot(new BloomFilter(expectedEntries, falsePositiveRate), ConcurrentHashMap.newKeySet());
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "denylist-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Reads the whole denylist table and replaces the cached contents.
+     *
+     * @throws SQLException if the table cannot be read
+     */
+    public synchronized void load() throws SQLException {
+        Set<HashedPan> pans = ConcurrentHashMap.newKeySet();
+        Timestamp latest = null;
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT pan, added_at FROM denylist")) {
+            stmt.setFetchSize(1_000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    pans.add(panFormat.read(rs, "pan"));
+                    latest = later(latest, rs.getTimestamp(2));
+                }
+            }
+        }
+
+        this.snapshot = build(pans);
+        this.watermark = latest;
+        refreshes.incrementAndGet();
+    }
+
+    /**
+     * Adds rows whose added_at is at or after the last watermark (minus a small overlap).
+     * The Bloom filter is rebuilt larger once the set outgrows its sizing.
+     *
+     * @throws SQLException if the table cannot be read
+     */
+    public synchronized void refresh() throws SQLException {
+        Timestamp since = watermark;
+        if (since == null) {
+            load();
+            return;
+        }
+
+        Timestamp latest = since;
+        Snapshot current = snapshot;
+        String sql = "SELECT pan, added_at FROM denylist WHERE added_at >= ?";
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setTimestamp(1, new Timestamp(since.getTime() - REFRESH_OVERLAP_MS));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    add(current, panFormat.read(rs, "pan"));
+                    latest = later(latest, rs.getTimestamp(2));
+                }
+            }
+        }
+
+        if (current.pans.size() > current.filter.getCapacity()) {
+            this.snapshot = build(current.pans);
+        }
+        this.watermark = latest;
+        refreshes.incrementAndGet();
+    }
+
+    /**
+     * Starts refreshing the cache in the background.
+     *
+     * @param intervalMs Delay between incremental refreshes
+     */
+    public void start(long intervalMs) {
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (SQLException e) {
+                refreshFailures.incrementAndGet();
+                System.err.println("\u26A0\uFE0F Denylist refresh failed: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks a hashed PAN against the cached denylist.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @return true if the PAN is denylisted
+     */
+    public boolean isDenied(HashedPan hashedPan) {
+        lookups.incrementAndGet();
+        Snapshot current = snapshot;
+
+        if (!current.filter.mightContain(hashedPan.bytes())) {
+            filterNegatives.incrementAndGet();
+            return false;
+        }
+        if (current.pans.contains(hashedPan)) {
+            denied.incrementAndGet();
+            return true;
+        }
+        falsePositives.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Write-through for a PAN just added to the denylist table.
+     *
+     * @param hashedPan Hashed PAN of the card
+     */
+    public synchronized void add(HashedPan hashedPan) {
+        add(snapshot, hashedPan);
+    }
+
+    private static void add(Snapshot target, HashedPan hashedPan) {
+        // Filter first, so a concurrent reader never sees the set entry without the filter bits.
+        target.filter.add(hashedPan.bytes());
+        target.pans.add(hashedPan);
+    }
+
+    /**
+     * Builds a snapshot whose filter is sized for at least twice the current denylist.
+     */
+    private Snapshot build(Set<HashedPan> pans) {
+        BloomFilter filter = new BloomFilter(Math.max(expectedEntries, pans.size() * 2L), falsePositiveRate);
+        Snapshot next = new Snapshot(filter, pans);
+        for (HashedPan pan : pans) {
+            filter.add(pan.bytes());
+        }
+        return next;
+    }
+
+    private static Timestamp later(Timestamp a, Timestamp b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return b.after(a) ? b : a;
+    }
+
+    /**
+     * @return Number of PANs in the cached denylist.
+     */
+    public int size() {
+        return snapshot.pans.size();
+    }
+
+    /**
+     * @return Fraction of lookups answered by the Bloom filter alone.
+     */
+    public double getFilterHitRate() {
+        long total = lookups.get();
+        return total == 0 ? 0.0 : (double) filterNegatives.get() / total;
+    }
+
+    /**
+     * @return Fraction of non-denylisted lookups that the Bloom filter could not rule out.
+     */
+    public double getFalsePositiveRate() {
+        long negatives = filterNegatives.get() + falsePositives.get();
+        return negatives == 0 ? 0.0 : (double) falsePositives.get() / negatives;
+    }
+
+    /**
+     * @return A one-line summary of the cache metrics.
+     */
+    public String describeMetrics() {
+        Snapshot current = snapshot;
+        return String.format("denylist-cache size=%d lookups=%d denied=%d filterHitRate=%.4f falsePositiveRate=%.4f"
+                        + " filterBits=%d hashes=%d refreshes=%d refreshFailures=%d",
+                current.pans.size(), lookups.get(), denied.get(), getFilterHitRate(), getFalsePositiveRate(),
+                current.filter.getBitCount(), current.filter.getHashCount(), refreshes.get(), refreshFailures.get());
+    }
+
+    /**
+     * Stops the background refresh.
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
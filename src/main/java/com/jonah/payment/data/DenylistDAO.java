@@ -1,23 +1,71 @@
 package com.jonah.payment.data;
-import com.jonah.payment.utils.CryptoUtils;
+import com.jonah.payment.utils.HashedPan;
+import javax.sql.DataSource;
 import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * DenylistDAO manages card denylisting logic.
  * Cards that fail AVR or are flagged for fraud are added to this list.
+ * Lookups can optionally be served from an in-memory DenylistCache.
+ * Listeners are told about every card this server denylists (e.g. to drop cached approvals).
  */
 public class DenylistDAO {
 
-    // Database connection used for all queries
-    private final Connection conn;
+    // Connection pool; a connection is borrowed for each query
+    private final DataSource dataSource;
+
+    // Optional in-memory denylist; when set, lookups are served from it instead of Oracle
+    private final DenylistCache cache;
+
+    // How the pan column stores digests (Base64 string or RAW(32))
+    private final PanStorageFormat panFormat;
+
+    // Notified with the hashed PAN whenever a card is denylisted
+    private final List<Consumer<HashedPan>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs the DAO over a pooled data source.
+     *
+     * @param dataSource Pool providing JDBC connections to the Oracle DB.
+     */
+    public DenylistDAO(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    /**
+     * Constructs the DAO with an in-memory cache in front of the denylist table.
+     *
+     * @param dataSource Pool providing JDBC connections to the Oracle DB.
+     * @param cache      Loaded denylist cache, or null to query Oracle on every lookup.
+     */
+    public DenylistDAO(DataSource dataSource, DenylistCache cache) {
+        this(dataSource, cache, PanStorageFormat.BASE64);
+    }
+
+    /**
+     * Constructs the DAO for the given pan column format.
+     *
+     * @param dataSource Pool providing JDBC connections to the Oracle DB.
+     * @param cache      Loaded denylist cache, or null to query Oracle on every lookup.
+     * @param panFormat  Storage format of the pan column.
+     */
+    public DenylistDAO(DataSource dataSource, DenylistCache cache, PanStorageFormat panFormat) {
+        this.dataSource = dataSource;
+        this.cache = cache;
+        this.panFormat = panFormat;
+    }
 
     /**
-     * Constructs the DAO with a live JDBC connection.
+     * Registers a listener called with the hashed PAN each time addToDenylist runs,
+     * whether or not the card was already listed.
      *
-     * @param conn JDBC connection to the Oracle DB.
+     * @param listener Callback receiving the hashed PAN
      */
-    public DenylistDAO(Connection conn) {
-        this.conn = conn;
+    public void addDenylistListener(Consumer<HashedPan> listener) {
+        listeners.add(listener);
     }
 
     /**
@@ -26,22 +74,31 @@ public class DenylistDAO {
      *
      * @param pan Raw PAN to check
      * @return true if the card is denylisted, false otherwise
-     * @throws SQLException if a hashing or DB access error occurs
+     * @throws SQLException if a DB access error occurs
      */
     public boolean isDenied(String pan) throws SQLException {
-        String hashedPan;
-        try {
-            // Convert to secure hashed representation
-            hashedPan = CryptoUtils.hashPAN(pan);
-        } catch (Exception e) {
-            throw new SQLException("Failed to hash PAN", e);
+        return isDenied(HashedPan.of(pan));
+    }
+
+    /**
+     * Checks if a card is on the denylist, given its hashed PAN.
+     *
+     * @param hashedPan Hashed PAN to check
+     * @return true if the card is denylisted, false otherwise
+     * @throws SQLException if a DB access error occurs
+     */
+    public boolean isDenied(HashedPan hashedPan) throws SQLException {
+        // Served from memory when the cache is enabled
+        if (cache != null) {
+            return cache.isDenied(hashedPan);
         }
 
         // Query to check for existence of hashed PAN in denylist
         String sql = "SELECT 1 FROM denylist WHERE pan = ?";
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, hashedPan);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            panFormat.bind(stmt, 1, hashedPan);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next(); // True if record exists
             }
@@ -53,23 +110,53 @@ public class DenylistDAO {
      * The PAN is stored securely using a hashed value.
      *
      * @param pan Raw PAN to add to denylist
-     * @throws SQLException if hashing or DB insert fails
+     * @return true if the PAN was newly added, false if it was already denylisted
+     * @throws SQLException if the DB upsert fails
      */
-    public void addToDenylist(String pan) throws SQLException {
-        String hashedPan;
-        try {
-            hashedPan = CryptoUtils.hashPAN(pan);
-        } catch (Exception e) {
-            throw new SQLException("Failed to hash PAN", e);
-        }
+    public boolean addToDenylist(String pan) throws SQLException {
+        return addToDenylist(HashedPan.of(pan));
+    }
+
+    /**
+     * Adds a card to the denylist, given its hashed PAN. Duplicate entries are ignored.
+     *
+     * @param hashedPan Hashed PAN to add to denylist
+     * @return true if the PAN was newly added, false if it was already denylisted
+     * @throws SQLException if the DB upsert fails
+     */
+    public boolean addToDenylist(HashedPan hashedPan) throws SQLException {
+        // Insert only when absent so repeat denylisting is a no-op instead of a key violation
+        String sql = """
+            MERGE INTO denylist d
+            USING (SELECT ? AS pan FROM dual) n
+            ON (d.pan = n.pan)
+            WHEN NOT MATCHED THEN INSERT (pan) VALUES (n.pan)
+        """;
 
-        // Insert or ignore duplicate PANs based on primary key constraint
-        String sql = "INSERT INTO denylist (pan) VALUES (?)";
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            panFormat.bind(stmt, 1, hashedPan);
+            boolean added = stmt.executeUpdate() == 1;
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, hashedPan);
-            stmt.executeUpdate();
+            // Write through so this server denies the card immediately
+            if (cache != null) {
+                cache.add(hashedPan);
+            }
+            notifyListeners(hashedPan);
+            return added;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // A concurrent decline for the same card listed it first
+            if (cache != null) {
+                cache.add(hashedPan);
+            }
+            notifyListeners(hashedPan);
+            return false;
         }
     }
-}
 
+    private void notifyListeners(HashedPan hashedPan) {
+        for (Consumer<HashedPan> listener : listeners) {
+            listener.accept(hashedPan);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.HashedPan;
+
+/**
+ * EntryClaim is the result of claiming a rider's open entry tap on exit.
+ * It carries the entry itself and how it was claimed: either the physical
+ * row identity of a database claim, or the hashed PAN of an in-memory claim
+ * from the OpenJourneyIndex. Either is used to confirm or release the claim
+ * without repeating the lookup.
+ */
+public class EntryClaim {
+
+    private final String rowId;       // Oracle ROWID of the claimed row (database claims)
+    private final HashedPan hashedPan; // Hashed PAN of the claim (open-journey index claims)
+    private final TapEvent entry;     // The claimed entry tap
+
+    /**
+     * Constructs a claim for one entry row.
+     *
+     * @param rowId Oracle ROWID (as text) of the claimed row
+     * @param entry The claimed entry tap
+     */
+    public EntryClaim(String rowId, TapEvent entry) {
+        this(rowId, null, entry);
+    }
+
+    /**
+     * Constructs a claim of either kind.
+     *
+     * @param rowId     Oracle ROWID of a database claim, or null
+     * @param hashedPan Hashed PAN of an index claim, or null
+     * @param entry     The claimed entry tap
+     */
+    public EntryClaim(String rowId, HashedPan hashedPan, TapEvent entry) {
+        this.rowId = rowId;
+        this.hashedPan = hashedPan;
+        this.entry = entry;
+    }
+
+    /**
+     * @return ROWID of the claimed tap_events row, or null for an index claim.
+     */
+    public String getRowId() {
+        return rowId;
+    }
+
+    /**
+     * @return Hashed PAN of an index claim, or null for a database claim.
+     */
+    public HashedPan getHashedPan() {
+        return hashedPan;
+    }
+
+    /**
+     * @return true if the entry was claimed from the open-journey index and is not yet
+     *         marked as matched in tap_events.
+     */
+    public boolean isIndexed() {
+        return rowId == null;
+    }
+
+    /**
+     * @return The claimed entry tap.
+     */
+    public TapEvent getEntry() {
+        return entry;
+    }
+}
@@ -0,0 +1,132 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.HashedPan;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FareLedgerDAO persists unsettled fares per card in the fare_ledger table, so
+ * aggregated fares survive restarts until they are authorized.
+ * Accruals and settlements are relative updates, so fares accrued while a
+ * settlement is in flight are never lost.
+ */
+public class FareLedgerDAO {
+
+    private final DataSource dataSource;       // Connection pool, borrowed per query
+    private final PanStorageFormat panFormat;  // How the pan column stores digests
+
+    /**
+     * Constructs a DAO for the fare_ledger table.
+     *
+     * @param dataSource Pool providing JDBC connections to the database
+     * @param panFormat  Storage format of the pan column
+     */
+    public FareLedgerDAO(DataSource dataSource, PanStorageFormat panFormat) {
+        this.dataSource = dataSource;
+        this.panFormat = panFormat;
+    }
+
+    /**
+     * Adds one journey's fare to the card's ledger entry, creating it if needed.
+     *
+     * @param hashedPan     Hashed PAN of the card
+     * @param encryptedCard Encrypted card data of this journey, kept for the aggregated authorization
+     * @param fare          Fare of the journey
+     * @param tapTime       Exit time; opens the aggregation window of a new entry
+     * @throws SQLException if the upsert fails
+     */
+    public void accrue(HashedPan hashedPan, byte[] encryptedCard, double fare, LocalDateTime tapTime) throws SQLException {
+        String sql = """
+            MERGE INTO fare_ledger l
+            USING (SELECT ? AS pan, ? AS card_data, ? AS fare, ? AS tap_time FROM dual) s
+            ON (l.pan = s.pan)
+            WHEN MATCHED THEN UPDATE SET l.total = l.total + s.fare, l.journeys = l.journeys + 1, l.card_data = s.card_data
+            WHEN NOT MATCHED THEN INSERT (pan, card_data, total, journeys, opened_at)
+                VALUES (s.pan, s.card_data, s.fare, 1, s.tap_time)
+        """;
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            panFormat.bind(stmt, 1, hashedPan);
+            stmt.setBytes(2, encryptedCard);
+            stmt.setDouble(3, fare);
+            stmt.setTimestamp(4, Timestamp.valueOf(tapTime));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes an authorized amount from the card's entry, deleting the entry once
+     * no journeys remain. Journeys accrued after the authorization was sent stay.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @param amount    Authorized total
+     * @param journeys  Journeys covered by the authorization
+     * @throws SQLException if the update fails
+     */
+    public void settle(HashedPan hashedPan, double amount, int journeys) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement update = conn.prepareStatement(
+                         "UPDATE fare_ledger SET total = total - ?, journeys = journeys - ? WHERE pan = ?");
+                 PreparedStatement delete = conn.prepareStatement(
+                         "DELETE FROM fare_ledger WHERE pan = ? AND journeys <= 0")) {
+                update.setDouble(1, amount);
+                update.setInt(2, journeys);
+                panFormat.bind(update, 3, hashedPan);
+                update.executeUpdate();
+
+                panFormat.bind(delete, 1, hashedPan);
+                delete.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Starts a new aggregation window for a card whose total could not be settled.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @param openedAt  Start of the new window
+     * @throws SQLException if the update fails
+     */
+    public void reopen(HashedPan hashedPan, LocalDateTime openedAt) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE fare_ledger SET opened_at = ? WHERE pan = ?")) {
+            stmt.setTimestamp(1, Timestamp.valueOf(openedAt));
+            panFormat.bind(stmt, 2, hashedPan);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads every unsettled ledger entry.
+     *
+     * @return All entries in fare_ledger
+     * @throws SQLException if the table cannot be read
+     */
+    public List<FareLedgerEntry> loadAll() throws SQLException {
+        List<FareLedgerEntry> entries = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT pan, card_data, total, journeys, opened_at FROM fare_ledger")) {
+            stmt.setFetchSize(1_000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new FareLedgerEntry(panFormat.read(rs, "pan"), rs.getBytes("card_data"),
+                            rs.getDouble("total"), rs.getInt("journeys"), rs.getTimestamp("opened_at").toLocalDateTime()));
+                }
+            }
+        }
+        return entries;
+    }
+}
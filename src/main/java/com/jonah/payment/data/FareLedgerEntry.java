@@ -0,0 +1,99 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.HashedPan;
+
+import java.time.LocalDateTime;
+
+/**
+ * FareLedgerEntry is one card's unsettled fares: the running total, the number of
+ * journeys it covers, when the first of them was accrued, and the card data needed
+ * to authorize the total later (encrypted, since it contains the PAN).
+ */
+public class FareLedgerEntry {
+
+    private final HashedPan hashedPan;    // Hashed PAN identifying the card
+    private byte[] encryptedCard;         // AES-GCM encrypted card data of the most recent journey
+    private double total;                 // Sum of unsettled fares
+    private int journeys;                 // Number of unsettled journeys
+    private LocalDateTime openedAt;       // When the current aggregation window opened
+
+    /**
+     * Constructs an entry.
+     *
+     * @param hashedPan     Hashed PAN identifying the card
+     * @param encryptedCard Encrypted card data
+     * @param total         Sum of unsettled fares
+     * @param journeys      Number of unsettled journeys
+     * @param openedAt      When the aggregation window opened
+     */
+    public FareLedgerEntry(HashedPan hashedPan, byte[] encryptedCard, double total, int journeys, LocalDateTime openedAt) {
+        this.hashedPan = hashedPan;
+        this.encryptedCard = encryptedCard;
+        this.total = total;
+        this.journeys = journeys;
+        this.openedAt = openedAt;
+    }
+
+    /**
+     * @return Hashed PAN identifying the card
+     */
+    public HashedPan getHashedPan() {
+        return hashedPan;
+    }
+
+    /**
+     * @return Encrypted card data of the most recent journey
+     */
+    public byte[] getEncryptedCard() {
+        return encryptedCard;
+    }
+
+    /**
+     * @param encryptedCard Encrypted card data of the most recent journey
+     */
+    public void setEncryptedCard(byte[] encryptedCard) {
+        this.encryptedCard = encryptedCard;
+    }
+
+    /**
+     * @return Sum of unsettled fares
+     */
+    public double getTotal() {
+        return total;
+    }
+
+    /**
+     * @param total Sum of unsettled fares
+     */
+    public void setTotal(double total) {
+        this.total = total;
+    }
+
+    /**
+     * @return Number of unsettled journeys
+     */
+    public int getJourneys() {
+        return journeys;
+    }
+
+    /**
+     * @param journeys Number of unsettled journeys
+     */
+    public void setJourneys(int journeys) {
+        this.journeys = journeys;
+    }
+
+    /**
+     * @return When the current aggregation window opened
+     */
+    public LocalDateTime getOpenedAt() {
+        return openedAt;
+    }
+
+    /**
+     * @param openedAt When the current aggregation window opened
+     */
+    public void setOpenedAt(LocalDateTime openedAt) {
+        this.openedAt = openedAt;
+    }
+}
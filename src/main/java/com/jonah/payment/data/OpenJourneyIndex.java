@@ -0,0 +1,215 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.HashedPan;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OpenJourneyIndex maps each rider currently "inside" the system (hashed PAN) to their most
+ * recent approved, unmatched entry tap, so exits can be priced without reading tap_events.
+ *
+ * Entries are added when an AVR is approved and claimed (removed) by the matching exit; a
+ * declined exit puts its entry back. Claims in flight are tracked so that a concurrent exit
+ * for the same card does not fall back to Oracle and match the same entry twice. A claim
+ * that is never completed or released (e.g. its exit crashed) stops counting as in flight
+ * after STALE_CLAIM_NANOS, so the card's later exits fall back to Oracle again.
+ * The index is rebuilt from tap_events at startup, and entries older than the maximum
+ * journey time are swept; exits that miss the index fall back to the database.
+ */
+public class OpenJourneyIndex implements AutoCloseable {
+
+    // Longest an exit may hold a claim; well beyond the acquirer deadline and journal wait.
+    private static final long STALE_CLAIM_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Map<HashedPan, TapEvent> open = new ConcurrentHashMap<>(); // Hashed PAN -> open entry
+    private final Map<HashedPan, Long> claimed = new ConcurrentHashMap<>();  // Hashed PAN -> nanoTime of the exit's claim
+    private final Duration maxJourney;                                       // Older entries are dropped
+    private final ScheduledExecutorService sweeper;                          // Periodic eviction of stale entries and claims
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();      // Exits priced from the index
+    private final AtomicLong misses = new AtomicLong();    // Exits that had to ask Oracle
+    private final AtomicLong evicted = new AtomicLong();   // Entries dropped as stale
+    private final AtomicLong expired = new AtomicLong();   // Claims dropped as stale
+
+    /**
+     * Creates an empty index.
+     *
+     * @param maxJourney Longest journey kept in memory; older entries are only found in Oracle.
+     */
+    public OpenJourneyIndex(Duration maxJourney) {
+        this.maxJourney = maxJourney;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "open-journey-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Rebuilds the index from a tap_events table in the given pan format, dropping any claims.
+     *
+     * @param dataSource Pool providing JDBC connections to the Oracle database
+     * @param panFormat  Storage format of the pan column
+     * @throws SQLException if the table cannot be read
+     */
+    public void rebuild(DataSource dataSource, PanStorageFormat panFormat) throws SQLException {
+        String sql = """
+            SELECT pan, terminal_id, cryptogram, tap_time FROM tap_events
+            WHERE enter_or_exit = 'entry' AND approved = 'Y' AND matched_exit_time IS NULL AND tap_time > ?
+        """;
+
+        open.clear();
+        claimed.clear();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minus(maxJourney)));
+            stmt.setFetchSize(1_000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    TapEvent entry = new TapEvent();
+                    entry.setTerminalId(rs.getString("terminal_id"));
+                    entry.setCryptogram(rs.getString("cryptogram"));
+                    entry.setTimestamp(rs.getTimestamp("tap_time").toLocalDateTime());
+                    entry.setMode("entry");
+                    entry.setApproved(true);
+                    open(panFormat.read(rs, "pan"), entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts evicting entries older than the maximum journey time, and stale claims.
+     *
+     * @param intervalMs Delay between sweeps
+     */
+    public void start(long intervalMs) {
+        sweeper.scheduleWithFixedDelay(this::sweep, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records an approved entry, keeping the most recent one per card.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @param entry     The approved entry tap
+     */
+    public void open(HashedPan hashedPan, TapEvent entry) {
+        open.merge(hashedPan, entry, OpenJourneyIndex::mostRecent);
+    }
+
+    /**
+     * Claims the rider's open entry for an exit. Only one concurrent exit wins the claim.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @return The entry, or null if the card has no indexed entry
+     */
+    public TapEvent claim(HashedPan hashedPan) {
+        // Mark the claim before the entry leaves the map, inside the same compute, so a
+        // concurrent exit that finds no entry always sees the claim in flight.
+        TapEvent[] entry = new TapEvent[1];
+        open.computeIfPresent(hashedPan, (pan, indexed) -> {
+            claimed.put(pan, System.nanoTime());
+            entry[0] = indexed;
+            return null;
+        });
+        if (entry[0] == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry[0];
+    }
+
+    /**
+     * @param hashedPan Hashed PAN of the card
+     * @return true if another exit for the card currently holds an indexed claim that is not stale
+     */
+    public boolean isClaimInFlight(HashedPan hashedPan) {
+        Long claimedAt = claimed.get(hashedPan);
+        return claimedAt != null && System.nanoTime() - claimedAt < STALE_CLAIM_NANOS;
+    }
+
+    /**
+     * Ends a claim whose entry has been matched in the database.
+     *
+     * @param hashedPan Hashed PAN of the card
+     */
+    public void complete(HashedPan hashedPan) {
+        claimed.remove(hashedPan);
+    }
+
+    /**
+     * Ends a claim without matching (declined exit); the entry becomes claimable again
+     * unless a newer entry was recorded in the meantime.
+     *
+     * @param hashedPan Hashed PAN of the card
+     * @param entry     The entry returned by claim
+     */
+    public void release(HashedPan hashedPan, TapEvent entry) {
+        open.merge(hashedPan, entry, OpenJourneyIndex::mostRecent);
+        claimed.remove(hashedPan);
+    }
+
+    /**
+     * Drops entries older than the maximum journey time, and claims held for longer than
+     * STALE_CLAIM_NANOS; the entry of a dropped claim is still unmatched in Oracle.
+     */
+    public void sweep() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(maxJourney);
+        open.entrySet().removeIf(e -> {
+            if (e.getValue().getTimestamp().isBefore(cutoff)) {
+                evicted.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+
+        long now = System.nanoTime();
+        claimed.entrySet().removeIf(e -> {
+            if (now - e.getValue() >= STALE_CLAIM_NANOS) {
+                expired.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static TapEvent mostRecent(TapEvent a, TapEvent b) {
+        return b.getTimestamp().isAfter(a.getTimestamp()) ? b : a;
+    }
+
+    /**
+     * @return Number of riders with an indexed open entry.
+     */
+    public int size() {
+        return open.size();
+    }
+
+    /**
+     * @return A one-line summary of the index metrics.
+     */
+    public String describeMetrics() {
+        long total = hits.get() + misses.get();
+        return String.format("open-journeys size=%d inFlight=%d hits=%d misses=%d hitRate=%.3f evicted=%d expiredClaims=%d",
+                open.size(), claimed.size(), hits.get(), misses.get(),
+                total == 0 ? 0.0 : (double) hits.get() / total, evicted.get(), expired.get());
+    }
+
+    /**
+     * Stops the background sweep.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,206 @@
+package com.jonah.payment.data;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * PanColumnMigration converts the Base64 VARCHAR2 pan column of an existing table to
+ * RAW(32) while the table stays available for reads and writes.
+ *
+ * The migration runs in two phases:
+ * - prepare: add a pan_raw shadow column, keep it in sync with a trigger, backfill it in
+ *   small committed chunks, and build its unique/covering index ONLINE. Rows whose pan
+ *   does not decode to a 32-byte digest are moved to a {table}_pan_quarantine table.
+ * - swap: drop the trigger, move the key constraint and index names over, rename the
+ *   columns so pan is the RAW(32) copy, and mark the old column unused.
+ * Only the swap takes (brief) DDL locks. Every step checks the current schema first,
+ * so a migration interrupted at any point resumes where it stopped when run again.
+ */
+public class PanColumnMigration {
+
+    // Rows converted per committed backfill chunk; keeps undo and row locks small.
+    private static final int BACKFILL_CHUNK_ROWS = 10_000;
+
+    // Decodes the stored Base64 string into the 32-byte digest.
+    private static final String DECODE_PAN = "UTL_ENCODE.BASE64_DECODE(UTL_RAW.CAST_TO_RAW(%s))";
+
+    // True for rows whose pan does not decode to a digest; they are never backfilled.
+    private static final String UNDECODABLE = "pan_raw IS NULL AND pan IS NOT NULL AND NVL(UTL_RAW.LENGTH("
+            + DECODE_PAN.formatted("pan") + "), 0) <> 32";
+
+    /**
+     * Migrates the pan columns of tap_events, denylist, seen_cards and fare_ledger if they are still Base64.
+     *
+     * @param conn Active JDBC connection to the database.
+     * @throws SQLException If a migration step fails.
+     */
+    public static void migrateAll(Connection conn) throws SQLException {
+        migrate(conn, "tap_events", false);
+        migrate(conn, "denylist", true);
+        migrate(conn, "seen_cards", true);
+        migrate(conn, "fare_ledger", true);
+    }
+
+    /**
+     * Migrates one table's pan column to RAW(32), if it is not already.
+     *
+     * @param conn       Active JDBC connection to the database.
+     * @param table      Table whose pan column is migrated.
+     * @param primaryKey Whether pan is the table's primary key.
+     * @throws SQLException If a migration step fails.
+     */
+    public static void migrate(Connection conn, String table, boolean primaryKey) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            String panType = columnType(stmt, table, "PAN");
+            if (panType == null || "RAW".equals(panType)) {
+                // Already migrated, or a swap was interrupted around the renames: finish what is left.
+                swap(stmt, table, primaryKey);
+                return;
+            }
+            System.out.println("\uD83D\uDD04 Migrating " + table + ".pan to RAW(32)...");
+            long rows = prepare(conn, stmt, table, primaryKey);
+            swap(stmt, table, primaryKey);
+            System.out.println("\u2705 Migrated " + table + ".pan (" + rows + " rows backfilled)");
+        }
+    }
+
+    /**
+     * Adds and backfills the shadow column and builds its index without blocking DML.
+     *
+     * @return Number of rows backfilled.
+     */
+    private static long prepare(Connection conn, Statement stmt, String table, boolean primaryKey) throws SQLException {
+        if (columnType(stmt, table, "PAN_RAW") == null) {
+            stmt.execute("ALTER TABLE " + table + " ADD (pan_raw RAW(32))");
+        }
+        stmt.execute("CREATE TABLE IF NOT EXISTS " + table + "_pan_quarantine AS SELECT * FROM " + table + " WHERE 1 = 0");
+
+        // New and updated rows fill pan_raw themselves from here on.
+        stmt.execute("CREATE OR REPLACE TRIGGER " + table + "_pan_raw_sync"
+                + " BEFORE INSERT OR UPDATE OF pan ON " + table + " FOR EACH ROW"
+                + " BEGIN :NEW.pan_raw := " + DECODE_PAN.formatted(":NEW.pan") + "; END;");
+
+        // Existing rows are converted a chunk at a time so no transaction holds many locks.
+        // Rows that do not decode are skipped, or they would be selected by every chunk.
+        String backfill = "UPDATE " + table + " SET pan_raw = " + DECODE_PAN.formatted("pan")
+                + " WHERE pan_raw IS NULL AND pan IS NOT NULL AND UTL_RAW.LENGTH(" + DECODE_PAN.formatted("pan")
+                + ") = 32 AND ROWNUM <= " + BACKFILL_CHUNK_ROWS;
+        boolean autoCommit = conn.getAutoCommit();
+        long rows = 0;
+        try {
+            conn.setAutoCommit(false);
+            int updated;
+            do {
+                updated = stmt.executeUpdate(backfill);
+                conn.commit();
+                rows += updated;
+            } while (updated > 0);
+            quarantine(conn, stmt, table);
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+
+        if (primaryKey) {
+            stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS " + table + "_pan_raw_ux ON " + table + " (pan_raw) ONLINE");
+        } else if (hasIndex(stmt, SchemaInitializer.TAP_EVENTS_OPEN_ENTRY_INDEX)) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + table + "_pan_raw_ix ON " + table
+                    + " (pan_raw, enter_or_exit, approved, matched_exit_time, tap_time) ONLINE");
+        }
+        return rows;
+    }
+
+    /**
+     * Moves rows whose pan does not decode to a 32-byte digest into {table}_pan_quarantine,
+     * so the new column (and, for key tables, the primary key) never holds NULL for them.
+     * No lookup can match such a row, since every PAN is bound as a valid digest.
+     */
+    private static void quarantine(Connection conn, Statement stmt, String table) throws SQLException {
+        int moved = stmt.executeUpdate("INSERT INTO " + table + "_pan_quarantine SELECT * FROM " + table
+                + " WHERE " + UNDECODABLE);
+        if (moved == 0) {
+            return;
+        }
+        stmt.executeUpdate("DELETE FROM " + table + " WHERE " + UNDECODABLE);
+        conn.commit();
+        System.err.println("\u26A0\uFE0F Moved " + moved + " " + table + " rows with undecodable pans to "
+                + table + "_pan_quarantine");
+    }
+
+    /**
+     * Makes the RAW(32) column the pan column and retires the Base64 one. Each step is
+     * skipped if an earlier, interrupted run already did it.
+     */
+    private static void swap(Statement stmt, String table, boolean primaryKey) throws SQLException {
+        if (exists(stmt, "user_triggers", "trigger_name", table + "_pan_raw_sync")) {
+            stmt.execute("DROP TRIGGER " + table + "_pan_raw_sync");
+        }
+
+        // Only the old key (on the Base64 column) is dropped, i.e. while pan_raw has not been renamed.
+        boolean renamed = columnType(stmt, table, "PAN_RAW") == null;
+        if (primaryKey && !renamed && hasPrimaryKey(stmt, table)) {
+            // Dropping the key also drops its index and the implied NOT NULL on the old column.
+            stmt.execute("ALTER TABLE " + table + " DROP PRIMARY KEY");
+        } else if (!primaryKey && hasIndex(stmt, table + "_pan_raw_ix")) {
+            if (hasIndex(stmt, SchemaInitializer.TAP_EVENTS_OPEN_ENTRY_INDEX)) {
+                stmt.execute("DROP INDEX " + SchemaInitializer.TAP_EVENTS_OPEN_ENTRY_INDEX + " ONLINE");
+            }
+            stmt.execute("ALTER INDEX " + table + "_pan_raw_ix RENAME TO " + SchemaInitializer.TAP_EVENTS_OPEN_ENTRY_INDEX);
+        }
+
+        if (!renamed) {
+            if (columnType(stmt, table, "PAN_B64") == null) {
+                stmt.execute("ALTER TABLE " + table + " RENAME COLUMN pan TO pan_b64");
+            }
+            stmt.execute("ALTER TABLE " + table + " RENAME COLUMN pan_raw TO pan");
+        }
+
+        if (primaryKey && !hasPrimaryKey(stmt, table) && hasIndex(stmt, table + "_pan_raw_ux")) {
+            // The unique index was built online, so adding the key only validates it.
+            stmt.execute("ALTER TABLE " + table + " ADD PRIMARY KEY (pan) USING INDEX " + table + "_pan_raw_ux");
+        }
+
+        if (columnType(stmt, table, "PAN_B64") != null) {
+            // Logically drops the old column at once; its space is reclaimed by a later DROP UNUSED COLUMNS.
+            stmt.execute("ALTER TABLE " + table + " SET UNUSED (pan_b64) ONLINE");
+        }
+    }
+
+    /**
+     * Returns the data type of a column in the current schema, or null if it does not exist.
+     */
+    private static String columnType(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT data_type FROM user_tab_columns WHERE table_name = '"
+                + table.toUpperCase() + "' AND column_name = '" + column + "'")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * Checks whether an index exists in the current schema.
+     */
+    private static boolean hasIndex(Statement stmt, String index) throws SQLException {
+        return exists(stmt, "user_indexes", "index_name", index);
+    }
+
+    /**
+     * Checks whether a table has a primary key constraint.
+     */
+    private static boolean hasPrimaryKey(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM user_constraints WHERE table_name = '"
+                + table.toUpperCase() + "' AND constraint_type = 'P'")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Checks whether a dictionary view lists an object of the given name.
+     */
+    private static boolean exists(Statement stmt, String view, String nameColumn, String name) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + view + " WHERE " + nameColumn + " = '"
+                + name.toUpperCase() + "'")) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.HashedPan;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * PanStorageFormat selects how PAN digests are stored in the pan columns of
+ * tap_events, denylist and seen_cards, and binds/reads them accordingly.
+ *
+ * BASE64 is the original layout (44-character string in VARCHAR2(256)).
+ * RAW stores the 32-byte HMAC directly in RAW(32). The Base64 form is 44 bytes, about
+ * 40% more than the raw digest, so every stored key, index entry and key comparison
+ * shrinks by about 27% (12 of 44 bytes).
+ */
+public enum PanStorageFormat {
+
+    BASE64("VARCHAR2(256)"),
+    RAW("RAW(32)");
+
+    private final String columnType;   // Oracle column type for pan columns
+
+    PanStorageFormat(String columnType) {
+        this.columnType = columnType;
+    }
+
+    /**
+     * @return Oracle column type used for pan columns in this format.
+     */
+    public String columnType() {
+        return columnType;
+    }
+
+    /**
+     * Binds a hashed PAN to a statement parameter.
+     *
+     * @param stmt      Statement to bind.
+     * @param index     1-based parameter index.
+     * @param hashedPan Hashed PAN to bind.
+     * @throws SQLException if binding fails.
+     */
+    public void bind(PreparedStatement stmt, int index, HashedPan hashedPan) throws SQLException {
+        if (this == RAW) {
+            stmt.setBytes(index, hashedPan.bytes());
+        } else {
+            stmt.setString(index, hashedPan.toBase64());
+        }
+    }
+
+    /**
+     * Reads a hashed PAN from a result column.
+     *
+     * @param rs     Result set positioned on a row.
+     * @param column Column label.
+     * @return The hashed PAN.
+     * @throws SQLException if the column cannot be read.
+     */
+    public HashedPan read(ResultSet rs, String column) throws SQLException {
+        return this == RAW ? HashedPan.fromBytes(rs.getBytes(column)) : HashedPan.fromBase64(rs.getString(column));
+    }
+}
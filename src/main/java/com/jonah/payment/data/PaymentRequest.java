@@ -14,7 +14,7 @@ import jakarta.xml.bind.annotation.XmlRootElement;
  *
  * Used as input to both AVR (Account Verification Request) and Authorization flows.
  */
-@XmlRootElement
+@XmlRootElement(name = "PaymentRequest")
 public class PaymentRequest {
 
     private String terminalId;     // Unique identifier of the transit terminal
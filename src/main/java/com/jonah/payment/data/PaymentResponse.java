@@ -0,0 +1,45 @@
+package com.jonah.payment.data;
+
+/**
+ * PaymentResponse is the outcome of processing a single tap, as returned to the terminal.
+ * It pairs the HTTP status code with the status text written into the XML body.
+ */
+public class PaymentResponse {
+
+    private final int httpStatus;   // HTTP status code sent back to the terminal
+    private final String status;    // Human-readable status placed in <Status>
+
+    /**
+     * Constructs a response with the given HTTP status and status text.
+     *
+     * @param httpStatus HTTP status code (e.g. 202, 403, 500)
+     * @param status     Status text for the XML body
+     */
+    public PaymentResponse(int httpStatus, String status) {
+        this.httpStatus = httpStatus;
+        this.status = status;
+    }
+
+    /**
+     * @return HTTP status code for this response
+     */
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    /**
+     * @return Status text for this response
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Renders the response as the XML body expected by terminals.
+     *
+     * @return XML representation of this response
+     */
+    public String toXml() {
+        return "<PaymentResponse><Status>" + status + "</Status></PaymentResponse>";
+    }
+}
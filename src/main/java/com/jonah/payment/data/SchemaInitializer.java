@@ -1,16 +1,24 @@
 package com.jonah.payment.data;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
 
 /**
  * SchemaInitializer is responsible for setting up and optionally resetting
  * the Oracle database schema used by the payment processing application.
- * It creates and clears the 'tap_events', 'denylist', and 'seen_cards' tables.
+ * It creates and clears the 'tap_events', 'denylist', and 'seen_cards' tables,
+ * plus 'tap_journal_checkpoint' used by the write-behind tap journal and
+ * 'fare_ledger' holding fares awaiting an aggregated authorization.
+ * Optional SchemaOptions add indexing and time partitioning to 'tap_events' and
+ * select the pan column format, migrating existing Base64 columns to RAW(32).
  */
 public class SchemaInitializer {
 
+    // Name of the covering index used by open-entry lookups and matching.
+    public static final String TAP_EVENTS_OPEN_ENTRY_INDEX = "tap_events_open_entry_ix";
+
     /**
      * Initializes the database schema. Optionally clears existing data.
      *
@@ -19,40 +27,124 @@ public class SchemaInitializer {
      * @throws SQLException If SQL execution fails.
      */
     public static void setupSchema(Connection conn, boolean reset) throws SQLException {
+        setupSchema(conn, reset, new SchemaOptions());
+    }
+
+    /**
+     * Initializes the database schema with optional layout features.
+     *
+     * @param conn    Active JDBC connection to the database.
+     * @param reset   If true, existing data is deleted before table creation.
+     * @param options Indexing and partitioning options for tap_events.
+     * @throws SQLException If SQL execution fails.
+     */
+    public static void setupSchema(Connection conn, boolean reset, SchemaOptions options) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
             if (reset) {
                 // Attempt to drop existing tables (ignore errors if they don’t exist).
                 try { stmt.execute("DROP TABLE tap_events"); } catch (SQLException ignored) {}
                 try { stmt.execute("DROP TABLE denylist"); } catch (SQLException ignored) {}
                 try { stmt.execute("DROP TABLE seen_cards"); } catch (SQLException ignored) {}
+                try { stmt.execute("DROP TABLE tap_journal_checkpoint"); } catch (SQLException ignored) {}
+                try { stmt.execute("DROP TABLE fare_ledger"); } catch (SQLException ignored) {}
             }
 
             // Create table for storing tap events (entry and exit).
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS tap_events (
-                    pan VARCHAR2(256),
+                    pan %s,
                     terminal_id VARCHAR2(64),
                     cryptogram VARCHAR2(128),
                     tap_time TIMESTAMP,
                     approved CHAR(1),
                     enter_or_exit VARCHAR2(8),
                     matched_exit_time TIMESTAMP
-                )""");
+                )""".formatted(options.panFormat.columnType()) + (options.partitionTapEvents ? partitionClause(options) : ""));
+
+            // Convert an existing unpartitioned table online (e.g. after reset=false upgrades).
+            if (options.partitionTapEvents && !isPartitioned(stmt, "TAP_EVENTS")) {
+                stmt.execute("ALTER TABLE tap_events MODIFY" + partitionClause(options) + " ONLINE");
+            }
+
+            // Covering index for the exit lookup: equality on pan/mode/approval, IS NULL on
+            // matched_exit_time, and tap_time last so the most recent entry is read first.
+            // It is global (not LOCAL) so a PAN lookup probes one index, not one per partition.
+            if (options.indexTapEvents) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS " + TAP_EVENTS_OPEN_ENTRY_INDEX
+                        + " ON tap_events (pan, enter_or_exit, approved, matched_exit_time, tap_time)");
+            }
 
-            // Create table for storing denylisted PANs.
+            // Create table for storing denylisted PANs; added_at drives incremental cache refresh.
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS denylist (
-                    pan VARCHAR2(256) PRIMARY KEY
-                )""");
+                    pan %s PRIMARY KEY,
+                    added_at TIMESTAMP DEFAULT SYSTIMESTAMP NOT NULL
+                )""".formatted(options.panFormat.columnType()));
+
+            // Add the column to denylists created before it existed (existing rows get the default).
+            if (!hasColumn(stmt, "DENYLIST", "ADDED_AT")) {
+                stmt.execute("ALTER TABLE denylist ADD (added_at TIMESTAMP DEFAULT SYSTIMESTAMP NOT NULL)");
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS denylist_added_at_ix ON denylist (added_at)");
 
             // Create table for tracking PANs seen for the first time.
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS seen_cards (
-                    pan VARCHAR2(256) PRIMARY KEY
+                    pan %s PRIMARY KEY
+                )""".formatted(options.panFormat.columnType()));
+
+            // Create table holding the last journal sequence written to tap_events.
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS tap_journal_checkpoint (
+                    id NUMBER PRIMARY KEY,
+                    last_seq NUMBER NOT NULL
                 )""");
+
+            // Create table of unsettled fares per card; card_data is AES-GCM encrypted.
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS fare_ledger (
+                    pan %s PRIMARY KEY,
+                    card_data RAW(2000) NOT NULL,
+                    total NUMBER(12,2) NOT NULL,
+                    journeys NUMBER(10) NOT NULL,
+                    opened_at TIMESTAMP NOT NULL
+                )""".formatted(options.panFormat.columnType()));
+        }
+
+        // Tables kept from a Base64 deployment are converted in place, without blocking DML.
+        if (options.panFormat == PanStorageFormat.RAW) {
+            PanColumnMigration.migrateAll(conn);
         }
     }
-}
 
+    /**
+     * Builds the interval range-partitioning clause for tap_events. Oracle creates a new
+     * partition automatically the first time a tap_time beyond the last partition is inserted.
+     */
+    private static String partitionClause(SchemaOptions options) {
+        return """
 
+                PARTITION BY RANGE (tap_time)
+                INTERVAL (NUMTODSINTERVAL(%d, 'DAY'))
+                (PARTITION tap_events_p0 VALUES LESS THAN (TIMESTAMP '2024-01-01 00:00:00'))""".formatted(options.partitionIntervalDays);
+    }
 
+    /**
+     * Checks whether a table in the current schema is partitioned.
+     */
+    private static boolean isPartitioned(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM user_part_tables WHERE table_name = '" + table + "'")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Checks whether a table in the current schema has the given column.
+     */
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM user_tab_columns WHERE table_name = '" + table
+                + "' AND column_name = '" + column + "'")) {
+            return rs.next();
+        }
+    }
+}
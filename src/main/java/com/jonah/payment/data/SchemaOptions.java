@@ -0,0 +1,45 @@
+package com.jonah.payment.data;
+
+/**
+ * SchemaOptions is a simple POJO selecting optional physical layout features
+ * applied by SchemaInitializer on top of the base tables.
+ */
+public class SchemaOptions {
+
+    public boolean indexTapEvents;       // Covering index for open-entry lookups on tap_events
+    public boolean partitionTapEvents;   // Interval range partitioning of tap_events by tap_time
+    public int partitionIntervalDays;    // Days covered by each automatically created partition
+    public PanStorageFormat panFormat;   // Column type of pan in tap_events, denylist and seen_cards
+
+    /**
+     * Constructs options with all optional features enabled or disabled.
+     *
+     * @param indexTapEvents     Create the (pan, enter_or_exit, approved, matched_exit_time, tap_time) index
+     * @param partitionTapEvents Range-partition tap_events by tap_time with automatic partition creation
+     */
+    public SchemaOptions(boolean indexTapEvents, boolean partitionTapEvents) {
+        this.indexTapEvents = indexTapEvents;
+        this.partitionTapEvents = partitionTapEvents;
+        this.partitionIntervalDays = 1;
+        this.panFormat = PanStorageFormat.BASE64;
+    }
+
+    /**
+     * Constructs options with the given pan storage format.
+     *
+     * @param indexTapEvents     Create the (pan, enter_or_exit, approved, matched_exit_time, tap_time) index
+     * @param partitionTapEvents Range-partition tap_events by tap_time with automatic partition creation
+     * @param panFormat          Store pan as Base64 VARCHAR2 or as RAW(32); existing tables are migrated online
+     */
+    public SchemaOptions(boolean indexTapEvents, boolean partitionTapEvents, PanStorageFormat panFormat) {
+        this(indexTapEvents, partitionTapEvents);
+        this.panFormat = panFormat;
+    }
+
+    /**
+     * Default constructor: the original layout with no index or partitioning and Base64 pans.
+     */
+    public SchemaOptions() {
+        this(false, false);
+    }
+}
@@ -1,73 +1,115 @@
 package com.jonah.payment.data;
 
-import com.jonah.payment.utils.CryptoUtils;
+import com.jonah.payment.utils.HashedPan;
+import com.jonah.payment.utils.MappedDigestSet;
 
+import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
 
 /**
  * SeenCardDAO handles tracking of PANs (cards) that have been seen for the first time.
  * This enables logging first-time users and suppressing repeated AVR attempts.
+ * An optional memory-mapped digest set answers repeat sightings without Oracle.
  */
 public class SeenCardDAO {
 
-    private final Connection conn; // Active JDBC connection
+    private final DataSource dataSource; // Connection pool, borrowed per query
+    private final MappedDigestSet seenSet; // Optional off-heap set answering repeat sightings
+    private final PanStorageFormat panFormat; // How the pan column stores digests
 
     /**
      * Constructs a DAO to interact with the seen_cards table.
      *
-     * @param conn JDBC connection to the database
+     * @param dataSource Pool providing JDBC connections to the database
      */
-    public SeenCardDAO(Connection conn) {
-        this.conn = conn;
+    public SeenCardDAO(DataSource dataSource) {
+        this(dataSource, null);
     }
 
     /**
-     * Checks whether the card's PAN has been logged before.
-     * The PAN is hashed before lookup for privacy.
+     * Constructs a DAO whose first-seen checks are answered from an off-heap digest set.
+     * Oracle is only contacted for cards not yet in the set.
      *
-     * @param pan Raw PAN to query
-     * @return true if the PAN exists in seen_cards, false otherwise
-     * @throws SQLException if hashing or DB read fails
+     * @param dataSource Pool providing JDBC connections to the database
+     * @param seenSet    Persistent set of seen PAN digests, or null to always query Oracle
      */
-    public boolean hasSeenCard(String pan) throws SQLException {
-        String hashedPan;
-        try {
-            // Hash PAN for secure lookup
-            hashedPan = CryptoUtils.hashPAN(pan);
-        } catch (Exception e) {
-            throw new SQLException("Failed to hash PAN", e);
-        }
+    public SeenCardDAO(DataSource dataSource, MappedDigestSet seenSet) {
+        this(dataSource, seenSet, PanStorageFormat.BASE64);
+    }
 
-        String sql = "SELECT 1 FROM seen_cards WHERE pan = ?";
+    /**
+     * Constructs a DAO for the given pan column format.
+     *
+     * @param dataSource Pool providing JDBC connections to the database
+     * @param seenSet    Persistent set of seen PAN digests, or null to always query Oracle
+     * @param panFormat  Storage format of the pan column
+     */
+    public SeenCardDAO(DataSource dataSource, MappedDigestSet seenSet, PanStorageFormat panFormat) {
+        this.dataSource = dataSource;
+        this.seenSet = seenSet;
+        this.panFormat = panFormat;
+    }
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, hashedPan);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next(); // true if exists
-            }
-        }
+    /**
+     * Records the card as seen and reports whether this was its first sighting,
+     * in one MERGE statement instead of a lookup followed by an insert.
+     *
+     * @param pan Raw card PAN to record
+     * @return true if the PAN was not seen before, false if it already existed
+     * @throws SQLException if hashing or the upsert fails
+     */
+    public boolean markSeen(String pan) throws SQLException {
+        return markSeen(HashedPan.of(pan));
     }
 
     /**
-     * Inserts a new PAN into the seen_cards table.
-     * The card is considered "seen" and will not be re-logged.
+     * Records the card as seen, given its hashed PAN, and reports whether this was
+     * its first sighting.
      *
-     * @param pan Raw card PAN to store
-     * @throws SQLException if hashing or insertion fails
+     * @param hashedPan Hashed PAN to record
+     * @return true if the PAN was not seen before, false if it already existed
+     * @throws SQLException if the upsert fails
      */
-    public void insert(String pan) throws SQLException {
-        String hashedPan;
-        try {
-            hashedPan = CryptoUtils.hashPAN(pan);
-        } catch (Exception e) {
-            throw new SQLException("Failed to hash PAN", e);
+    public boolean markSeen(HashedPan hashedPan) throws SQLException {
+        // Repeat sightings are answered off-heap; only new cards reach Oracle
+        if (seenSet != null && seenSet.contains(hashedPan.bytes())) {
+            return false;
         }
 
-        String sql = "INSERT INTO seen_cards (pan) VALUES (?)";
+        // Insert only when absent; the update count tells whether a row was added
+        String sql = """
+            MERGE INTO seen_cards s
+            USING (SELECT ? AS pan FROM dual) n
+            ON (s.pan = n.pan)
+            WHEN NOT MATCHED THEN INSERT (pan) VALUES (n.pan)
+        """;
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            panFormat.bind(stmt, 1, hashedPan);
+            boolean firstSeen = stmt.executeUpdate() == 1;
+            remember(hashedPan);
+            return firstSeen;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // A concurrent tap with the same card inserted it first
+            remember(hashedPan);
+            return false;
+        }
+    }
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, hashedPan);
-            stmt.executeUpdate();
+    /**
+     * Records a card already stored in seen_cards in the off-heap set, if enabled.
+     * Oracle stays authoritative, so a failure only costs later lookups a query.
+     */
+    private void remember(HashedPan hashedPan) {
+        if (seenSet == null) {
+            return;
+        }
+        try {
+            seenSet.add(hashedPan.bytes());
+        } catch (IOException e) {
+            System.err.println("\u26A0\uFE0F Failed to update seen-card set: " + e.getMessage());
         }
     }
 }
@@ -1,5 +1,7 @@
 package com.jonah.payment.data;
 
+import com.jonah.payment.utils.HashedPan;
+
 import java.time.LocalDateTime;
 
 /**
@@ -17,6 +19,9 @@ public class TapEvent {
     private LocalDateTime timestamp;   // Local timestamp of the tap event
     private String mode;               // Either "entry" or "exit"
     private boolean approved;          // Indicates whether the tap was successfully authorized
+    private HashedPan hashedPan;       // HMAC of the PAN, computed once on first use
+    private boolean firstSeen;         // Whether this tap is the card's first sighting (entry taps)
+    private long journalSequence;      // Write-behind journal sequence, or 0 if inserted directly
 
     // Getters and setters for each field ────────────────────────────────
 
@@ -32,6 +37,20 @@ public class TapEvent {
      */
     public void setPan(String pan) {
         this.pan = pan;
+        this.hashedPan = null;
+    }
+
+    /**
+     * Returns the hashed PAN, computing it on first use so every DAO call for
+     * this tap shares one HMAC.
+     *
+     * @return The hashed PAN, or null if no PAN is set.
+     */
+    public HashedPan getHashedPan() {
+        if (hashedPan == null && pan != null) {
+            hashedPan = HashedPan.of(pan);
+        }
+        return hashedPan;
     }
 
     /**
@@ -131,8 +150,32 @@ public class TapEvent {
     public void setApproved(boolean approved) {
         this.approved = approved;
     }
-}
 
+    /**
+     * @return true if this entry tap was the first time the card was seen.
+     */
+    public boolean isFirstSeen() {
+        return firstSeen;
+    }
 
+    /**
+     * @param firstSeen Whether this entry tap was the first time the card was seen.
+     */
+    public void setFirstSeen(boolean firstSeen) {
+        this.firstSeen = firstSeen;
+    }
 
+    /**
+     * @return Sequence number of this tap in the write-behind journal, or 0 if it was not journaled.
+     */
+    long getJournalSequence() {
+        return journalSequence;
+    }
 
+    /**
+     * @param journalSequence Sequence number assigned by the write-behind journal.
+     */
+    void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+}
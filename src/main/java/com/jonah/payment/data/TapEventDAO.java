@@ -1,90 +1,159 @@
 package com.jonah.payment.data;
 
-import com.jonah.payment.utils.CryptoUtils;
+import com.jonah.payment.utils.HashedPan;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.time.LocalDateTime;
 
 /**
  * TapEventDAO provides data access logic for managing contactless tap events.
- * It enables tap insertion, retrieval of unmatched entry events, and updating
- * those entries once matched with corresponding exits.
+ * It enables tap insertion, retrieval of unmatched entry events, and claiming
+ * those entries when the rider taps out.
  */
 public class TapEventDAO {
 
-    // Persistent database connection used for all operations in this DAO
-    private final Connection conn;
+    // SQL used for single-row inserts and by the write-behind journal's batches
+    static final String INSERT_SQL =
+            "INSERT INTO tap_events (pan, terminal_id, cryptogram, tap_time, approved, enter_or_exit) VALUES (?, ?, ?, ?, ?, ?)";
+
+    // Longest an exit waits for the write-behind journal to write its entry before matching it
+    private static final long JOURNAL_WAIT_MS = 5_000;
+
+    // Connection pool; each operation borrows its own connection
+    private final DataSource dataSource;
+
+    // Optional write-behind journal; when set, inserts are appended to it instead of Oracle
+    private final TapEventJournal journal;
+
+    // Optional in-memory index of open journeys; when set, exits are matched without a DB read
+    private final OpenJourneyIndex openJourneys;
+
+    // How the pan column stores digests (Base64 string or RAW(32))
+    private final PanStorageFormat panFormat;
 
     /**
      * Constructs a new DAO for accessing and modifying the tap_events table.
      *
-     * @param conn JDBC connection to the Oracle database
+     * @param dataSource Pool providing JDBC connections to the Oracle database
+     */
+    public TapEventDAO(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    /**
+     * Constructs a DAO whose inserts go through a write-behind journal.
+     *
+     * @param dataSource Pool providing JDBC connections to the Oracle database
+     * @param journal    Write-behind journal for inserts, or null to insert synchronously
+     */
+    public TapEventDAO(DataSource dataSource, TapEventJournal journal) {
+        this(dataSource, journal, null);
+    }
+
+    /**
+     * Constructs a DAO with optional write-behind journal and open-journey index.
+     *
+     * @param dataSource   Pool providing JDBC connections to the Oracle database
+     * @param journal      Write-behind journal for inserts, or null to insert synchronously
+     * @param openJourneys In-memory open-entry index, or null to always claim entries in Oracle
+     */
+    public TapEventDAO(DataSource dataSource, TapEventJournal journal, OpenJourneyIndex openJourneys) {
+        this(dataSource, journal, openJourneys, PanStorageFormat.BASE64);
+    }
+
+    /**
+     * Constructs a DAO for the given pan column format.
+     *
+     * @param dataSource   Pool providing JDBC connections to the Oracle database
+     * @param journal      Write-behind journal for inserts, or null to insert synchronously
+     * @param openJourneys In-memory open-entry index, or null to always claim entries in Oracle
+     * @param panFormat    Storage format of the pan column
      */
-    public TapEventDAO(Connection conn) {
-        this.conn = conn;
+    public TapEventDAO(DataSource dataSource, TapEventJournal journal, OpenJourneyIndex openJourneys,
+                       PanStorageFormat panFormat) {
+        this.dataSource = dataSource;
+        this.journal = journal;
+        this.openJourneys = openJourneys;
+        this.panFormat = panFormat;
     }
 
     /**
      * Records a single tap (either entry or exit) into the database.
      * It securely hashes the PAN before saving to protect cardholder data.
+     * In write-behind mode the tap is durably journaled and written to Oracle later.
      *
      * @param tap      The tap event to persist
      * @param approved Indicates whether the transaction was authorized
-     * @throws SQLException if hashing or database write fails
+     * @throws SQLException if journaling or database write fails
      */
     public void insert(TapEvent tap, boolean approved) throws SQLException {
-        String sql = "INSERT INTO tap_events (pan, terminal_id, cryptogram, tap_time, approved, enter_or_exit) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            try {
-                // Hash PAN for privacy before storing
-                stmt.setString(1, CryptoUtils.hashPAN(tap.getPan()));
-            } catch (Exception e) {
-                throw new SQLException("Failed to hash PAN", e);
-            }
-
-            // Set terminal ID, cryptogram, and timestamp
-            stmt.setString(2, tap.getTerminalId());
-            stmt.setString(3, tap.getCryptogram());
-            stmt.setTimestamp(4, Timestamp.valueOf(tap.getTimestamp()));
+        // Hash PAN for privacy before storing (computed once per tap)
+        HashedPan hashedPan = tap.getHashedPan();
 
-            // Use 'Y' or 'N' string to indicate approval
-            stmt.setString(5, approved ? "Y" : "N");
+        if (journal != null) {
+            tap.setJournalSequence(journal.append(hashedPan.toBase64(), tap, approved));
+            return;
+        }
 
-            // Save the mode as either 'entry' or 'exit'
-            stmt.setString(6, tap.getMode().toLowerCase());
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(INSERT_SQL)) {
+            bindInsert(stmt, panFormat, hashedPan, tap, approved);
 
             // Execute insert query
             stmt.executeUpdate();
         }
     }
 
+    /**
+     * Binds the parameters of INSERT_SQL for one tap.
+     *
+     * @param stmt      Statement prepared from INSERT_SQL
+     * @param panFormat Storage format of the pan column
+     * @param hashedPan The tap's hashed PAN
+     * @param tap       The tap event to persist
+     * @param approved  Indicates whether the transaction was authorized
+     * @throws SQLException if binding fails
+     */
+    static void bindInsert(PreparedStatement stmt, PanStorageFormat panFormat, HashedPan hashedPan, TapEvent tap,
+                           boolean approved) throws SQLException {
+        panFormat.bind(stmt, 1, hashedPan);
+
+        // Set terminal ID, cryptogram, and timestamp
+        stmt.setString(2, tap.getTerminalId());
+        stmt.setString(3, tap.getCryptogram());
+        stmt.setTimestamp(4, Timestamp.valueOf(tap.getTimestamp()));
+
+        // Use 'Y' or 'N' string to indicate approval
+        stmt.setString(5, approved ? "Y" : "N");
+
+        // Save the mode as either 'entry' or 'exit'
+        stmt.setString(6, tap.getMode().toLowerCase());
+    }
+
     /**
      * Finds the latest approved entry tap with no associated exit for the same PAN.
      * This is used to calculate a fare when a rider taps out.
      *
      * @param pan The raw PAN to look up; will be hashed to match stored format
      * @return The most recent unmatched entry TapEvent, or null if none found
-     * @throws SQLException if hashing or DB query fails
+     * @throws SQLException if the DB query fails
      */
     public TapEvent findMostRecentUnmatchedEntry(String pan) throws SQLException {
-        String hashedPan;
-        try {
-            // Hash PAN for lookup
-            hashedPan = CryptoUtils.hashPAN(pan);
-        } catch (Exception e) {
-            throw new SQLException("Failed to hash PAN", e);
-        }
+        // Hash PAN for lookup
+        HashedPan hashedPan = HashedPan.of(pan);
 
         // SQL to find the most recent entry tap that hasn’t been matched yet
         String sql = """
-            SELECT * FROM tap_events
+            SELECT terminal_id, cryptogram, tap_time FROM tap_events
             WHERE pan = ? AND enter_or_exit = 'entry' AND approved = 'Y' AND matched_exit_time IS NULL
             ORDER BY tap_time DESC
             FETCH FIRST 1 ROWS ONLY
         """;
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, hashedPan);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            panFormat.bind(stmt, 1, hashedPan);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     TapEvent tap = new TapEvent();
@@ -107,41 +176,171 @@ public class TapEventDAO {
     }
 
     /**
-     * Updates the most recent unmatched entry tap by adding a matched_exit_time.
-     * This indicates the entry has been successfully paired with an exit.
+     * Records an approved entry in the open-journey index, if enabled, so the rider's
+     * exit can be matched without reading tap_events. The raw PAN is not kept in memory.
      *
-     * @param pan       The raw PAN used to find the entry
-     * @param matchTime The timestamp from the corresponding exit event
-     * @throws SQLException if hashing or update fails
+     * @param entryTap The approved entry tap
      */
-    public void markEntryAsMatched(String pan, LocalDateTime matchTime) throws SQLException {
-        String hashedPan;
-        try {
-            // Convert PAN to hashed format
-            hashedPan = CryptoUtils.hashPAN(pan);
-        } catch (Exception e) {
-            throw new SQLException("Failed to hash PAN", e);
+    public void openJourney(TapEvent entryTap) {
+        if (openJourneys == null) {
+            return;
+        }
+        TapEvent entry = new TapEvent();
+        entry.setTerminalId(entryTap.getTerminalId());
+        entry.setCryptogram(entryTap.getCryptogram());
+        entry.setTimestamp(entryTap.getTimestamp());
+        entry.setMode("entry");
+        entry.setApproved(true);
+        entry.setJournalSequence(entryTap.getJournalSequence());
+        openJourneys.open(entryTap.getHashedPan(), entry);
+    }
+
+    /**
+     * Claims the latest approved, unmatched entry tap for the exit's PAN.
+     *
+     * With the open-journey index the entry is taken from memory and only marked as matched
+     * by confirmClaim once the exit is approved. Otherwise (or on an index miss) it is claimed
+     * in a single round trip: the row is locked, stamped with the exit time and returned
+     * together with its ROWID. A concurrent exit for the same card blocks on the row lock and
+     * then re-evaluates the lookup, so one entry can never be matched by two exits. An entry
+     * still in the write-behind journal is waited for first, so the lookup can see it.
+     *
+     * @param exitTap The exit tap; its PAN identifies the rider and its time closes the entry
+     * @return The claim, or null if the rider has no open entry
+     * @throws SQLException if the update fails
+     */
+    public EntryClaim claimOpenEntry(TapEvent exitTap) throws SQLException {
+        // Hash PAN for lookup (computed once per tap)
+        HashedPan hashedPan = exitTap.getHashedPan();
+
+        if (openJourneys != null) {
+            TapEvent entry = openJourneys.claim(hashedPan);
+            if (entry != null) {
+                // Set original PAN for downstream logic (e.g., fare calculation)
+                entry.setPan(exitTap.getPan());
+                return new EntryClaim(null, hashedPan, entry);
+            }
+            if (openJourneys.isClaimInFlight(hashedPan)) {
+                // Another exit holds this card's entry; Oracle would hand out the same row.
+                return null;
+            }
+        }
+
+        // The rider's entry may still be in the write-behind journal; wait for its row
+        if (journal != null) {
+            long entrySeq = journal.pendingEntrySequence(hashedPan.toBase64());
+            if (entrySeq > 0 && !journal.awaitCommitted(entrySeq, JOURNAL_WAIT_MS)) {
+                System.err.println("\u26A0\uFE0F Entry still in the tap journal after " + JOURNAL_WAIT_MS + " ms; matching without it");
+            }
+        }
+
+        // Lock, close and return the open entry; the outer predicate is re-checked after a lock wait
+        String sql = """
+            BEGIN
+              UPDATE tap_events
+              SET matched_exit_time = ?
+              WHERE rowid = (
+                SELECT rowid FROM tap_events
+                WHERE pan = ? AND enter_or_exit = 'entry' AND approved = 'Y' AND matched_exit_time IS NULL
+                ORDER BY tap_time DESC
+                FETCH FIRST 1 ROWS ONLY
+              ) AND matched_exit_time IS NULL
+              RETURNING ROWIDTOCHAR(rowid), terminal_id, cryptogram, tap_time INTO ?, ?, ?, ?;
+            END;
+        """;
+
+        try (Connection conn = dataSource.getConnection();
+             CallableStatement stmt = conn.prepareCall(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(exitTap.getTimestamp()));
+            panFormat.bind(stmt, 2, hashedPan);
+            stmt.registerOutParameter(3, Types.VARCHAR);
+            stmt.registerOutParameter(4, Types.VARCHAR);
+            stmt.registerOutParameter(5, Types.VARCHAR);
+            stmt.registerOutParameter(6, Types.TIMESTAMP);
+            stmt.execute();
+
+            String rowId = stmt.getString(3);
+            if (rowId == null) {
+                // No unmatched entry found
+                return null;
+            }
+
+            TapEvent entry = new TapEvent();
+            entry.setTerminalId(stmt.getString(4));
+            entry.setCryptogram(stmt.getString(5));
+            entry.setTimestamp(stmt.getTimestamp(6).toLocalDateTime());
+            entry.setMode("entry");
+
+            // Set original PAN for downstream logic (e.g., fare calculation)
+            entry.setPan(exitTap.getPan());
+            return new EntryClaim(rowId, entry);
+        }
+    }
+
+    /**
+     * Marks the entry of an approved exit as matched. Database claims are already marked;
+     * index claims are updated by exact key (hashed PAN and entry time) via the covering index.
+     * The bound time is rounded to the column's precision the same way the insert was.
+     * An entry still in the write-behind journal is waited for, so the update finds its row.
+     *
+     * @param claim    Claim returned by claimOpenEntry
+     * @param exitTime Timestamp of the approved exit
+     * @throws SQLException if the update fails
+     */
+    public void confirmClaim(EntryClaim claim, LocalDateTime exitTime) throws SQLException {
+        if (!claim.isIndexed()) {
+            return;
         }
 
-        // SQL update to set matched_exit_time on most recent unmatched approved entry
         String sql = """
             UPDATE tap_events
             SET matched_exit_time = ?
             WHERE pan = ? AND enter_or_exit = 'entry' AND approved = 'Y' AND matched_exit_time IS NULL
-              AND tap_time = (
-                SELECT MAX(tap_time) FROM tap_events
-                WHERE pan = ? AND enter_or_exit = 'entry' AND approved = 'Y' AND matched_exit_time IS NULL
-              )
+              AND tap_time = CAST(? AS TIMESTAMP(6))
         """;
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setTimestamp(1, Timestamp.valueOf(matchTime)); // Set match time to current exit
-            stmt.setString(2, hashedPan);                       // Match entry by hashed PAN
-            stmt.setString(3, hashedPan);                       // Use subquery to find the latest one
-            stmt.executeUpdate();
+        try {
+            // A recent entry may still be in the write-behind journal; wait for its row
+            long entrySeq = claim.getEntry().getJournalSequence();
+            if (journal != null && entrySeq > 0) {
+                journal.awaitCommitted(entrySeq, JOURNAL_WAIT_MS);
+            }
+
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setTimestamp(1, Timestamp.valueOf(exitTime));
+                panFormat.bind(stmt, 2, claim.getHashedPan());
+                stmt.setTimestamp(3, Timestamp.valueOf(claim.getEntry().getTimestamp()));
+                if (stmt.executeUpdate() == 0) {
+                    // E.g. the journal could not write the entry in time, or it was matched elsewhere.
+                    System.err.println("\u26A0\uFE0F Matched entry not found in tap_events at " + claim.getEntry().getTimestamp());
+                }
+            }
+        } finally {
+            openJourneys.complete(claim.getHashedPan());
         }
     }
-}
 
+    /**
+     * Reopens a claimed entry, e.g. when the exit's authorization is declined,
+     * so that a later exit can still match it. Database claims are addressed by
+     * ROWID; index claims are put back into the index.
+     *
+     * @param claim Claim returned by claimOpenEntry
+     * @throws SQLException if the update fails
+     */
+    public void releaseClaim(EntryClaim claim) throws SQLException {
+        if (claim.isIndexed()) {
+            openJourneys.release(claim.getHashedPan(), claim.getEntry());
+            return;
+        }
 
+        String sql = "UPDATE tap_events SET matched_exit_time = NULL WHERE rowid = CHARTOROWID(?)";
 
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, claim.getRowId());
+            stmt.executeUpdate();
+        }
+    }
+}
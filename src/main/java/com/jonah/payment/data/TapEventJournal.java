@@ -0,0 +1,605 @@
+package com.jonah.payment.data;
+
+import com.jonah.payment.utils.HashedPan;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * TapEventJournal is a write-behind buffer for tap_events inserts.
+ *
+ * Each tap is appended to a local append-only journal file (fsynced, with concurrent
+ * appenders sharing one fsync) and queued in a bounded in-memory buffer. A background
+ * writer drains the buffer into tap_events with JDBC batches, one commit per batch.
+ * The highest journal sequence number written is stored in tap_journal_checkpoint in
+ * the same transaction, so after a crash start() replays exactly the journaled taps
+ * that never reached Oracle. PANs are journaled in hashed form only.
+ *
+ * Exit lookups read tap_events, so an approved entry still in the buffer is invisible
+ * to them. The journal tracks each card's latest unwritten entry, and callers wait for
+ * it with pendingEntrySequence and awaitCommitted before querying.
+ */
+public class TapEventJournal implements AutoCloseable {
+
+    // Journal is truncated once everything in it is committed and it exceeds this size.
+    private static final long COMPACT_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    // Longest backoff between retries when Oracle rejects a batch.
+    private static final long MAX_RETRY_BACKOFF_MS = 5_000;
+
+    private static final String READ_CHECKPOINT_SQL = "SELECT last_seq FROM tap_journal_checkpoint WHERE id = 1";
+
+    private static final String WRITE_CHECKPOINT_SQL = """
+            MERGE INTO tap_journal_checkpoint c
+            USING (SELECT 1 AS id FROM dual) s ON (c.id = s.id)
+            WHEN MATCHED THEN UPDATE SET c.last_seq = ?
+            WHEN NOT MATCHED THEN INSERT (id, last_seq) VALUES (1, ?)
+            """;
+
+    private final DataSource dataSource;       // Pool used by the background writer
+    private final Path path;                   // Journal file location
+    private final int batchSize;               // Maximum rows per JDBC batch / commit
+    private final long maxLatencyMs;           // Longest a tap waits in the buffer for its batch to fill
+    private final PanStorageFormat panFormat;  // How tap_events.pan stores digests
+    private final BlockingQueue<Record> buffer;
+
+    // Hashed PAN -> sequence of the card's latest approved entry not yet in tap_events
+    private final ConcurrentHashMap<String, Long> pendingEntries = new ConcurrentHashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock(); // Orders journal writes and buffer inserts
+    private final Object syncLock = new Object();                 // Serializes fsyncs so appenders can share one
+    private final Object commitLock = new Object();               // Signalled when committedSeq advances
+    private FileChannel channel;
+    private long nextSeq;                                         // Guarded by appendLock
+    private volatile long writtenPosition;                        // End of the last journaled record
+    private long syncedPosition;                                  // Guarded by syncLock
+    private volatile long committedSeq;                           // Highest sequence committed to Oracle
+
+    private Thread writer;
+    private volatile boolean running;
+
+    // Metrics.
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    /**
+     * Creates a journal. Call start() before appending.
+     *
+     * @param dataSource     Pool used to write batches to tap_events.
+     * @param path           Journal file location; created if missing.
+     * @param batchSize      Maximum taps written and committed together.
+     * @param maxLatencyMs   Longest a tap waits for its batch to fill before it is written.
+     * @param bufferCapacity Maximum taps held in memory; appenders block when it is full.
+     */
+    public TapEventJournal(DataSource dataSource, Path path, int batchSize, long maxLatencyMs, int bufferCapacity) {
+        this(dataSource, path, batchSize, maxLatencyMs, bufferCapacity, PanStorageFormat.BASE64);
+    }
+
+    /**
+     * Creates a journal writing to a tap_events table in the given pan format.
+     * Records always hold the Base64 digest, so a journal survives a format change.
+     *
+     * @param dataSource     Pool used to write batches to tap_events.
+     * @param path           Journal file location; created if missing.
+     * @param batchSize      Maximum taps written and committed together.
+     * @param maxLatencyMs   Longest a tap waits for its batch to fill before it is written.
+     * @param bufferCapacity Maximum taps held in memory; appenders block when it is full.
+     * @param panFormat      Storage format of tap_events.pan.
+     */
+    public TapEventJournal(DataSource dataSource, Path path, int batchSize, long maxLatencyMs, int bufferCapacity,
+                           PanStorageFormat panFormat) {
+        this.dataSource = dataSource;
+        this.panFormat = panFormat;
+        this.path = path;
+        this.batchSize = batchSize;
+        this.maxLatencyMs = maxLatencyMs;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+    }
+
+    /**
+     * Opens the journal, replays taps that were journaled but never committed to
+     * tap_events, and starts the background writer.
+     *
+     * @throws IOException  if the journal file cannot be opened or read.
+     * @throws SQLException if the checkpoint cannot be read or replayed taps cannot be written.
+     */
+    public void start() throws IOException, SQLException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        committedSeq = readCheckpoint();
+        List<Record> pending = new ArrayList<>();
+        long lastSeq = recover(pending);
+        nextSeq = Math.max(lastSeq, committedSeq) + 1;
+
+        // Replay synchronously so tap_events is complete before taps are accepted.
+        for (int i = 0; i < pending.size(); i += batchSize) {
+            writeBatch(pending.subList(i, Math.min(i + batchSize, pending.size())));
+        }
+        if (!pending.isEmpty()) {
+            System.out.println("\uD83D\uDD01 Replayed " + pending.size() + " journaled taps into tap_events");
+        }
+
+        running = true;
+        writer = new Thread(this::runWriter, "tap-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Durably journals a tap and queues it for the background writer.
+     * Returns once the tap is on disk; it does not wait for Oracle.
+     *
+     * @param hashedPan PAN already hashed with CryptoUtils.hashPAN
+     * @param tap       The tap event to persist
+     * @param approved  Indicates whether the transaction was authorized
+     * @return The tap's journal sequence number, for awaitCommitted
+     * @throws SQLException if the journal write fails or the journal is stopped
+     */
+    public long append(String hashedPan, TapEvent tap, boolean approved) throws SQLException {
+        if (!running) {
+            throw new SQLException("Tap journal is not running");
+        }
+
+        long seq;
+        long end;
+        try {
+            // Journal order and buffer order must match so checkpoints cover a contiguous prefix.
+            appendLock.lock();
+            try {
+                seq = nextSeq++;
+                Record record = new Record(seq, hashedPan, tap.getTerminalId(), tap.getCryptogram(),
+                        tap.getTimestamp(), approved, tap.getMode().toLowerCase());
+                ByteBuffer frame = encode(record);
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+                end = channel.position();
+                writtenPosition = end;
+                if (record.isOpenEntry()) {
+                    pendingEntries.put(hashedPan, seq);
+                }
+
+                // Blocks only when the writer is far behind (e.g. Oracle is down); the writer
+                // never waits for appendLock, so it keeps draining meanwhile.
+                buffer.put(record);
+            } finally {
+                appendLock.unlock();
+            }
+            sync(end);
+            appended.incrementAndGet();
+            return seq;
+        } catch (IOException e) {
+            throw new SQLException("Failed to journal tap", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while journaling tap", e);
+        }
+    }
+
+    /**
+     * Returns the card's latest approved entry that is journaled but not yet in tap_events.
+     *
+     * @param hashedPan PAN already hashed with CryptoUtils.hashPAN
+     * @return The entry's sequence number for awaitCommitted, or 0 if none is pending
+     */
+    public long pendingEntrySequence(String hashedPan) {
+        Long seq = pendingEntries.get(hashedPan);
+        return seq != null && seq > committedSeq ? seq : 0;
+    }
+
+    /**
+     * Waits until the tap with the given sequence number has been committed to tap_events.
+     *
+     * @param seq       Sequence number returned by append
+     * @param timeoutMs Longest time to wait
+     * @return true if the tap is in tap_events, false if the wait timed out
+     * @throws SQLException if interrupted while waiting
+     */
+    public boolean awaitCommitted(long seq, long timeoutMs) throws SQLException {
+        if (committedSeq >= seq) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (commitLock) {
+            while (committedSeq < seq) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                try {
+                    commitLock.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the tap journal", e);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forces the journal to disk up to the given position. Appenders arriving while
+     * another fsync runs are covered by the next one instead of issuing their own.
+     */
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            if (syncedPosition >= end) {
+                return;
+            }
+            long target = writtenPosition;
+            channel.force(false);
+            fsyncs.incrementAndGet();
+            syncedPosition = target;
+        }
+    }
+
+    /**
+     * Background loop: collects up to batchSize taps, waiting at most maxLatencyMs after
+     * the first one, and writes them as one batch. Drains the buffer before exiting, unless
+     * a batch fails during shutdown: batches are committed in sequence order, so a later
+     * one would move the checkpoint past the failed taps (and let compaction discard them).
+     */
+    private void runWriter() {
+        List<Record> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                Record first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+                while (batch.size() < batchSize) {
+                    buffer.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Record next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                if (!writeWithRetry(batch)) {
+                    // The failed batch and everything after it stay in the journal for replay.
+                    return;
+                }
+                batch.clear();
+                compactIfIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch, retrying with backoff while Oracle is unavailable. If the journal is
+     * shutting down the batch is left for replay on the next start.
+     *
+     * @return true if the batch was committed, false if it was left in the journal.
+     */
+    private boolean writeWithRetry(List<Record> batch) throws InterruptedException {
+        long backoff = 100;
+        while (true) {
+            try {
+                writeBatch(batch);
+                return true;
+            } catch (SQLException e) {
+                failures.incrementAndGet();
+                System.err.println("\u274C Tap journal batch failed: " + e.getMessage());
+                if (!running) {
+                    return false;
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * Inserts the batch and advances the checkpoint in a single transaction.
+     */
+    private void writeBatch(List<Record> batch) throws SQLException {
+        long lastSeq = batch.get(batch.size() - 1).seq;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(TapEventDAO.INSERT_SQL);
+                 PreparedStatement checkpoint = conn.prepareStatement(WRITE_CHECKPOINT_SQL)) {
+                for (Record record : batch) {
+                    TapEventDAO.bindInsert(insert, panFormat, HashedPan.fromBase64(record.hashedPan),
+                            record.toTapEvent(), record.approved);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+
+                checkpoint.setLong(1, lastSeq);
+                checkpoint.setLong(2, lastSeq);
+                checkpoint.executeUpdate();
+            }
+            conn.commit();
+        }
+        synchronized (commitLock) {
+            committedSeq = lastSeq;
+            commitLock.notifyAll();
+        }
+        for (Record record : batch) {
+            if (record.isOpenEntry()) {
+                pendingEntries.remove(record.hashedPan, record.seq);
+            }
+        }
+        flushed.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    /**
+     * Truncates the journal once every appended tap is committed and the file is large.
+     * Skipped while an appender holds appendLock: it may be blocked on the full buffer,
+     * waiting for this thread to drain it.
+     */
+    private void compactIfIdle() {
+        if (writtenPosition < COMPACT_THRESHOLD_BYTES || !appendLock.tryLock()) {
+            return;
+        }
+        try {
+            if (committedSeq != nextSeq - 1) {
+                return;
+            }
+            synchronized (syncLock) {
+                try {
+                    channel.truncate(0);
+                    channel.position(0);
+                    channel.force(true);
+                    writtenPosition = 0;
+                    syncedPosition = 0;
+                } catch (IOException e) {
+                    System.err.println("\u274C Failed to compact tap journal: " + e.getMessage());
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the journal, collecting records newer than the checkpoint. A torn or corrupt
+     * tail (from a crash mid-write) is truncated away.
+     *
+     * @return Highest sequence number found in the journal, or 0 if it is empty.
+     */
+    private long recover(List<Record> pending) throws IOException {
+        long lastSeq = 0;
+        long goodPosition = 0;
+        channel.position(0);
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (true) {
+            header.clear();
+            if (readFully(header) < 8) {
+                break;
+            }
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || length > 64 * 1024) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            if (readFully(payload) < length) {
+                break;
+            }
+            CRC32 check = new CRC32();
+            check.update(payload.array());
+            if ((int) check.getValue() != crc) {
+                break;
+            }
+
+            Record record = decode(payload.array());
+            lastSeq = record.seq;
+            if (record.seq > committedSeq) {
+                pending.add(record);
+            }
+            goodPosition = channel.position();
+        }
+
+        if (goodPosition < channel.size()) {
+            System.err.println("\u26A0\uFE0F Truncating torn tap journal tail at byte " + goodPosition);
+            channel.truncate(goodPosition);
+        }
+        channel.position(goodPosition);
+        writtenPosition = goodPosition;
+        syncedPosition = goodPosition;
+        return lastSeq;
+    }
+
+    private int readFully(ByteBuffer target) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = channel.read(target);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Reads the last committed journal sequence from Oracle.
+     */
+    private long readCheckpoint() throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(READ_CHECKPOINT_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Stops the writer after it drains the buffer, then closes the journal file.
+     * Taps that could not be written remain in the journal for replay.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (writer != null) {
+                writer.join(10_000);
+            }
+            if (channel != null) {
+                channel.force(true);
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("\u274C Failed to close tap journal: " + e.getMessage());
+        }
+    }
+
+    // Metrics ──────────────────────────────────────────────────────────
+
+    /** @return Taps journaled since start. */
+    public long getAppendedCount() { return appended.get(); }
+
+    /** @return Taps committed to tap_events since start (excluding replay). */
+    public long getFlushedCount() { return flushed.get(); }
+
+    /** @return Batches committed to tap_events since start. */
+    public long getBatchCount() { return batches.get(); }
+
+    /** @return Failed batch attempts since start. */
+    public long getFailureCount() { return failures.get(); }
+
+    /** @return Taps waiting in memory for the writer. */
+    public int getPendingCount() { return buffer.size(); }
+
+    /**
+     * @return One-line summary of the journal metrics for logs.
+     */
+    public String describeMetrics() {
+        return String.format("journal=%s appended=%d flushed=%d batches=%d pending=%d failures=%d fsyncs=%d",
+                path, appended.get(), flushed.get(), batches.get(), buffer.size(), failures.get(), fsyncs.get());
+    }
+
+    // Record encoding ──────────────────────────────────────────────────
+
+    /**
+     * Frames a record as [length][crc32][payload].
+     */
+    private static ByteBuffer encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(record.seq);
+            out.writeUTF(record.hashedPan);
+            writeNullable(out, record.terminalId);
+            writeNullable(out, record.cryptogram);
+            out.writeLong(record.tapTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(record.tapTime.getNano());
+            out.writeBoolean(record.approved);
+            out.writeUTF(record.mode);
+        }
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return frame;
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            long seq = in.readLong();
+            String hashedPan = in.readUTF();
+            String terminalId = readNullable(in);
+            String cryptogram = readNullable(in);
+            LocalDateTime tapTime = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            boolean approved = in.readBoolean();
+            String mode = in.readUTF();
+            return new Record(seq, hashedPan, terminalId, cryptogram, tapTime, approved, mode);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * One journaled tap.
+     */
+    private static class Record {
+        final long seq;
+        final String hashedPan;
+        final String terminalId;
+        final String cryptogram;
+        final LocalDateTime tapTime;
+        final boolean approved;
+        final String mode;
+
+        Record(long seq, String hashedPan, String terminalId, String cryptogram,
+               LocalDateTime tapTime, boolean approved, String mode) {
+            this.seq = seq;
+            this.hashedPan = hashedPan;
+            this.terminalId = terminalId;
+            this.cryptogram = cryptogram;
+            this.tapTime = tapTime;
+            this.approved = approved;
+            this.mode = mode;
+        }
+
+        boolean isOpenEntry() {
+            return approved && "entry".equals(mode);
+        }
+
+        TapEvent toTapEvent() {
+            TapEvent tap = new TapEvent();
+            tap.setTerminalId(terminalId);
+            tap.setCryptogram(cryptogram);
+            tap.setTimestamp(tapTime);
+            tap.setMode(mode);
+            return tap;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.jonah.payment.network;
+
+/**
+ * AcquirerProfile is a simple POJO describing how the AcquirerStandInServer behaves:
+ * its latency distribution, slow tail, failure rates and decline rules.
+ * The defaults apply the same decline rules as VisaClientSimulator with a fixed 20 ms latency.
+ */
+public class AcquirerProfile {
+
+    /**
+     * Shape of the per-request latency.
+     */
+    public enum LatencyDistribution {
+        FIXED,      // Always latencyMs
+        UNIFORM,    // Uniform in latencyMs +/- latencyJitterMs
+        LOG_NORMAL  // Median latencyMs, shape latencySigma (long right tail, like real networks)
+    }
+
+    public LatencyDistribution latency = LatencyDistribution.FIXED; // Latency distribution
+    public double latencyMs = 20;               // Fixed latency, uniform mean or log-normal median
+    public double latencyJitterMs = 0;          // Half-width of the uniform distribution
+    public double latencySigma = 0.5;           // Log-normal shape parameter
+    public double tailRate = 0;                 // Share of requests delayed by tailLatencyMs instead
+    public long tailLatencyMs = 500;            // Latency of the slow tail
+    public double errorRate = 0;                // Share of requests answered with errorStatus
+    public int errorStatus = 503;               // Status returned for injected errors
+    public double resetRate = 0;                // Share of requests whose connection is closed without a response
+    public double declineRate = 0;              // Share of otherwise approved requests declined at random
+    public String avrDeclineSuffixes = "9";     // AVRs (amount 0) decline when the PAN ends in one of these digits
+    public String authorizationDeclineSuffixes = "8"; // Authorizations decline when the PAN ends in one of these digits
+    public double declineAmountAbove = 20.00;   // Authorizations above this amount decline
+
+    /**
+     * Default constructor: simulator decline rules, fixed 20 ms latency, no injected failures.
+     */
+    public AcquirerProfile() {
+    }
+
+    /**
+     * @param latencyMs Fixed latency in milliseconds.
+     * @return A profile answering every request after exactly latencyMs.
+     */
+    public static AcquirerProfile fixed(double latencyMs) {
+        AcquirerProfile profile = new AcquirerProfile();
+        profile.latencyMs = latencyMs;
+        return profile;
+    }
+
+    /**
+     * @param medianMs Median latency in milliseconds.
+     * @param sigma    Log-normal shape; 0.5 gives p99 of about 3.2x the median.
+     * @return A profile with log-normally distributed latency.
+     */
+    public static AcquirerProfile logNormal(double medianMs, double sigma) {
+        AcquirerProfile profile = new AcquirerProfile();
+        profile.latency = LatencyDistribution.LOG_NORMAL;
+        profile.latencyMs = medianMs;
+        profile.latencySigma = sigma;
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s latency=%.0fms jitter=%.0fms sigma=%.2f tail=%.1f%%@%dms errors=%.1f%%(%d) resets=%.1f%% declines=%.1f%%",
+                latency, latencyMs, latencyJitterMs, latencySigma, tailRate * 100, tailLatencyMs,
+                errorRate * 100, errorStatus, resetRate * 100, declineRate * 100);
+    }
+}
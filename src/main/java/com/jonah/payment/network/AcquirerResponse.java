@@ -0,0 +1,101 @@
+package com.jonah.payment.network;
+
+/**
+ * AcquirerResponse is the result of an asynchronous acquirer call: whether the
+ * request was approved, the HTTP status code returned, and how long the call took.
+ * ERROR means the acquirer gave no decision (timeout, transport failure, 5xx, open
+ * circuit); unlike DECLINED it says nothing about the card and must not denylist it.
+ */
+public class AcquirerResponse {
+
+    /**
+     * Outcome reported by the acquirer.
+     */
+    public enum Outcome {
+        APPROVED,
+        DECLINED,
+        ERROR
+    }
+
+    private final Outcome outcome;    // Approval decision
+    private final int statusCode;     // HTTP status code, or 0 if no response was received
+    private final long latencyNanos;  // Time from sending the request to receiving the response
+
+    /**
+     * Constructs a response.
+     *
+     * @param outcome      Approval decision.
+     * @param statusCode   HTTP status code, or 0 if no response was received.
+     * @param latencyNanos Time taken by the call in nanoseconds.
+     */
+    public AcquirerResponse(Outcome outcome, int statusCode, long latencyNanos) {
+        this.outcome = outcome;
+        this.statusCode = statusCode;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * Builds a response from an HTTP status code: 200 approves, 429 and 5xx are errors
+     * (the acquirer did not decide), anything else declines.
+     *
+     * @param statusCode HTTP status code returned by the acquirer.
+     * @param startNanos System.nanoTime() taken when the request was sent.
+     * @return The response.
+     */
+    public static AcquirerResponse fromStatus(int statusCode, long startNanos) {
+        Outcome outcome = statusCode == 200 ? Outcome.APPROVED
+                : statusCode == 429 || statusCode >= 500 ? Outcome.ERROR
+                : Outcome.DECLINED;
+        return new AcquirerResponse(outcome, statusCode, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Builds an error response for a call that produced no HTTP response.
+     *
+     * @param startNanos System.nanoTime() taken when the request was sent.
+     * @return The response.
+     */
+    public static AcquirerResponse error(long startNanos) {
+        return new AcquirerResponse(Outcome.ERROR, 0, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return Approval decision
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return HTTP status code, or 0 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return Time taken by the call in nanoseconds
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * @return true if the acquirer approved the request.
+     */
+    public boolean isApproved() {
+        return outcome == Outcome.APPROVED;
+    }
+
+    /**
+     * @return true if the acquirer gave no decision.
+     */
+    public boolean isError() {
+        return outcome == Outcome.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (HTTP %d, %.1f ms)", outcome, statusCode, latencyNanos / 1_000_000.0);
+    }
+}
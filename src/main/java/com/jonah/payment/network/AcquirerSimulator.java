@@ -2,14 +2,17 @@ package com.jonah.payment.network;
 
 import com.jonah.payment.data.PaymentRequest;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * AcquirerSimulator acts as a wrapper that delegates AVR and Authorization
  * requests to either a real VisaClient or a simulated VisaClientSimulator,
- * depending on the configuration.
+ * depending on the configuration. Both clients support blocking and non-blocking calls.
  */
 public class AcquirerSimulator {
 
-    private final VisaClientInterface visaClient; // The chosen Visa client instance (real or simulated)
+    private final AsyncVisaClientInterface visaClient; // The chosen Visa client instance (real or simulated)
 
     /**
      * Constructs the AcquirerSimulator with a flag determining whether to use a real Visa client
@@ -19,7 +22,28 @@ public class AcquirerSimulator {
      * @throws Exception if VisaClient instantiation fails due to SSL issues or configuration.
      */
     public AcquirerSimulator(boolean useRealVisaClient) throws Exception {
-        this.visaClient = useRealVisaClient ? new VisaClient() : new VisaClientSimulator();
+        this(useRealVisaClient, null);
+    }
+
+    /**
+     * Constructs the AcquirerSimulator, running the real client's HTTP calls on the given executor.
+     *
+     * @param useRealVisaClient If true, uses the real VisaClient; if false, uses VisaClientSimulator.
+     * @param httpExecutor      Executor for VisaClient's HttpClient, or null for the JDK default.
+     * @throws Exception if VisaClient instantiation fails due to SSL issues or configuration.
+     */
+    public AcquirerSimulator(boolean useRealVisaClient, Executor httpExecutor) throws Exception {
+        this(useRealVisaClient ? new VisaClient(httpExecutor) : new VisaClientSimulator());
+    }
+
+    /**
+     * Constructs the AcquirerSimulator around an already configured client
+     * (e.g. one wrapped in a ResilientVisaClient).
+     *
+     * @param visaClient The client to delegate to.
+     */
+    public AcquirerSimulator(AsyncVisaClientInterface visaClient) {
+        this.visaClient = visaClient;
     }
 
     /**
@@ -41,5 +65,24 @@ public class AcquirerSimulator {
     public boolean sendAuthorization(PaymentRequest request) {
         return visaClient.sendAuthorization(request);
     }
-}
 
+    /**
+     * Sends an AVR without blocking the calling thread.
+     *
+     * @param request The payment request containing card and terminal data.
+     * @return A future completed with the acquirer's response, including status code and latency.
+     */
+    public CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest request) {
+        return visaClient.sendAVRAsync(request);
+    }
+
+    /**
+     * Sends a payment authorization without blocking the calling thread.
+     *
+     * @param request The payment request with fare and card data.
+     * @return A future completed with the acquirer's response, including status code and latency.
+     */
+    public CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest request) {
+        return visaClient.sendAuthorizationAsync(request);
+    }
+}
@@ -0,0 +1,258 @@
+package com.jonah.payment.network;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AcquirerStandInServer is a local HTTPS server speaking the same JSON contract as the Visa
+ * authorization endpoint, so the real VisaClient (TLS, HTTP and JSON path included) can be
+ * load tested with no external network.
+ *
+ * Clients must present a certificate signed by a CA in the server's SSLContext (mutual TLS);
+ * both sides load their PEM files through VisaSSLContextLoader. Each request body is validated
+ * against the fields VisaRequestSerializer writes, then answered according to the current
+ * AcquirerProfile: 200 approves, 402 declines, errorStatus for injected errors, 400 for a
+ * malformed body and 401 without credentials. Latency is applied by scheduling the response,
+ * so slow answers do not hold a handler thread. The profile can be swapped while running.
+ */
+public class AcquirerStandInServer implements AutoCloseable {
+
+    public static final String PATH = "/acs/v3/payments/authorizations/v3/voids"; // Same path as the Visa sandbox endpoint
+    private static final int DECLINED_STATUS = 402;   // Same decline status as VisaClientSimulator
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        // The JDK server leaves Nagle's algorithm on, which adds a ~40 ms delayed-ACK stall to
+        // small responses on a kept-alive connection. It reads the flag once, at first use.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpsServer server;                 // JDK HTTPS server (HTTP/1.1)
+    private final ScheduledExecutorService executor;  // Handles requests and sends delayed responses
+    private volatile AcquirerProfile profile;         // Current behavior; may be replaced at any time
+
+    // Metrics
+    private final AtomicLong received = new AtomicLong();   // Requests read
+    private final AtomicLong approved = new AtomicLong();   // 200 responses
+    private final AtomicLong declined = new AtomicLong();   // 402 responses
+    private final AtomicLong errors = new AtomicLong();     // Injected error responses
+    private final AtomicLong resets = new AtomicLong();     // Connections closed without a response
+    private final AtomicLong malformed = new AtomicLong();  // 400 and 401 responses
+
+    /**
+     * Creates the server; call start() to accept connections.
+     *
+     * @param port       Port to listen on, or 0 for any free port.
+     * @param sslContext Server identity and the CAs trusted to sign client certificates.
+     * @param profile    Initial behavior.
+     * @param threads    Threads handling requests and delayed responses.
+     * @throws IOException if the port cannot be bound.
+     */
+    public AcquirerStandInServer(int port, SSLContext sslContext, AcquirerProfile profile, int threads) throws IOException {
+        this.profile = profile;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "acquirer-stand-in-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.server = HttpsServer.create(new InetSocketAddress("localhost", port), 1024);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
+            @Override
+            public void configure(HttpsParameters params) {
+                SSLParameters parameters = getSSLContext().getDefaultSSLParameters();
+                parameters.setNeedClientAuth(true);
+                params.setSSLParameters(parameters);
+            }
+        });
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        server.start();
+        System.out.println("\uD83D\uDFE2 Acquirer stand-in listening on " + getEndpoint() + " (" + profile + ")");
+    }
+
+    /**
+     * @return The authorization endpoint URL to give VisaClient.
+     */
+    public URI getEndpoint() {
+        return URI.create("https://localhost:" + server.getAddress().getPort() + PATH);
+    }
+
+    /**
+     * Replaces the behavior for requests received from now on.
+     *
+     * @param profile The new profile.
+     */
+    public void setProfile(AcquirerProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Reads, validates and answers one authorization or AVR request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        received.incrementAndGet();
+        AcquirerProfile p = profile;
+        JsonNode body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = MAPPER.readTree(in);
+        } catch (IOException e) {
+            body = null;
+        }
+
+        if (!"POST".equals(exchange.getRequestMethod()) || exchange.getRequestHeaders().getFirst("Authorization") == null) {
+            malformed.incrementAndGet();
+            respond(exchange, 401, "{\"error\":\"unauthorized\"}");
+            return;
+        }
+        String invalid = validate(body);
+        if (invalid != null) {
+            malformed.incrementAndGet();
+            respond(exchange, 400, "{\"error\":\"" + invalid + "\"}");
+            return;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < p.resetRate) {
+            resets.incrementAndGet();
+            exchange.close(); // Like a dropped connection: the client sees an I/O error
+            return;
+        }
+
+        int status;
+        if (random.nextDouble() < p.errorRate) {
+            status = p.errorStatus;
+            errors.incrementAndGet();
+        } else if (isDeclined(p, body) || random.nextDouble() < p.declineRate) {
+            status = DECLINED_STATUS;
+            declined.incrementAndGet();
+        } else {
+            status = 200;
+            approved.incrementAndGet();
+        }
+
+        String response = status == 200 ? "{\"actionCode\":\"00\",\"approvalCode\":\"STANDIN\"}"
+                : status == DECLINED_STATUS ? "{\"actionCode\":\"05\"}"
+                : "{\"error\":\"acquirer unavailable\"}";
+        long delayMicros = latencyMicros(p, random);
+        executor.schedule(() -> {
+            try {
+                respond(exchange, status, response);
+            } catch (IOException e) {
+                // The client gave up (timeout or hedged request already answered)
+            }
+        }, delayMicros, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Checks the body has the fields VisaRequestSerializer writes.
+     *
+     * @return The first problem found, or null if the body is valid.
+     */
+    private static String validate(JsonNode body) {
+        if (body == null || !body.isObject()) {
+            return "body is not a JSON object";
+        }
+        for (String field : new String[] {"primaryAccountNumber", "amount", "currencyCode", "retrievalReferenceNumber"}) {
+            if (!body.path(field).isTextual()) {
+                return field + " missing";
+            }
+        }
+        if (!body.path("systemTraceAuditNumber").isNumber()) {
+            return "systemTraceAuditNumber missing";
+        }
+        JsonNode emv = body.path("emv");
+        if (!emv.path("applicationIdentifier").isTextual() || !emv.path("applicationCryptogram").isTextual()) {
+            return "emv incomplete";
+        }
+        try {
+            Double.parseDouble(body.get("amount").asText());
+        } catch (NumberFormatException e) {
+            return "amount is not a number";
+        }
+        return null;
+    }
+
+    /**
+     * Applies the profile's decline rules: AVRs (amount 0) by PAN suffix, authorizations
+     * by PAN suffix or amount.
+     */
+    private static boolean isDeclined(AcquirerProfile p, JsonNode body) {
+        String pan = body.get("primaryAccountNumber").asText();
+        double amount = Double.parseDouble(body.get("amount").asText());
+        String last = pan.isEmpty() ? "" : pan.substring(pan.length() - 1);
+        if (amount == 0) {
+            return !last.isEmpty() && p.avrDeclineSuffixes.contains(last);
+        }
+        return amount > p.declineAmountAbove || (!last.isEmpty() && p.authorizationDeclineSuffixes.contains(last));
+    }
+
+    /**
+     * Draws one latency sample from the profile.
+     */
+    private static long latencyMicros(AcquirerProfile p, ThreadLocalRandom random) {
+        if (random.nextDouble() < p.tailRate) {
+            return p.tailLatencyMs * 1_000;
+        }
+        double ms = switch (p.latency) {
+            case FIXED -> p.latencyMs;
+            case UNIFORM -> p.latencyMs + (random.nextDouble() * 2 - 1) * p.latencyJitterMs;
+            case LOG_NORMAL -> p.latencyMs * Math.exp(p.latencySigma * random.nextGaussian());
+        };
+        return Math.max(0, (long) (ms * 1_000));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return A one-line summary of the server metrics.
+     */
+    public String describeMetrics() {
+        return String.format("acquirer-stand-in received=%d approved=%d declined=%d errors=%d resets=%d malformed=%d",
+                received.get(), approved.get(), declined.get(), errors.get(), resets.get(), malformed.get());
+    }
+
+    /**
+     * Stops the server, dropping requests still waiting for their latency.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
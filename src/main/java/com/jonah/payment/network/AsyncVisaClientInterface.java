@@ -0,0 +1,40 @@
+package com.jonah.payment.network;
+
+import com.jonah.payment.data.PaymentRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AsyncVisaClientInterface is the non-blocking variant of VisaClientInterface.
+ * Calls return immediately with a future completed when the acquirer answers, so
+ * no thread is held while a request is in flight. The blocking methods wait on
+ * the same futures.
+ */
+public interface AsyncVisaClientInterface extends VisaClientInterface {
+
+    /**
+     * Sends an Account Verification Request (AVR) without blocking.
+     *
+     * @param request The payment request to verify.
+     * @return A future completed with the acquirer's response; it does not complete exceptionally.
+     */
+    CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest request);
+
+    /**
+     * Sends an authorization request without blocking.
+     *
+     * @param request The payment request to authorize.
+     * @return A future completed with the acquirer's response; it does not complete exceptionally.
+     */
+    CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest request);
+
+    @Override
+    default boolean sendAVR(PaymentRequest request) {
+        return sendAVRAsync(request).join().isApproved();
+    }
+
+    @Override
+    default boolean sendAuthorization(PaymentRequest request) {
+        return sendAuthorizationAsync(request).join().isApproved();
+    }
+}
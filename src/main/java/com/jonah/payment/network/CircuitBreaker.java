@@ -0,0 +1,112 @@
+package com.jonah.payment.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CircuitBreaker stops calls to a failing dependency so that taps fail fast instead
+ * of each waiting out a deadline.
+ *
+ * CLOSED: calls pass; consecutive failures are counted and reaching the threshold opens the circuit.
+ * OPEN: calls are rejected until the open period has elapsed, then the circuit turns HALF_OPEN.
+ * HALF_OPEN: a single probe call is let through; success closes the circuit, failure reopens it.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Breaker state.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;   // Consecutive failures that open the circuit
+    private final long openNanos;         // Time the circuit stays open before probing
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;      // Failures since the last success
+    private long openedAt;                // System.nanoTime() when the circuit last opened
+    private boolean probeInFlight;        // Whether the half-open probe has been let through
+
+    // Metrics
+    private final AtomicLong opened = new AtomicLong();     // Times the circuit opened
+    private final AtomicLong rejected = new AtomicLong();   // Calls rejected without being sent
+
+    /**
+     * Constructs a closed breaker.
+     *
+     * @param failureThreshold Consecutive failures that open the circuit.
+     * @param openMs           Time in milliseconds the circuit stays open before a probe is allowed.
+     */
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMs * 1_000_000;
+    }
+
+    /**
+     * Asks to make a call. Every permitted call must be followed by onSuccess or onFailure.
+     *
+     * @return true if the call may be sent, false if it must fail fast.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            // The open period has elapsed: this caller becomes the probe.
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+
+        // HALF_OPEN: only one probe at a time.
+        if (probeInFlight) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        probeInFlight = true;
+        return true;
+    }
+
+    /**
+     * Records a call that reached the dependency and got an answer.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+        probeInFlight = false;
+    }
+
+    /**
+     * Records a failed call (timeout, transport error, 5xx).
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                opened.incrementAndGet();
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * @return Current state; an OPEN circuit whose period has elapsed reports OPEN until the next call.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return A one-line summary of the breaker state and counters.
+     */
+    public String describeMetrics() {
+        return String.format("circuit state=%s opened=%d rejected=%d", getState(), opened.get(), rejected.get());
+    }
+}
@@ -0,0 +1,24 @@
+package com.jonah.payment.network;
+
+/**
+ * ResilienceOptions is a simple POJO configuring the ResilientVisaClient:
+ * deadlines, retries, circuit breaking and hedging of acquirer calls.
+ * Retries and hedging apply to AVRs only; authorizations are never resent.
+ */
+public class ResilienceOptions {
+
+    public long deadlineMs = 2_000;          // Total time a tap may wait for the acquirer, retries included
+    public long attemptTimeoutMs = 800;      // Time a single attempt may take before it counts as failed
+    public int maxRetries = 1;               // Extra AVR attempts after a failed (ERROR) attempt; declines are never retried
+    public long retryBackoffMs = 50;         // Delay before the first retry, doubled for each further retry
+    public int breakerFailureThreshold = 5;  // Consecutive failed attempts that open the circuit
+    public long breakerOpenMs = 10_000;      // Time the circuit stays open before a probe call
+    public double hedgePercentile = 0.95;    // Send a second AVR once an attempt is slower than this percentile; 0 disables
+    public int hedgeMinSamples = 100;        // Latency samples needed before hedging starts
+
+    /**
+     * Default constructor: 2 s deadline, one retry, breaker after 5 failures, p95 hedging.
+     */
+    public ResilienceOptions() {
+    }
+}
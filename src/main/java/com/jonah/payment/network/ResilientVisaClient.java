@@ -0,0 +1,256 @@
+package com.jonah.payment.network;
+
+import com.jonah.payment.data.PaymentRequest;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * ResilientVisaClient wraps another client so that a slow or failing acquirer
+ * costs a tap a bounded amount of time and is reported as ERROR, never as a decline.
+ *
+ * Each call gets an overall deadline, and calls fail immediately while the circuit
+ * breaker is open. Within the deadline, an AVR attempt that fails (no response,
+ * attempt timeout, 429/5xx) is retried a bounded number of times with backoff, and
+ * when it runs longer than a recent latency percentile, a hedged duplicate is sent
+ * and the first answer wins.
+ *
+ * Authorizations are sent exactly once: every request carries the same retrieval
+ * reference number, so the acquirer cannot tell a duplicate from a new charge, and a
+ * resend after a lost approval would charge the rider twice. A timed-out authorization
+ * is reported as ERROR, meaning its outcome is unknown, not that it was declined.
+ */
+public class ResilientVisaClient implements AsyncVisaClientInterface, AutoCloseable {
+
+    private final AsyncVisaClientInterface delegate;   // Client doing the actual calls
+    private final ResilienceOptions options;           // Deadlines, retry, breaker and hedging settings
+    private final CircuitBreaker breaker;              // Fails calls fast while the acquirer is down
+    private final LatencyWindow latencies;             // Recent successful attempt latencies for hedging
+    private final ScheduledExecutorService timer;      // Fires deadlines, retry backoffs and hedges
+
+    // Metrics
+    private final AtomicLong calls = new AtomicLong();        // Calls made through this client
+    private final AtomicLong errors = new AtomicLong();       // Calls that ended without a decision
+    private final AtomicLong deadlines = new AtomicLong();    // Calls ended by the overall deadline
+    private final AtomicLong retries = new AtomicLong();      // Retry attempts sent
+    private final AtomicLong hedges = new AtomicLong();       // Hedged duplicates sent
+    private final AtomicLong hedgeWins = new AtomicLong();    // Hedged duplicates that answered first
+
+    /**
+     * Wraps a client.
+     *
+     * @param delegate Client sending the requests (real or simulated).
+     * @param options  Deadline, retry, breaker and hedging settings.
+     */
+    public ResilientVisaClient(AsyncVisaClientInterface delegate, ResilienceOptions options) {
+        this.delegate = delegate;
+        this.options = options;
+        this.breaker = new CircuitBreaker(options.breakerFailureThreshold, options.breakerOpenMs);
+        this.latencies = new LatencyWindow(1024);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "acquirer-resilience");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest request) {
+        return execute(() -> delegate.sendAVRAsync(request), true);
+    }
+
+    @Override
+    public CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest request) {
+        return execute(() -> delegate.sendAuthorizationAsync(request), false);
+    }
+
+    /**
+     * Runs a call under the overall deadline, with retries and hedging if it can safely be resent.
+     */
+    private CompletableFuture<AcquirerResponse> execute(Supplier<CompletableFuture<AcquirerResponse>> call, boolean resendable) {
+        calls.incrementAndGet();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(options.deadlineMs);
+        CompletableFuture<AcquirerResponse> result = new CompletableFuture<>();
+
+        timer.schedule(() -> {
+            if (result.complete(AcquirerResponse.error(start))) {
+                deadlines.incrementAndGet();
+            }
+        }, options.deadlineMs, TimeUnit.MILLISECONDS);
+
+        attempt(call, resendable, 0, start, deadline, result);
+        return result.thenApply(response -> {
+            if (response.isError()) {
+                errors.incrementAndGet();
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Sends one attempt (hedged if resendable) and decides whether to retry on failure.
+     */
+    private void attempt(Supplier<CompletableFuture<AcquirerResponse>> call, boolean resendable, int attempt, long start,
+                         long deadline, CompletableFuture<AcquirerResponse> result) {
+        if (result.isDone()) {
+            return;
+        }
+        if (!breaker.tryAcquire()) {
+            result.complete(AcquirerResponse.error(start));
+            return;
+        }
+
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        hedgedAttempt(call, resendable, Math.min(options.attemptTimeoutMs, remainingMs)).thenAccept(response -> {
+            if (!response.isError()) {
+                breaker.onSuccess();
+                latencies.record(response.getLatencyNanos());
+                result.complete(new AcquirerResponse(response.getOutcome(), response.getStatusCode(), System.nanoTime() - start));
+                return;
+            }
+
+            breaker.onFailure();
+            long backoffMs = options.retryBackoffMs << attempt;
+            if (resendable && attempt < options.maxRetries && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs) < deadline) {
+                retries.incrementAndGet();
+                timer.schedule(() -> attempt(call, true, attempt + 1, start, deadline, result), backoffMs, TimeUnit.MILLISECONDS);
+            } else {
+                result.complete(new AcquirerResponse(AcquirerResponse.Outcome.ERROR, response.getStatusCode(), System.nanoTime() - start));
+            }
+        });
+    }
+
+    /**
+     * Sends a request and, if resendable and still pending after the hedge delay, a duplicate.
+     * Completes with the first non-error answer, or with ERROR once every request sent
+     * has failed or the attempt timeout has passed.
+     */
+    private CompletableFuture<AcquirerResponse> hedgedAttempt(Supplier<CompletableFuture<AcquirerResponse>> call,
+                                                              boolean resendable, long timeoutMs) {
+        long start = System.nanoTime();
+        CompletableFuture<AcquirerResponse> first = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger();
+
+        send(call, first, outstanding, start, false);
+
+        long hedgeDelayMs = resendable ? hedgeDelayMs() : -1;
+        if (hedgeDelayMs >= 0 && hedgeDelayMs < timeoutMs) {
+            timer.schedule(() -> {
+                if (!first.isDone() && breaker.getState() == CircuitBreaker.State.CLOSED) {
+                    hedges.incrementAndGet();
+                    send(call, first, outstanding, start, true);
+                }
+            }, hedgeDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        timer.schedule(() -> first.complete(AcquirerResponse.error(start)), Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+        return first;
+    }
+
+    /**
+     * Sends one request, completing the attempt with its answer, or with its error if it
+     * was the last request outstanding.
+     */
+    private void send(Supplier<CompletableFuture<AcquirerResponse>> call, CompletableFuture<AcquirerResponse> first,
+                      AtomicInteger outstanding, long start, boolean hedge) {
+        outstanding.incrementAndGet();
+        CompletableFuture<AcquirerResponse> sent;
+        try {
+            sent = call.get();
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.completedFuture(AcquirerResponse.error(start));
+        }
+        sent.whenComplete((response, e) -> {
+            AcquirerResponse answer = e == null ? response : AcquirerResponse.error(start);
+            if (!answer.isError()) {
+                if (first.complete(answer) && hedge) {
+                    hedgeWins.incrementAndGet();
+                }
+            } else if (outstanding.decrementAndGet() == 0) {
+                first.complete(answer);
+            }
+        });
+    }
+
+    /**
+     * @return Delay after which an attempt is hedged, or -1 if hedging is off or not yet calibrated.
+     */
+    private long hedgeDelayMs() {
+        if (options.hedgePercentile <= 0 || latencies.count() < Math.max(1, options.hedgeMinSamples)) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(latencies.percentile(options.hedgePercentile));
+    }
+
+    /**
+     * @return State of the circuit breaker.
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+
+    /**
+     * @return A one-line summary of call outcomes, retries, hedging and the breaker.
+     */
+    public String describeMetrics() {
+        long hedgeDelay = hedgeDelayMs();
+        return String.format("acquirer calls=%d errors=%d deadlines=%d retries=%d hedges=%d hedgeWins=%d hedgeDelayMs=%s %s",
+                calls.get(), errors.get(), deadlines.get(), retries.get(), hedges.get(), hedgeWins.get(),
+                hedgeDelay < 0 ? "off" : Long.toString(hedgeDelay), breaker.describeMetrics());
+    }
+
+    /**
+     * Stops the timer; pending calls are left to their underlying futures.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Sliding window of the most recent latencies. The percentile is recomputed
+     * at most once per RECOMPUTE_EVERY samples, so hedging decisions cost O(1).
+     */
+    private static final class LatencyWindow {
+        private static final int RECOMPUTE_EVERY = 64;
+
+        private final long[] samples;
+        private final long[] sorted;
+        private long count;
+        private long computedAt = -1;
+        private double computedFor;
+        private long cached;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+            this.sorted = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % samples.length)] = nanos;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized long percentile(double p) {
+            if (computedAt < 0 || count - computedAt >= RECOMPUTE_EVERY || p != computedFor) {
+                int n = (int) Math.min(count, samples.length);
+                System.arraycopy(samples, 0, sorted, 0, n);
+                Arrays.sort(sorted, 0, n);
+                cached = sorted[Math.min(n - 1, (int) Math.ceil(p * n) - 1)];
+                computedAt = count;
+                computedFor = p;
+            }
+            return cached;
+        }
+    }
+}
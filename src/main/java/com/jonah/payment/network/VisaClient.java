@@ -1,9 +1,6 @@
 package com.jonah.payment.network;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.jonah.payment.core.VisaSSLContextLoader;
-import com.jonah.payment.data.CardData;
+import com.jonah.payment.core.ManagedSSLContext;
 import com.jonah.payment.data.PaymentRequest;
 
 import javax.net.ssl.SSLContext;
@@ -11,101 +8,148 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
- * VisaClient implements the VisaClientInterface to send real payment requests
+ * VisaClient implements the AsyncVisaClientInterface to send real payment requests
  * to VisaNet using mutual TLS and the Visa API endpoints.
+ *
+ * Requests are sent with HttpClient.sendAsync over one HTTP/2 client, so concurrent
+ * taps share a multiplexed connection and no thread waits for Visa to answer.
+ * Bodies are streamed by VisaRequestSerializer into pooled buffers and copied out before
+ * sending, since the HttpClient may still read (or resend) a body after the exchange
+ * completes; payloads are only printed when payload logging is enabled, since they contain the PAN.
  */
-public class VisaClient implements VisaClientInterface {
+public class VisaClient implements AsyncVisaClientInterface {
 
-  private final HttpClient client; // The HTTP client used to communicate with Visa API
-  private final ObjectMapper mapper = new ObjectMapper(); // JSON mapper for request bodies
+  private static final String VISA_URL = "https://sandbox.api.visa.com/acs/v3/payments/authorizations/v3/voids"; // Visa API endpoint
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5); // TLS connection setup limit
+
+  private final HttpClient client; // Shared HTTP/2 client used for every call to the Visa API
+  private final VisaRequestSerializer serializer = new VisaRequestSerializer(); // Streaming JSON body writer
   private final String apiKey; // API key for authentication
   private final String apiSecret; // API secret for authentication
-  private final String visaUrl; // Visa API endpoint
+  private final URI visaUri; // Parsed endpoint, reused for every request
+  private final String authorization; // Basic authorization header value, built once
+  private final boolean logPayloads; // Print request and response bodies (debug only)
 
   /**
    * Initializes the VisaClient by configuring TLS, authentication credentials,
    * and the target Visa endpoint URL.
    */
   public VisaClient() throws Exception {
-    this.apiKey = "Stub";    // Replace with your actual sandbox API key
-    this.apiSecret = "Stub";  // Replace with your actual sandbox API secret
+    this(null);
+  }
+
+  /**
+   * Initializes the VisaClient, issuing HTTP calls through the given executor
+   * (e.g. a virtual-thread executor) instead of the HttpClient default.
+   *
+   * @param httpExecutor Executor for HttpClient work, or null for the JDK default.
+   */
+  public VisaClient(Executor httpExecutor) throws Exception {
+    this(httpExecutor, false);
+  }
 
-    this.visaUrl = "https://sandbox.api.visa.com/acs/v3/payments/authorizations/v3/voids";
+  /**
+   * Initializes the VisaClient with optional logging of request and response bodies.
+   *
+   * @param httpExecutor Executor for HttpClient work, or null for the JDK default.
+   * @param logPayloads  If true, prints every request and response body (debug only).
+   */
+  public VisaClient(Executor httpExecutor, boolean logPayloads) throws Exception {
+    // Share one mutual TLS context (and its session cache) across every VisaClient
+    this(httpExecutor, logPayloads, URI.create(VISA_URL), sharedTlsContext().getSSLContext());
+  }
 
-    // Load mutual TLS context using the provided certificate and key
-    SSLContext sslContext = VisaSSLContextLoader.loadSSLContext(
+  /**
+   * Returns the mutual TLS context for the Visa client certificate, loaded once per JVM and
+   * shared by every VisaClient so reconnects can resume cached TLS sessions.
+   *
+   * @return The shared context.
+   * @throws Exception If the certificate or key cannot be loaded.
+   */
+  public static ManagedSSLContext sharedTlsContext() throws Exception {
+    return ManagedSSLContext.shared(
             "visa/cert.pem", // Path to client certificate
             "visa/secret_key.pem", // Path to private key
             new String[] {
                     "visa/SBX-2024-Prod-Inter.pem",
                     "visa/SBX-2024-Prod-Root.pem"
-            }
+            },
+            false
     );
-
-    // Configure HTTP client to use SSL context
-    this.client = HttpClient.newBuilder()
-            .sslContext(sslContext)
-            .build();
   }
 
   /**
-   * Builds a properly structured JSON request compatible with Visa's API
-   * from a PaymentRequest object.
+   * Initializes the VisaClient against another endpoint speaking the Visa contract,
+   * such as the local AcquirerStandInServer used for offline load tests.
+   *
+   * @param httpExecutor Executor for HttpClient work, or null for the JDK default.
+   * @param logPayloads  If true, prints every request and response body (debug only).
+   * @param endpoint     Authorization endpoint URL.
+   * @param sslContext   Mutual TLS context holding the client identity and trusted CAs.
    */
-  private String buildVisaRequest(PaymentRequest req) throws Exception {
-    CardData card = req.getCardData();
-    ObjectNode root = mapper.createObjectNode();
-
-    // Add required transaction fields
-    root.put("primaryAccountNumber", card.getPan());
-    root.put("amount", String.format("%.2f", req.getAmount()));
-    root.put("currencyCode", "392"); // Example: JPY. Adjust as needed.
-    root.put("retrievalReferenceNumber", "123456789012");
-    root.put("systemTraceAuditNumber", 123456);
-
-    // Add EMV fields
-    ObjectNode emv = mapper.createObjectNode();
-    emv.put("applicationIdentifier", card.getAid());
-    emv.put("applicationCryptogram", card.getCryptogram());
+  public VisaClient(Executor httpExecutor, boolean logPayloads, URI endpoint, SSLContext sslContext) {
+    this.logPayloads = logPayloads;
+    this.apiKey = "Stub";    // Replace with your actual sandbox API key
+    this.apiSecret = "Stub";  // Replace with your actual sandbox API secret
 
-    root.set("emv", emv);
+    this.visaUri = endpoint;
+    this.authorization = "Basic " + base64Credentials();
 
-    return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+    // Configure HTTP client to use SSL context
+    HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .sslContext(sslContext);
+    if (httpExecutor != null) {
+      builder.executor(httpExecutor);
+    }
+    this.client = builder.build();
   }
 
   /**
-   * Sends an actual authorization request to Visa using HTTPS and mutual TLS.
+   * Sends an actual authorization request to Visa using HTTPS and mutual TLS, without blocking.
+   * Any failure (request building, connection, TLS) completes the future with ERROR.
    *
    * @param req The payment request to be authorized.
-   * @return true if the request was approved (HTTP 200), false otherwise.
+   * @return A future completed with APPROVED for HTTP 200, ERROR for failures, 429 and 5xx, DECLINED otherwise.
    */
   @Override
-  public boolean sendAuthorization(PaymentRequest req) {
+  public CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest req) {
+    long start = System.nanoTime();
     try {
-      String json = buildVisaRequest(req);
+      // Owned copy of the body; the pooled buffer is cleared and released before sending
+      byte[] body = serializer.serialize(req);
 
-      System.out.println("\u27A1\uFE0F Request to Visa:\n" + json);
+      if (logPayloads) {
+        System.out.println("\u27A1\uFE0F Request to Visa:\n" + new String(body, StandardCharsets.UTF_8));
+      }
 
       HttpRequest httpRequest = HttpRequest.newBuilder()
-              .uri(URI.create(visaUrl))
+              .uri(visaUri)
               .header("Content-Type", "application/json")
-              .header("Authorization", "Basic " + base64Credentials())
-              .POST(HttpRequest.BodyPublishers.ofString(json))
+              .header("Authorization", authorization)
+              .POST(HttpRequest.BodyPublishers.ofByteArray(body))
               .build();
 
-      HttpResponse<String> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
-      System.out.println("\u2B05\uFE0F Visa response code: " + response.statusCode());
-      System.out.println("\u2B05\uFE0F Visa response body:\n" + response.body());
-
-      return response.statusCode() == 200;
+      return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
+              .thenApply(response -> {
+                if (logPayloads) {
+                  System.out.println("\u2B05\uFE0F Visa response code: " + response.statusCode());
+                  System.out.println("\u2B05\uFE0F Visa response body:\n" + response.body());
+                }
+                return AcquirerResponse.fromStatus(response.statusCode(), start);
+              })
+              .exceptionally(e -> failed(e, start));
 
     } catch (Exception e) {
-      System.err.println("VisaClient error: " + e.getMessage());
-      return false;
+      return CompletableFuture.completedFuture(failed(e, start));
     }
   }
 
@@ -113,12 +157,20 @@ public class VisaClient implements VisaClientInterface {
    * Sends an AVR request, reusing the same authorization call but setting amount to 0.
    *
    * @param req The payment request to verify.
-   * @return true if approved by Visa, false otherwise.
+   * @return A future completed with Visa's response.
    */
   @Override
-  public boolean sendAVR(PaymentRequest req) {
+  public CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest req) {
     req.setAmount(0.00);
-    return sendAuthorization(req);
+    return sendAuthorizationAsync(req);
+  }
+
+  /**
+   * Logs a failed call and reports it as an error with no status code.
+   */
+  private static AcquirerResponse failed(Throwable e, long start) {
+    System.err.println("VisaClient error: " + e.getMessage());
+    return AcquirerResponse.error(start);
   }
 
   /**
@@ -2,12 +2,17 @@ package com.jonah.payment.network;
 
 import com.jonah.payment.data.PaymentRequest;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
- * VisaClientSimulator is a mock implementation of the VisaClientInterface.
+ * VisaClientSimulator is a mock implementation of the AsyncVisaClientInterface.
  * It simulates the behavior of a real VisaNet integration for local testing and development.
  * It does not perform any network operations and uses deterministic rules for success/failure.
+ * Async calls complete immediately with HTTP 200 for approvals and 402 for declines.
  */
-public class VisaClientSimulator implements VisaClientInterface {
+public class VisaClientSimulator implements AsyncVisaClientInterface {
+
+    private static final int DECLINED_STATUS = 402; // Status code reported for simulated declines
 
     /**
      * Simulates an Account Verification Request (AVR) authorization.
@@ -31,6 +36,19 @@ public class VisaClientSimulator implements VisaClientInterface {
         return true;
     }
 
+    /**
+     * Simulates an AVR, completing at once with the decision of sendAVR.
+     *
+     * @param request The incoming payment request object.
+     * @return A completed future with the simulated response.
+     */
+    @Override
+    public CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest request) {
+        long start = System.nanoTime();
+        int status = sendAVR(request) ? 200 : DECLINED_STATUS;
+        return CompletableFuture.completedFuture(AcquirerResponse.fromStatus(status, start));
+    }
+
     /**
      * Simulates a transaction authorization after fare calculation.
      *
@@ -53,5 +71,17 @@ public class VisaClientSimulator implements VisaClientInterface {
         System.out.printf("\u2705 [SIM] Authorization approved: PAN=%s | Amount=%.2f%n", pan, amount);
         return true;
     }
-}
 
+    /**
+     * Simulates an authorization, completing at once with the decision of sendAuthorization.
+     *
+     * @param request The payment request containing amount and PAN.
+     * @return A completed future with the simulated response.
+     */
+    @Override
+    public CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest request) {
+        long start = System.nanoTime();
+        int status = sendAuthorization(request) ? 200 : DECLINED_STATUS;
+        return CompletableFuture.completedFuture(AcquirerResponse.fromStatus(status, start));
+    }
+}
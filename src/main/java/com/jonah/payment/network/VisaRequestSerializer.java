@@ -0,0 +1,225 @@
+package com.jonah.payment.network;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.jonah.payment.data.CardData;
+import com.jonah.payment.data.PaymentRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * VisaRequestSerializer writes the Visa authorization payload with a streaming
+ * JsonGenerator into a pooled reusable buffer, instead of building an ObjectNode
+ * tree and pretty-printing it to a String.
+ *
+ * Field names and the constant fields are pre-encoded once, and the amount is
+ * formatted without String.format, so serializing allocates little beyond the
+ * generator. A Body stays out of the pool until the caller releases it, which
+ * clears it so no PAN is left in pooled memory; serialize returns an owned copy for
+ * callers (like the HTTP client) that may read the body after that.
+ */
+public class VisaRequestSerializer {
+
+    // Pre-encoded field names
+    private static final SerializableString PRIMARY_ACCOUNT_NUMBER = new SerializedString("primaryAccountNumber");
+    private static final SerializableString AMOUNT = new SerializedString("amount");
+    private static final SerializableString CURRENCY_CODE = new SerializedString("currencyCode");
+    private static final SerializableString RETRIEVAL_REFERENCE_NUMBER = new SerializedString("retrievalReferenceNumber");
+    private static final SerializableString SYSTEM_TRACE_AUDIT_NUMBER = new SerializedString("systemTraceAuditNumber");
+    private static final SerializableString EMV = new SerializedString("emv");
+    private static final SerializableString APPLICATION_IDENTIFIER = new SerializedString("applicationIdentifier");
+    private static final SerializableString APPLICATION_CRYPTOGRAM = new SerializedString("applicationCryptogram");
+
+    // Below this, a value with at most two decimals is the shortest form of its double, so whole cents format directly.
+    private static final double MAX_EXACT_AMOUNT = 1e13;
+
+    // Pre-encoded constant values
+    private static final SerializableString CURRENCY_CODE_VALUE = new SerializedString("392"); // Example: JPY. Adjust as needed.
+    private static final SerializableString RETRIEVAL_REFERENCE_NUMBER_VALUE = new SerializedString("123456789012");
+    private static final int SYSTEM_TRACE_AUDIT_NUMBER_VALUE = 123456;
+
+    // Compact (non-pretty) writer; only its factory settings are used to create generators.
+    private static final ObjectWriter WRITER = new ObjectMapper().writer();
+
+    // Maximum number of idle body buffers kept for reuse.
+    private static final int BUFFER_POOL_SIZE = 64;
+
+    // Buffers grow once to the payload size; each is used by one request at a time.
+    private static final BlockingQueue<Body> BUFFERS = new ArrayBlockingQueue<>(BUFFER_POOL_SIZE);
+
+    /**
+     * Serializes the authorization payload for a payment request into a new array.
+     *
+     * @param req The payment request.
+     * @return UTF-8 JSON body, sized exactly.
+     * @throws IOException if the generator fails.
+     */
+    public byte[] serialize(PaymentRequest req) throws IOException {
+        Body body = serializeBody(req);
+        try {
+            return Arrays.copyOf(body.array(), body.length());
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Serializes the authorization payload for a payment request into a pooled buffer.
+     * The caller must release the body once nothing reads it any more.
+     *
+     * @param req The payment request.
+     * @return UTF-8 JSON body, held in the first length() bytes of array().
+     * @throws IOException if the generator fails.
+     */
+    public Body serializeBody(PaymentRequest req) throws IOException {
+        // Borrow a pooled buffer, or create one
+        Body buffer = BUFFERS.poll();
+        if (buffer == null) {
+            buffer = new Body();
+        }
+        buffer.reset();
+
+        try {
+            write(req, buffer);
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        return buffer;
+    }
+
+    private static void write(PaymentRequest req, Body buffer) throws IOException {
+        CardData card = req.getCardData();
+        try (JsonGenerator gen = WRITER.createGenerator(buffer)) {
+            gen.writeStartObject();
+            gen.writeFieldName(PRIMARY_ACCOUNT_NUMBER);
+            gen.writeString(card.getPan());
+            gen.writeFieldName(AMOUNT);
+            writeAmount(gen, buffer.digits, req.getAmount());
+            gen.writeFieldName(CURRENCY_CODE);
+            gen.writeString(CURRENCY_CODE_VALUE);
+            gen.writeFieldName(RETRIEVAL_REFERENCE_NUMBER);
+            gen.writeString(RETRIEVAL_REFERENCE_NUMBER_VALUE);
+            gen.writeFieldName(SYSTEM_TRACE_AUDIT_NUMBER);
+            gen.writeNumber(SYSTEM_TRACE_AUDIT_NUMBER_VALUE);
+
+            gen.writeFieldName(EMV);
+            gen.writeStartObject();
+            gen.writeFieldName(APPLICATION_IDENTIFIER);
+            gen.writeString(card.getAid());
+            gen.writeFieldName(APPLICATION_CRYPTOGRAM);
+            gen.writeString(card.getCryptogram());
+            gen.writeEndObject();
+
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes the amount as a string with exactly two decimals, like String.format("%.2f"):
+     * the shortest decimal form of the double is rounded half-up, so 1.005 gives "1.01".
+     * Amounts already at whole cents (most fares) are written from the cents directly;
+     * any other amount goes through BigDecimal.
+     */
+    private static void writeAmount(JsonGenerator gen, char[] digits, double amount) throws IOException {
+        if (!Double.isFinite(amount)) {
+            gen.writeString(String.format("%.2f", amount));
+            return;
+        }
+
+        // The sign bit, so -0.0 and small negatives print as "-0.00" like String.format
+        boolean negative = Double.doubleToRawLongBits(amount) < 0;
+        double magnitude = Math.abs(amount);
+        long cents = Math.round(magnitude * 100);
+        if (magnitude >= MAX_EXACT_AMOUNT || cents / 100.0 != magnitude) {
+            String rounded = BigDecimal.valueOf(magnitude).setScale(2, RoundingMode.HALF_UP).toPlainString();
+            gen.writeString(negative ? "-" + rounded : rounded);
+            return;
+        }
+
+        int pos = digits.length;
+        digits[--pos] = (char) ('0' + cents % 10);
+        cents /= 10;
+        digits[--pos] = (char) ('0' + cents % 10);
+        cents /= 10;
+        digits[--pos] = '.';
+        do {
+            digits[--pos] = (char) ('0' + cents % 10);
+            cents /= 10;
+        } while (cents > 0);
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        gen.writeString(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * Unsynchronized, reusable output buffer holding one serialized request body.
+     */
+    public static final class Body extends OutputStream {
+        private final char[] digits = new char[24]; // Scratch space for the formatted amount
+        private byte[] buf = new byte[512];
+        private int count;
+
+        private Body() {
+        }
+
+        /**
+         * @return The backing array; the body is its first length() bytes.
+         */
+        public byte[] array() {
+            return buf;
+        }
+
+        /**
+         * @return Number of bytes in the body.
+         */
+        public int length() {
+            return count;
+        }
+
+        /**
+         * Clears the body and returns the buffer for reuse; dropped if the pool is already full.
+         * The body must not be read after this call.
+         */
+        public void release() {
+            Arrays.fill(buf, 0, count, (byte) 0);
+            count = 0;
+            BUFFERS.offer(this);
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                byte[] old = buf;
+                buf = Arrays.copyOf(old, Math.max(capacity, old.length * 2));
+                Arrays.fill(old, 0, count, (byte) 0);
+            }
+        }
+    }
+}
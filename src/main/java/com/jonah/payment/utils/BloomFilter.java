@@ -0,0 +1,100 @@
+package com.jonah.payment.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * BloomFilter is a thread-safe, add-only Bloom filter over byte keys that are already
+ * uniformly distributed (e.g. HMAC-SHA256 digests), so no further hashing is needed:
+ * the k bit positions are derived from the first 16 bytes of the key by double hashing.
+ *
+ * A negative answer is definite; a positive answer may be a false positive.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;   // Bit array, 64 bits per element
+    private final long bitCount;          // Number of addressable bits (m)
+    private final int hashCount;          // Bit positions set per key (k)
+    private final long capacity;          // Insertions the filter was sized for
+
+    /**
+     * Creates a filter sized for the expected number of keys at the target false-positive rate.
+     *
+     * @param expectedInsertions Number of keys the filter should hold at the target rate.
+     * @param falsePositiveRate  Target false-positive probability, e.g. 0.01.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (m + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+        this.capacity = n;
+    }
+
+    /**
+     * Adds a key to the filter.
+     *
+     * @param key Uniformly distributed key of at least 16 bytes.
+     */
+    public void add(byte[] key) {
+        long h1 = readLong(key, 0);
+        long h2 = readLong(key, 8) | 1; // odd step visits distinct positions
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << (bit & 63);
+            long current;
+            while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                // retry until the bit is set by us or a concurrent add
+            }
+        }
+    }
+
+    /**
+     * Tests whether a key may have been added.
+     *
+     * @param key Uniformly distributed key of at least 16 bytes.
+     * @return false if the key was definitely never added, true if it might have been.
+     */
+    public boolean mightContain(byte[] key) {
+        long h1 = readLong(key, 0);
+        long h2 = readLong(key, 8) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of insertions the filter was sized for.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of bits in the filter.
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @return Number of bit positions checked per key.
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+}
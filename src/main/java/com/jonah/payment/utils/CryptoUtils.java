@@ -1,13 +1,28 @@
 package com.jonah.payment.utils;
 
+import javax.crypto.Cipher;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * CryptoUtils provides cryptographic utility functions for securing data.
  * Currently includes functionality for hashing Primary Account Numbers (PANs)
- * using HMAC-SHA256.
+ * using HMAC-SHA256, and AES-GCM encryption of card data that must be kept
+ * recoverable (e.g. for deferred, aggregated authorizations).
+ *
+ * PANs are hashed with pooled, pre-initialized Mac instances, so hashing neither looks up
+ * a provider nor re-derives the key on each tap.
  */
 public class CryptoUtils {
 
@@ -15,6 +30,30 @@ public class CryptoUtils {
     // In production systems, this key should be securely stored in environment variables or a config vault.
     private static final String SECRET_KEY = "super-secret-key";
 
+    // Length of an HMAC-SHA256 digest in bytes.
+    public static final int DIGEST_BYTES = 32;
+
+    // Longest PAN (ISO/IEC 7812) plus headroom; longer inputs take the allocating path.
+    private static final int MAX_PAN_CHARS = 32;
+
+    // Maximum number of idle HMAC instances kept for reuse.
+    private static final int MAC_POOL_SIZE = 64;
+
+    // Mac instances are not thread-safe, so each one is used by a single thread at a time.
+    private static final BlockingQueue<PanMac> MACS = new ArrayBlockingQueue<>(MAC_POOL_SIZE);
+
+    // Secret for encrypting stored card data, read from this system property or environment variable.
+    public static final String CARD_DATA_KEY_PROPERTY = "payment.cardDataKey";
+    public static final String CARD_DATA_KEY_ENV = "PAYMENT_CARD_DATA_KEY";
+
+    // AES key derived from the configured secret on first use.
+    private static volatile SecretKeySpec cardDataKey;
+
+    // AES-GCM parameters: 96-bit random IV stored in front of the ciphertext, 128-bit tag.
+    private static final int GCM_IV_BYTES = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     /**
      * Hashes a PAN (Primary Account Number) using HMAC-SHA256 algorithm.
      * This is used to anonymize sensitive cardholder data before database insertion.
@@ -24,20 +63,147 @@ public class CryptoUtils {
      * @throws Exception If the cryptographic algorithm is not available or fails.
      */
     public static String hashPAN(String pan) throws Exception {
-        // Get an instance of HMAC using SHA256 as the hashing algorithm
-        Mac hmac = Mac.getInstance("HmacSHA256");
+        // Encode the binary hash result into a Base64 string for storage/transmission
+        return Base64.getEncoder().encodeToString(digestPAN(pan));
+    }
 
-        // Create a key specification using the secret key and algorithm
-        SecretKeySpec keySpec = new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA256");
+    /**
+     * Computes the raw 32-byte HMAC-SHA256 digest of a PAN, as used by in-memory and
+     * off-heap card sets. hashPAN returns the same digest Base64-encoded.
+     *
+     * @param pan The plain-text card number to hash.
+     * @return The 32-byte HMAC-SHA256 digest of the PAN.
+     * @throws Exception If the cryptographic algorithm is not available or fails.
+     */
+    public static byte[] digestPAN(String pan) throws Exception {
+        byte[] digest = new byte[DIGEST_BYTES];
+        digestPAN(pan, digest, 0);
+        return digest;
+    }
 
-        // Initialize the HMAC instance with the key
-        hmac.init(keySpec);
+    /**
+     * Writes the HMAC-SHA256 digest of a PAN into the caller's buffer.
+     *
+     * @param pan    The plain-text card number to hash.
+     * @param out    Buffer receiving the digest.
+     * @param offset Position in out where the 32 digest bytes are written.
+     */
+    public static void digestPAN(CharSequence pan, byte[] out, int offset) {
+        // Borrow a pooled Mac, or create one keyed with the shared secret
+        PanMac mac = MACS.poll();
+        if (mac == null) {
+            mac = new PanMac();
+        }
 
-        // Compute the HMAC hash of the PAN bytes
-        byte[] result = hmac.doFinal(pan.getBytes());
+        // A failed digest may leave the Mac mid-computation, so it is only reused after success
+        mac.digest(pan, out, offset);
 
-        // Encode the binary hash result into a Base64 string for storage/transmission
-        return Base64.getEncoder().encodeToString(result);
+        // Return it for reuse; dropped if the pool is already full
+        MACS.offer(mac);
+    }
+
+    /**
+     * Encrypts card data with AES-256-GCM under a fresh random IV.
+     *
+     * @param plaintext The data to protect.
+     * @return IV followed by ciphertext and authentication tag.
+     * @throws GeneralSecurityException If AES-GCM is not available or fails.
+     */
+    public static byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        byte[] out = new byte[GCM_IV_BYTES + plaintext.length + GCM_TAG_BITS / 8];
+        byte[] iv = new byte[GCM_IV_BYTES];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, out, 0, GCM_IV_BYTES);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, cardDataKey(), new GCMParameterSpec(GCM_TAG_BITS, iv));
+        cipher.doFinal(plaintext, 0, plaintext.length, out, GCM_IV_BYTES);
+        return out;
+    }
+
+    /**
+     * Decrypts data produced by encrypt, verifying it has not been altered.
+     *
+     * @param ciphertext IV followed by ciphertext and authentication tag.
+     * @return The original data.
+     * @throws GeneralSecurityException If the data was tampered with or decryption fails.
+     */
+    public static byte[] decrypt(byte[] ciphertext) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, cardDataKey(),
+                new GCMParameterSpec(GCM_TAG_BITS, Arrays.copyOfRange(ciphertext, 0, GCM_IV_BYTES)));
+        return cipher.doFinal(ciphertext, GCM_IV_BYTES, ciphertext.length - GCM_IV_BYTES);
     }
-}
 
+    /**
+     * Loads the card data key: the secret configured in the CARD_DATA_KEY_PROPERTY system
+     * property (or the CARD_DATA_KEY_ENV environment variable), hashed with SHA-256 into a
+     * 256-bit AES key. The key is derived once; call this at startup to fail fast.
+     *
+     * @throws GeneralSecurityException If no secret is configured or SHA-256 is not available.
+     */
+    public static void loadCardDataKey() throws GeneralSecurityException {
+        cardDataKey();
+    }
+
+    private static SecretKeySpec cardDataKey() throws GeneralSecurityException {
+        SecretKeySpec key = cardDataKey;
+        if (key == null) {
+            String secret = System.getProperty(CARD_DATA_KEY_PROPERTY, System.getenv(CARD_DATA_KEY_ENV));
+            if (secret == null || secret.isEmpty()) {
+                throw new InvalidKeyException("No card data key configured: set -D" + CARD_DATA_KEY_PROPERTY
+                        + " or " + CARD_DATA_KEY_ENV);
+            }
+            key = new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8)), "AES");
+            cardDataKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * A Mac initialized with the HMAC key, plus a scratch buffer for the PAN's ASCII bytes,
+     * cleared after each use. If digest throws, the instance must be discarded.
+     */
+    private static final class PanMac {
+        private final Mac mac;
+        private final byte[] input = new byte[MAX_PAN_CHARS];
+
+        PanMac() {
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        }
+
+        void digest(CharSequence pan, byte[] out, int offset) {
+            int length = pan.length();
+            if (length <= input.length && isAscii(pan)) {
+                for (int i = 0; i < length; i++) {
+                    input[i] = (byte) pan.charAt(i);
+                }
+                mac.update(input, 0, length);
+                // Don't keep PAN bytes in the pooled buffer
+                Arrays.fill(input, 0, length, (byte) 0);
+            } else {
+                mac.update(pan.toString().getBytes());
+            }
+
+            try {
+                mac.doFinal(out, offset);
+            } catch (ShortBufferException e) {
+                throw new IllegalArgumentException("Digest buffer too small", e);
+            }
+        }
+
+        private static boolean isAscii(CharSequence s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) > 0x7F) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
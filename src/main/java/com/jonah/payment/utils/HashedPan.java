@@ -0,0 +1,99 @@
+package com.jonah.payment.utils;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * HashedPan is the HMAC-SHA256 digest of a card number, computed once per request and
+ * passed to every DAO and in-memory set instead of the raw PAN.
+ *
+ * It is immutable and compares by digest. The Base64 form stored in Oracle is only
+ * built (once) when a DAO needs it.
+ */
+public final class HashedPan {
+
+    private final byte[] digest;     // 32-byte HMAC-SHA256 digest
+    private final int hash;          // Leading digest bytes; already uniformly distributed
+    private String base64;           // Lazily encoded storage form
+
+    private HashedPan(byte[] digest) {
+        this.digest = digest;
+        this.hash = (digest[0] & 0xFF) << 24 | (digest[1] & 0xFF) << 16 | (digest[2] & 0xFF) << 8 | (digest[3] & 0xFF);
+    }
+
+    /**
+     * Hashes a raw PAN.
+     *
+     * @param pan The plain-text card number.
+     * @return Its hashed form.
+     */
+    public static HashedPan of(String pan) {
+        byte[] digest = new byte[CryptoUtils.DIGEST_BYTES];
+        CryptoUtils.digestPAN(pan, digest, 0);
+        return new HashedPan(digest);
+    }
+
+    /**
+     * Wraps a PAN hash read back from the database.
+     *
+     * @param base64 Base64 form as produced by CryptoUtils.hashPAN.
+     * @return The hashed PAN.
+     * @throws IllegalArgumentException if the value is not a Base64 32-byte digest.
+     */
+    public static HashedPan fromBase64(String base64) {
+        byte[] digest = Base64.getDecoder().decode(base64);
+        if (digest.length != CryptoUtils.DIGEST_BYTES) {
+            throw new IllegalArgumentException("Not a PAN digest: " + digest.length + " bytes");
+        }
+        HashedPan hashed = new HashedPan(digest);
+        hashed.base64 = base64;
+        return hashed;
+    }
+
+    /**
+     * Wraps a raw 32-byte digest, e.g. one read from a RAW column.
+     *
+     * @param digest The digest; copied.
+     * @return The hashed PAN.
+     */
+    public static HashedPan fromBytes(byte[] digest) {
+        if (digest.length != CryptoUtils.DIGEST_BYTES) {
+            throw new IllegalArgumentException("Not a PAN digest: " + digest.length + " bytes");
+        }
+        return new HashedPan(digest.clone());
+    }
+
+    /**
+     * @return The raw digest. The array is shared and must not be modified.
+     */
+    public byte[] bytes() {
+        return digest;
+    }
+
+    /**
+     * @return The Base64 form stored in VARCHAR2 pan columns.
+     */
+    public String toBase64() {
+        String encoded = base64;
+        if (encoded == null) {
+            encoded = Base64.getEncoder().encodeToString(digest);
+            base64 = encoded;
+        }
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof HashedPan && Arrays.equals(digest, ((HashedPan) o).digest));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toBase64();
+    }
+}
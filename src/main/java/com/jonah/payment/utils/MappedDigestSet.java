@@ -0,0 +1,305 @@
+package com.jonah.payment.utils;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedDigestSet is an off-heap set of 32-byte digests (e.g. HMAC-SHA256 of a PAN) stored
+ * in a memory-mapped file with open addressing and linear probing.
+ *
+ * The set lives outside the Java heap, so millions of entries add no GC pressure, and it
+ * survives restarts: reopening the file maps the existing table. contains() and add() do
+ * not allocate. Lookups are lock-free; adds are serialized, and a slot is published by
+ * writing its first word last with release semantics so readers never match a half-written key.
+ *
+ * When the load factor would exceed MAX_LOAD the table is rehashed into a file twice the size,
+ * which then atomically replaces the original. Entries are never removed.
+ *
+ * File layout: a HEADER_BYTES header (magic, slot count, size) followed by 32-byte slots.
+ * An all-zero first word marks an empty slot, so a digest whose first 8 bytes are zero
+ * is stored with its lowest bit set (a 2^-64 event that cannot collide in practice).
+ */
+public class MappedDigestSet implements AutoCloseable {
+
+    public static final int DIGEST_BYTES = 32;
+
+    private static final long MAGIC = 0x5345454E53455431L;  // "SEENSET1"
+    private static final int HEADER_BYTES = 4096;            // Keeps slots page-aligned
+    private static final int SLOT_SHIFT = 5;                  // 32-byte slots
+    private static final int SEGMENT_SLOT_SHIFT = 25;         // 2^25 slots = 1 GB per mapping
+    private static final long SEGMENT_SLOT_MASK = (1L << SEGMENT_SLOT_SHIFT) - 1;
+    private static final long MIN_SLOTS = 1024;
+    private static final double MAX_LOAD = 0.7;
+
+    // Header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SLOTS_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+
+    // Little-endian word access to mapped slots and to the caller's digest array
+    private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle ARRAY_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;              // Backing file
+    private volatile Table table;         // Current mapping; replaced when the set grows
+
+    /**
+     * One mapped table: header plus slot segments of at most 1 GB each.
+     */
+    private static final class Table {
+        final FileChannel channel;
+        final MappedByteBuffer header;
+        final ByteBuffer[] segments;
+        final long slots;
+        final long mask;
+        long size;
+
+        Table(FileChannel channel, MappedByteBuffer header, ByteBuffer[] segments, long slots, long size) {
+            this.channel = channel;
+            this.header = header;
+            this.segments = segments;
+            this.slots = slots;
+            this.mask = slots - 1;
+            this.size = size;
+        }
+    }
+
+    private MappedDigestSet(Path path, Table table) {
+        this.path = path;
+        this.table = table;
+    }
+
+    /**
+     * Opens the set stored at the path, creating it if the file does not exist.
+     *
+     * @param path             Backing file.
+     * @param expectedEntries  Entries to size a new file for; ignored when the file exists.
+     * @return The opened set.
+     * @throws IOException if the file cannot be created, mapped, or is not a digest set.
+     */
+    public static MappedDigestSet open(Path path, long expectedEntries) throws IOException {
+        if (Files.exists(path) && Files.size(path) >= HEADER_BYTES) {
+            return new MappedDigestSet(path, map(path, -1));
+        }
+        long slots = MIN_SLOTS;
+        while (slots * MAX_LOAD < expectedEntries) {
+            slots <<= 1;
+        }
+        return new MappedDigestSet(path, map(path, slots));
+    }
+
+    /**
+     * Maps a table file. With slots &gt; 0 a new file is initialized; otherwise the header is read.
+     */
+    private static Table map(Path file, long newSlots) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            long slots;
+            long size;
+            if (newSlots > 0) {
+                slots = newSlots;
+                size = 0;
+                header.putLong(MAGIC_OFFSET, MAGIC);
+                header.putLong(SLOTS_OFFSET, slots);
+                header.putLong(SIZE_OFFSET, 0);
+            } else {
+                if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+                    throw new IOException("Not a digest set file: " + file);
+                }
+                slots = header.getLong(SLOTS_OFFSET);
+                size = header.getLong(SIZE_OFFSET);
+                if (Long.bitCount(slots) != 1 || channel.size() < HEADER_BYTES + (slots << SLOT_SHIFT)) {
+                    throw new IOException("Corrupt digest set header: " + file);
+                }
+            }
+
+            // Mapping beyond the end of the file extends it (sparse, zero-filled).
+            int count = (int) Math.max(1, slots >>> SEGMENT_SLOT_SHIFT);
+            long segmentSlots = Math.min(slots, 1L << SEGMENT_SLOT_SHIFT);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = HEADER_BYTES + ((long) i * segmentSlots << SLOT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, segmentSlots << SLOT_SHIFT);
+            }
+            return new Table(channel, header, segments, slots, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tests whether the digest is in the set. Lock-free and allocation-free.
+     *
+     * @param digest 32-byte digest.
+     * @return true if the digest was added before.
+     */
+    public boolean contains(byte[] digest) {
+        return find(table, word0(digest), (long) ARRAY_LONGS.get(digest, 8),
+                (long) ARRAY_LONGS.get(digest, 16), (long) ARRAY_LONGS.get(digest, 24)) >= 0;
+    }
+
+    /**
+     * Adds the digest if absent. Allocation-free except when the table grows.
+     *
+     * @param digest 32-byte digest.
+     * @return true if the digest was added, false if it was already present.
+     * @throws IOException if growing the backing file fails.
+     */
+    public synchronized boolean add(byte[] digest) throws IOException {
+        long w0 = word0(digest);
+        long w1 = (long) ARRAY_LONGS.get(digest, 8);
+        long w2 = (long) ARRAY_LONGS.get(digest, 16);
+        long w3 = (long) ARRAY_LONGS.get(digest, 24);
+
+        Table t = table;
+        if (find(t, w0, w1, w2, w3) >= 0) {
+            return false;
+        }
+        if (t.size + 1 > t.slots * MAX_LOAD) {
+            t = grow(t);
+        }
+        insert(t, w0, w1, w2, w3);
+        t.size++;
+        t.header.putLong(SIZE_OFFSET, t.size);
+        return true;
+    }
+
+    /**
+     * Probes for a digest; returns its slot index or -1 if absent.
+     */
+    private static long find(Table t, long w0, long w1, long w2, long w3) {
+        long slot = w1 & t.mask;
+        for (long probes = 0; probes < t.slots; probes++) {
+            ByteBuffer segment = t.segments[(int) (slot >>> SEGMENT_SLOT_SHIFT)];
+            int offset = (int) ((slot & SEGMENT_SLOT_MASK) << SLOT_SHIFT);
+            long s0 = (long) BUFFER_LONGS.getAcquire(segment, offset);
+            if (s0 == 0) {
+                return -1;
+            }
+            if (s0 == w0
+                    && (long) BUFFER_LONGS.get(segment, offset + 8) == w1
+                    && (long) BUFFER_LONGS.get(segment, offset + 16) == w2
+                    && (long) BUFFER_LONGS.get(segment, offset + 24) == w3) {
+                return slot;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a digest into the first free slot of its probe sequence. Caller holds the lock.
+     */
+    private static void insert(Table t, long w0, long w1, long w2, long w3) {
+        long slot = w1 & t.mask;
+        while (true) {
+            ByteBuffer segment = t.segments[(int) (slot >>> SEGMENT_SLOT_SHIFT)];
+            int offset = (int) ((slot & SEGMENT_SLOT_MASK) << SLOT_SHIFT);
+            if ((long) BUFFER_LONGS.get(segment, offset) == 0) {
+                BUFFER_LONGS.set(segment, offset + 8, w1);
+                BUFFER_LONGS.set(segment, offset + 16, w2);
+                BUFFER_LONGS.set(segment, offset + 24, w3);
+                // Publish the slot: readers only compare once the first word is non-zero.
+                BUFFER_LONGS.setRelease(segment, offset, w0);
+                return;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Rehashes into a file with twice the slots and atomically swaps it in.
+     * Readers still probing the old mapping may miss a concurrent add, which callers
+     * treat the same as "not seen yet".
+     */
+    private Table grow(Table old) throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".grow");
+        Files.deleteIfExists(next);
+
+        Table grown = map(next, old.slots << 1);
+        for (ByteBuffer segment : old.segments) {
+            for (int offset = 0; offset < segment.capacity(); offset += 1 << SLOT_SHIFT) {
+                long w0 = (long) BUFFER_LONGS.get(segment, offset);
+                if (w0 != 0) {
+                    insert(grown, w0, (long) BUFFER_LONGS.get(segment, offset + 8),
+                            (long) BUFFER_LONGS.get(segment, offset + 16), (long) BUFFER_LONGS.get(segment, offset + 24));
+                }
+            }
+        }
+        grown.size = old.size;
+        grown.header.putLong(SIZE_OFFSET, grown.size);
+        force(grown);
+
+        Files.move(next, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        table = grown;
+
+        // Existing mappings stay valid after the channel is closed.
+        old.channel.close();
+        return grown;
+    }
+
+    private static long word0(byte[] digest) {
+        if (digest.length != DIGEST_BYTES) {
+            throw new IllegalArgumentException("Expected a " + DIGEST_BYTES + "-byte digest");
+        }
+        long w0 = (long) ARRAY_LONGS.get(digest, 0);
+        return w0 == 0 ? 1 : w0;
+    }
+
+    private static void force(Table t) {
+        for (ByteBuffer segment : t.segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+        t.header.force();
+    }
+
+    /**
+     * @return Number of digests in the set.
+     */
+    public synchronized long size() {
+        return table.size;
+    }
+
+    /**
+     * @return Number of slots in the current table.
+     */
+    public long capacity() {
+        return table.slots;
+    }
+
+    /**
+     * @return A one-line summary of the set's size and load.
+     */
+    public synchronized String describeMetrics() {
+        Table t = table;
+        return String.format("digest-set file=%s size=%d slots=%d load=%.2f mappedMB=%d",
+                path, t.size, t.slots, (double) t.size / t.slots, (HEADER_BYTES + (t.slots << SLOT_SHIFT)) >> 20);
+    }
+
+    /**
+     * Flushes dirty pages to the file and closes it.
+     */
+    @Override
+    public synchronized void close() {
+        Table t = table;
+        force(t);
+        try {
+            t.channel.close();
+        } catch (IOException e) {
+            System.err.println("\u26A0\uFE0F Failed to close digest set " + path + ": " + e.getMessage());
+        }
+    }
+}
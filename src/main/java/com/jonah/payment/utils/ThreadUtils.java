@@ -0,0 +1,41 @@
+package com.jonah.payment.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ThreadUtils provides executor factories shared by the tap processing path.
+ * Virtual threads are looked up reflectively so the project still builds and runs
+ * on JDKs that predate them (the compiler target is older than JDK 21).
+ */
+public class ThreadUtils {
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * On a JDK without virtual threads, falls back to a cached platform-thread pool.
+     *
+     * @return An executor running each submitted task on its own (virtual) thread.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("\u26A0\uFE0F Virtual threads unavailable on this JDK; using platform threads instead.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads.
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.AVRHandler;
+import com.jonah.payment.core.AVRResultCache;
+import com.jonah.payment.data.CardData;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.data.TapEvent;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AcquirerSimulator;
+import com.jonah.payment.network.AsyncVisaClientInterface;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays commuter entries through AVRHandler.sendAVR against an acquirer with 20 ms AVR latency:
+ * - without a cache every entry waits for an AVR
+ * - with an AVRResultCache only the first entry of each card within the lifetime does
+ * Then checks the cache's rules: a new expiry date, an expired approval, an evicted card and a
+ * denylisted card all need a new AVR, and declines are never cached.
+ */
+public class AVRResultCacheBenchmark {
+
+    private static final int CARDS = 500;
+    private static final int ENTRIES_PER_CARD = 4;
+    private static final long AVR_LATENCY_MS = 20;
+
+    /**
+     * Acquirer that counts AVRs and approves every card except PANs ending in 9.
+     */
+    static final class CountingVisaClient implements AsyncVisaClientInterface {
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "counting-acquirer");
+            t.setDaemon(true);
+            return t;
+        });
+        final AtomicInteger avrs = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest request) {
+            avrs.incrementAndGet();
+            long start = System.nanoTime();
+            int status = request.getCardData().getPan().endsWith("9") ? 402 : 200;
+            CompletableFuture<AcquirerResponse> future = new CompletableFuture<>();
+            timer.schedule(() -> future.complete(AcquirerResponse.fromStatus(status, start)), AVR_LATENCY_MS, TimeUnit.MILLISECONDS);
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest request) {
+            return sendAVRAsync(request);
+        }
+    }
+
+    public static void main(String[] args) {
+        CountingVisaClient client = new CountingVisaClient();
+        AcquirerSimulator acquirer = new AcquirerSimulator(client);
+
+        replay("no cache (original)", new AVRHandler(acquirer, null, null, null, null, null), client);
+        AVRResultCache cache = new AVRResultCache(Duration.ofMinutes(15), 100_000);
+        replay("AVR result cache", new AVRHandler(acquirer, null, null, null, null, cache), client);
+        System.out.println("   📊 " + cache.describeMetrics());
+
+        checkRules(acquirer, client);
+    }
+
+    /**
+     * Sends ENTRIES_PER_CARD rounds of entries for CARDS cards, one round after another.
+     */
+    private static void replay(String label, AVRHandler handler, CountingVisaClient client) {
+        client.avrs.set(0);
+        long firstRoundNanos = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ENTRIES_PER_CARD; round++) {
+            CompletableFuture<?>[] entries = new CompletableFuture<?>[CARDS];
+            for (int i = 0; i < CARDS; i++) {
+                entries[i] = send(handler, String.format("47617390%08d", i * 10), "12/29");
+            }
+            CompletableFuture.allOf(entries).join();
+            if (round == 0) {
+                firstRoundNanos = System.nanoTime() - start;
+            }
+        }
+        long repeatNanos = System.nanoTime() - start - firstRoundNanos;
+        System.out.printf("%-22s %,6d entries, %,5d AVRs sent, first round %6.2f ms, repeat rounds %6.2f ms each%n",
+                label, CARDS * ENTRIES_PER_CARD, client.avrs.get(), firstRoundNanos / 1e6, repeatNanos / 1e6 / (ENTRIES_PER_CARD - 1));
+    }
+
+    private static void checkRules(AcquirerSimulator acquirer, CountingVisaClient client) {
+        AVRResultCache cache = new AVRResultCache(Duration.ofMillis(200), 2);
+        AVRHandler handler = new AVRHandler(acquirer, null, null, null, null, cache);
+
+        expectAVR(handler, client, "4761739000000010", "12/29", true, "first entry");
+        expectAVR(handler, client, "4761739000000010", "12/29", false, "repeat entry");
+        expectAVR(handler, client, "4761739000000010", "01/31", true, "reissued card with a new expiry date");
+        expectAVR(handler, client, "4761739000000019", "12/29", true, "declined card");
+        expectAVR(handler, client, "4761739000000019", "12/29", true, "declined card again");
+
+        sleep(250);
+        expectAVR(handler, client, "4761739000000010", "01/31", true, "entry after the lifetime");
+
+        expectAVR(handler, client, "4761739000000020", "12/29", true, "second card");
+        expectAVR(handler, client, "4761739000000030", "12/29", true, "third card");
+        expectAVR(handler, client, "4761739000000010", "01/31", true, "least recently used card");
+
+        // DenylistDAO.addToDenylist notifies the cache through its listener.
+        cache.invalidate(tap("4761739000000010", "01/31").getHashedPan());
+        expectAVR(handler, client, "4761739000000010", "01/31", true, "denylisted card");
+        System.out.println("✅ New expiry, lifetime, LRU bound, denylisting and declines all force a new AVR");
+        System.out.println("   📊 " + cache.describeMetrics());
+    }
+
+    private static void expectAVR(AVRHandler handler, CountingVisaClient client, String pan, String expiry,
+                                  boolean expected, String label) {
+        int before = client.avrs.get();
+        send(handler, pan, expiry).join();
+        boolean sent = client.avrs.get() != before;
+        if (sent != expected) {
+            throw new IllegalStateException(label + ": AVR " + (sent ? "sent" : "skipped"));
+        }
+    }
+
+    private static CompletableFuture<AcquirerResponse> send(AVRHandler handler, String pan, String expiry) {
+        CardData card = new CardData();
+        card.setPan(pan);
+        PaymentRequest request = new PaymentRequest();
+        request.setCardData(card);
+        return handler.sendAVR(request, tap(pan, expiry));
+    }
+
+    private static TapEvent tap(String pan, String expiry) {
+        TapEvent tap = new TapEvent();
+        tap.setPan(pan);
+        tap.setExpiry(expiry);
+        tap.setMode("entry");
+        return tap;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.VisaSSLContextLoader;
+import com.jonah.payment.data.CardData;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.network.AcquirerProfile;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AcquirerStandInServer;
+import com.jonah.payment.network.ResilienceOptions;
+import com.jonah.payment.network.ResilientVisaClient;
+import com.jonah.payment.network.VisaClient;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * End-to-end load test of the real VisaClient (mutual TLS, HTTP, JSON) against the local
+ * AcquirerStandInServer, with no external network:
+ * - a client without a certificate must be rejected during the handshake
+ * - the simulator's decline rules must give the same decisions over the wire
+ * - latency profiles (fixed, log-normal, slow tail) and injected errors, with and without
+ *   the ResilientVisaClient in front
+ *
+ * Run from the repository root (certificates are read from src/test/resources/acquirer-stand-in,
+ * regenerate them with generate-certs.sh there).
+ * Usage: AcquirerStandInLoadTest [requests] [concurrency]   (default 2,000 and 50)
+ */
+public class AcquirerStandInLoadTest {
+
+    private static final String CERTS = "src/test/resources/acquirer-stand-in/";
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String[] ca = {CERTS + "ca.pem"};
+        SSLContext serverContext = VisaSSLContextLoader.loadSSLContext(CERTS + "server.pem", CERTS + "server.key", ca, true);
+        SSLContext clientContext = VisaSSLContextLoader.loadSSLContext(CERTS + "client.pem", CERTS + "client.key", ca, true);
+
+        try (AcquirerStandInServer server = new AcquirerStandInServer(0, serverContext, AcquirerProfile.fixed(0),
+                Runtime.getRuntime().availableProcessors() * 2)) {
+            server.start();
+            VisaClient client = new VisaClient(null, false, server.getEndpoint(), clientContext);
+
+            checkClientCertificateRequired(server);
+            checkDeclineRules(client);
+
+            server.setProfile(AcquirerProfile.fixed(5));
+            run("fixed 5 ms", client, requests, concurrency);
+
+            server.setProfile(AcquirerProfile.logNormal(20, 0.5));
+            run("log-normal 20 ms", client, requests, concurrency);
+
+            AcquirerProfile tail = AcquirerProfile.fixed(10);
+            tail.tailRate = 0.05;
+            tail.tailLatencyMs = 300;
+            server.setProfile(tail);
+            run("5% tail at 300 ms", client, requests, concurrency);
+
+            ResilienceOptions options = new ResilienceOptions();
+            options.hedgePercentile = 0.9;
+            options.breakerFailureThreshold = 1_000; // Measure hedging alone.
+            try (ResilientVisaClient resilient = new ResilientVisaClient(client, options)) {
+                run("5% tail, p90 hedging", resilient::sendAuthorizationAsync, requests, concurrency);
+                System.out.println("   📊 " + resilient.describeMetrics());
+            }
+
+            AcquirerProfile failing = AcquirerProfile.fixed(5);
+            failing.errorRate = 0.2;
+            failing.resetRate = 0.02;
+            server.setProfile(failing);
+            run("20% 503 + 2% resets", client, requests, concurrency);
+            options = new ResilienceOptions();
+            options.maxRetries = 2;
+            options.retryBackoffMs = 5;
+            options.breakerFailureThreshold = 1_000; // Isolate retries from the breaker.
+            try (ResilientVisaClient resilient = new ResilientVisaClient(client, options)) {
+                run("20% 503 + 2% resets, 2 retries", resilient::sendAuthorizationAsync, requests, concurrency);
+                System.out.println("   📊 " + resilient.describeMetrics());
+            }
+
+            System.out.println("📊 " + server.describeMetrics());
+        }
+    }
+
+    /**
+     * A client trusting the stand-in's CA but presenting no certificate must fail the handshake.
+     */
+    private static void checkClientCertificateRequired(AcquirerStandInServer server) throws Exception {
+        SSLContext anonymous = SSLContext.getInstance("TLS");
+        KeyStore trusted = KeyStore.getInstance("JKS");
+        trusted.load(null);
+        try (InputStream in = Files.newInputStream(Paths.get(CERTS + "ca.pem"))) {
+            trusted.setCertificateEntry("ca", CertificateFactory.getInstance("X.509").generateCertificate(in));
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        anonymous.init(null, tmf.getTrustManagers(), null);
+        HttpClient http = HttpClient.newBuilder().sslContext(anonymous).build();
+        try {
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(server.getEndpoint())
+                    .POST(HttpRequest.BodyPublishers.ofString("{}")).build(), HttpResponse.BodyHandlers.ofString());
+            throw new IllegalStateException("Request without a client certificate was answered: " + response.statusCode());
+        } catch (IOException e) {
+            System.out.println("✅ Client without a certificate rejected: " + e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * The default profile must decide like VisaClientSimulator.
+     */
+    private static void checkDeclineRules(VisaClient client) {
+        check("AVR PAN ending 9", client.sendAVRAsync(request("4761739001010119", 0)).join(), AcquirerResponse.Outcome.DECLINED);
+        check("AVR PAN ending 0", client.sendAVRAsync(request("4761739001010010", 0)).join(), AcquirerResponse.Outcome.APPROVED);
+        check("auth PAN ending 8", client.sendAuthorizationAsync(request("4761739001010018", 2.75)).join(), AcquirerResponse.Outcome.DECLINED);
+        check("auth 25.00", client.sendAuthorizationAsync(request("4761739001010010", 25)).join(), AcquirerResponse.Outcome.DECLINED);
+        check("auth 2.75", client.sendAuthorizationAsync(request("4761739001010010", 2.75)).join(), AcquirerResponse.Outcome.APPROVED);
+        System.out.println("✅ Decline rules match the simulator");
+    }
+
+    private static void check(String label, AcquirerResponse response, AcquirerResponse.Outcome expected) {
+        if (response.getOutcome() != expected) {
+            throw new IllegalStateException(label + ": expected " + expected + " but got " + response);
+        }
+    }
+
+    private interface Acquirer {
+        CompletableFuture<AcquirerResponse> send(PaymentRequest request);
+    }
+
+    private static void run(String label, VisaClient client, int requests, int concurrency) throws InterruptedException {
+        run(label, client::sendAuthorizationAsync, requests, concurrency);
+    }
+
+    private static void run(String label, Acquirer acquirer, int requests, int concurrency) throws InterruptedException {
+        // Warm up so the pool holds its connections and handshakes are not measured.
+        measure(acquirer, concurrency * 4, concurrency);
+        long start = System.nanoTime();
+        long[] result = measure(acquirer, requests, concurrency);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("%-32s approved=%5d declined=%d errors=%5d p50=%6.1f ms p99=%6.1f ms max=%6.1f ms %7.0f req/s%n",
+                label, result[requests], result[requests + 1], result[requests + 2], percentileMs(result, requests, 0.50),
+                percentileMs(result, requests, 0.99), result[requests - 1] / 1e6, requests * 1000.0 / Math.max(1, elapsedMs));
+    }
+
+    /**
+     * Sends the requests with at most concurrency in flight.
+     *
+     * @return Sorted latencies in nanoseconds, followed by the approved, declined and error counts.
+     */
+    private static long[] measure(Acquirer acquirer, int requests, int concurrency) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        long[] latencies = new long[requests + AcquirerResponse.Outcome.values().length];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int index = i;
+            futures[i] = acquirer.send(request("4761739001010010", 2.75)).whenComplete((response, e) -> {
+                inFlight.release();
+                latencies[index] = response.getLatencyNanos();
+                synchronized (latencies) {
+                    latencies[requests + response.getOutcome().ordinal()]++;
+                }
+            });
+        }
+        CompletableFuture.allOf(futures).join();
+        Arrays.sort(latencies, 0, requests);
+        return latencies;
+    }
+
+    private static PaymentRequest request(String pan, double amount) {
+        CardData card = new CardData();
+        card.setPan(pan);
+        card.setAid("A0000000031010");
+        card.setCryptogram("123456ABCDEF");
+        PaymentRequest request = new PaymentRequest();
+        request.setCardData(card);
+        request.setAmount(amount);
+        return request;
+    }
+
+    private static double percentileMs(long[] sorted, int length, double p) {
+        return sorted[(int) Math.ceil(p * length) - 1] / 1e6;
+    }
+}
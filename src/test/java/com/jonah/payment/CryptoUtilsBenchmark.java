@@ -0,0 +1,82 @@
+package com.jonah.payment;
+
+import com.jonah.payment.utils.CryptoUtils;
+import com.jonah.payment.utils.HashedPan;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Measures PAN hashing cost per exit tap:
+ * - the original path: Mac.getInstance + init + Base64 on each of the four hashes an exit made
+ * - hash-once: one HashedPan per tap, Base64 form built once for the DAOs
+ * - raw digest: a pooled, pre-initialized Mac writing into a reused buffer (the hot path)
+ * It first checks that the pooled path produces exactly the javax.crypto.Mac digest.
+ */
+public class CryptoUtilsBenchmark {
+
+    private static final String[] PANS = {"4761739001010010", "4000056655665556", "5555555555554444", "4111111111111111"};
+
+    private interface Op {
+        int run(String pan) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String pan : PANS) {
+            if (!Arrays.equals(legacyDigest(pan), HashedPan.of(pan).bytes())) {
+                throw new IllegalStateException("Digest mismatch for " + pan);
+            }
+        }
+        System.out.println("✅ Pooled digests match javax.crypto.Mac");
+
+        measure("Mac per call x4 (original)", pan -> {
+            int h = 0;
+            for (int i = 0; i < 4; i++) {
+                h += Base64.getEncoder().encodeToString(legacyDigest(pan)).length();
+            }
+            return h;
+        });
+        measure("HashedPan once + Base64", pan -> HashedPan.of(pan).toBase64().length());
+
+        byte[] buffer = new byte[CryptoUtils.DIGEST_BYTES];
+        measure("raw digest into buffer", pan -> {
+            CryptoUtils.digestPAN(pan, buffer, 0);
+            return buffer[0];
+        });
+    }
+
+    /**
+     * The original CryptoUtils.hashPAN implementation, minus the Base64 step.
+     */
+    private static byte[] legacyDigest(String pan) throws Exception {
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec("super-secret-key".getBytes(), "HmacSHA256"));
+        return hmac.doFinal(pan.getBytes());
+    }
+
+    private static void measure(String label, Op op) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int iterations = 500_000;
+        int sink = 0;
+
+        // Warm up the JIT with the same number of iterations.
+        for (int i = 0; i < iterations; i++) {
+            sink += op.run(PANS[i & 3]);
+        }
+
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += op.run(PANS[i & 3]);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        System.out.printf("%-30s %8.0f ns/tap %8d bytes/tap (%d)%n",
+                label, (double) elapsed / iterations, allocated / iterations, sink & 1);
+    }
+}
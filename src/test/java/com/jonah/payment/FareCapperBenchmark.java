@@ -0,0 +1,199 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.FareCapper;
+import com.jonah.payment.utils.HashedPan;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays eight service days (Monday to the following Monday) of journeys for 50,000 cards
+ * through a FareCapper with a $12 daily and $40 weekly cap, and compares it with capping by
+ * re-reading each card's charged history on every exit (what a tap_events query would do):
+ * - every charged fare must match the history-based result
+ * - late-night journeys (before the 03:00 service-day start) count towards the previous day
+ * - the rollover pass resets daily totals each day and drops last week's cards on Monday
+ * - reopening the file recovers every card's totals
+ * - a reserved fare counts towards the caps until it is committed or released
+ * - exits keep being capped correctly while the weekly rollover rewrites the file
+ */
+public class FareCapperBenchmark {
+
+    private static final int CARDS = 50_000;
+    private static final int DAYS = 8;
+    private static final int DAILY_CAP_CENTS = 1_200;
+    private static final int WEEKLY_CAP_CENTS = 4_000;
+    private static final LocalTime SERVICE_DAY_START = LocalTime.of(3, 0);
+    private static final LocalDate MONDAY = LocalDate.of(2026, 3, 2);
+
+    /**
+     * A journey already charged, as the history-based reference keeps it.
+     */
+    private static final class Charge {
+        final int serviceDay;
+        final int cents;
+
+        Charge(int serviceDay, int cents) {
+            this.serviceDay = serviceDay;
+            this.cents = cents;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HashedPan[] cards = new HashedPan[CARDS];
+        List<List<Charge>> history = new ArrayList<>(CARDS);
+        for (int i = 0; i < CARDS; i++) {
+            cards[i] = HashedPan.of(String.format("47617390%08d", i));
+            history.add(new ArrayList<>());
+        }
+
+        Path dir = Files.createTempDirectory("fare-caps");
+        Path file = dir.resolve("fare_caps.dat");
+        Random random = new Random(7);
+        long capperNanos = 0;
+        long historyNanos = 0;
+        long journeys = 0;
+
+        FareCapper capper = FareCapper.open(file, CARDS, DAILY_CAP_CENTS / 100.0, WEEKLY_CAP_CENTS / 100.0, SERVICE_DAY_START);
+        try {
+            for (int d = 0; d < DAYS; d++) {
+                LocalDate date = MONDAY.plusDays(d);
+                capper.rollover(date.atTime(SERVICE_DAY_START).plusMinutes(5));
+                if (d == DAYS - 1 && capper.size() != 0) {
+                    throw new IllegalStateException("Weekly rollover kept " + capper.size() + " cards from last week");
+                }
+
+                for (int i = 0; i < CARDS; i++) {
+                    int trips = random.nextInt(6);
+                    for (int j = 0; j < trips; j++) {
+                        // Journeys from 07:00 every 4 hours; the fifth starts at 23:00 and the sixth
+                        // would be at 03:00, so the last trip is moved to 01:30, still the same service day.
+                        LocalDateTime time = j < 5 ? date.atTime(7, 0).plusHours(4L * j) : date.plusDays(1).atTime(1, 30);
+                        int fare = 275 + random.nextInt(176);
+
+                        long start = System.nanoTime();
+                        int charged = capper.applyCents(cards[i], time, fare);
+                        capperNanos += System.nanoTime() - start;
+
+                        start = System.nanoTime();
+                        int expected = chargeFromHistory(history.get(i), d, fare);
+                        historyNanos += System.nanoTime() - start;
+
+                        if (charged != expected) {
+                            throw new IllegalStateException("Card " + i + " day " + d + ": charged " + charged + ", history says " + expected);
+                        }
+                        journeys++;
+                    }
+                }
+            }
+            System.out.printf("✅ %,d journeys over %d days capped identically to a history scan%n", journeys, DAYS);
+            System.out.printf("fare capper              %7.1f ns/exit%n", (double) capperNanos / journeys);
+            System.out.printf("history scan (in memory) %7.1f ns/exit  (a tap_events query per exit is a DB round trip)%n",
+                    (double) historyNanos / journeys);
+            System.out.printf("   %,d bytes on disk for %,d cards, 0 bytes of heap%n", Files.size(file), capper.size());
+            System.out.println("   📊 " + capper.describeMetrics());
+        } finally {
+            capper.close();
+        }
+
+        // Recovery: totals survive a restart.
+        LocalDateTime lastDay = MONDAY.plusDays(DAYS - 1).atTime(12, 0);
+        try (FareCapper reopened = FareCapper.open(file, CARDS, DAILY_CAP_CENTS / 100.0, WEEKLY_CAP_CENTS / 100.0, SERVICE_DAY_START)) {
+            for (int i = 0; i < CARDS; i++) {
+                int daily = 0;
+                for (Charge charge : history.get(i)) {
+                    daily += charge.serviceDay == DAYS - 1 ? charge.cents : 0;
+                }
+                if (reopened.dailyTotalCents(cards[i], lastDay) != daily || reopened.weeklyTotalCents(cards[i], lastDay) != daily) {
+                    throw new IllegalStateException("Card " + i + " totals were not recovered");
+                }
+            }
+            System.out.println("✅ Reopened file recovered " + reopened.size() + " cards' totals");
+
+            checkReservations(reopened, cards[0], lastDay);
+            checkConcurrentRollover(reopened, cards, MONDAY.plusDays(DAYS - 1 + 14).atTime(12, 0));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * A card $10 into its day: two concurrent exits share the remaining $2, and a declined one gives its part back.
+     */
+    private static void checkReservations(FareCapper capper, HashedPan card, LocalDateTime time) throws Exception {
+        LocalDateTime day = time.plusDays(7);
+        capper.applyCents(card, day, 1_000);
+        FareCapper.Reservation first = capper.reserveCents(card, day, 450);
+        FareCapper.Reservation second = capper.reserveCents(card, day, 450);
+        if (first.cents() != 200 || second.cents() != 0 || capper.dailyTotalCents(card, day) != 1_000) {
+            throw new IllegalStateException("Reservations charged " + first.cents() + " and " + second.cents());
+        }
+        capper.release(first);
+        FareCapper.Reservation retry = capper.reserveCents(card, day, 450);
+        capper.release(second);
+        capper.commit(retry);
+        capper.commit(retry);
+        if (retry.cents() != 200 || capper.dailyTotalCents(card, day) != DAILY_CAP_CENTS) {
+            throw new IllegalStateException("Released headroom was not reused: " + retry.cents());
+        }
+        System.out.println("✅ Open reservations count towards the caps; released ones give their headroom back");
+    }
+
+    /**
+     * Charges every card once while another thread runs the weekly rollover, and reports the longest exit.
+     */
+    private static void checkConcurrentRollover(FareCapper capper, HashedPan[] cards, LocalDateTime time) throws Exception {
+        Thread roller = new Thread(() -> {
+            try {
+                capper.rollover(time);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long longest = 0;
+        long rolloverStart = System.nanoTime();
+        roller.start();
+        for (int i = 0; i < CARDS; i++) {
+            long start = System.nanoTime();
+            capper.applyCents(cards[i], time, 300);
+            longest = Math.max(longest, System.nanoTime() - start);
+        }
+        roller.join();
+        long rolloverNanos = System.nanoTime() - rolloverStart;
+
+        for (int i = 0; i < CARDS; i++) {
+            if (capper.weeklyTotalCents(cards[i], time) != 300) {
+                throw new IllegalStateException("Card " + i + " lost a charge made during the rollover");
+            }
+        }
+        System.out.printf("✅ %,d exits during a weekly rollover kept their totals; longest exit %.2f ms (rollover %.1f ms)%n",
+                CARDS, longest / 1e6, rolloverNanos / 1e6);
+    }
+
+    /**
+     * Caps a fare by summing the card's charges for the service day and its week, then records it.
+     */
+    private static int chargeFromHistory(List<Charge> charges, int serviceDay, int fare) {
+        int week = serviceDay / 7;
+        int daily = 0;
+        int weekly = 0;
+        for (Charge charge : charges) {
+            if (charge.serviceDay == serviceDay) {
+                daily += charge.cents;
+            }
+            if (charge.serviceDay / 7 == week) {
+                weekly += charge.cents;
+            }
+        }
+        int charged = Math.max(0, Math.min(fare, Math.min(DAILY_CAP_CENTS - daily, WEEKLY_CAP_CENTS - weekly)));
+        charges.add(new Charge(serviceDay, charged));
+        return charged;
+    }
+}
@@ -0,0 +1,131 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.AccountBasedProcessor;
+import com.jonah.payment.core.FareCalculator;
+import com.jonah.payment.core.FareTable;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.data.TapEvent;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+
+/**
+ * Measures fare evaluation on one thread for a network of 300 terminals in 8 zones with
+ * 4 time-of-day bands and a few hundred station-to-station fares:
+ * - the per-second demonstration fare (original)
+ * - the compiled FareTable, through AccountBasedProcessor.processTapFare
+ * It reports evaluations per second and bytes allocated per evaluation, after checking
+ * bands (including the one wrapping past midnight), pair fares, incomplete journeys and
+ * unknown terminals.
+ */
+public class FareTableBenchmark {
+
+    private static final int TERMINALS = 300;
+    private static final int ZONES = 8;
+    private static final int JOURNEYS = 4_096;
+    private static final int EVALUATIONS = 20_000_000;
+
+    public static void main(String[] args) throws Exception {
+        FareTable table = FareTable.parse(new StringReader(fareTableText()));
+        System.out.println("   📊 " + table.describeMetrics());
+        checkFares(table);
+
+        Random random = new Random(42);
+        TapEvent[] entries = new TapEvent[JOURNEYS];
+        TapEvent[] exits = new TapEvent[JOURNEYS];
+        LocalDateTime day = LocalDate.of(2026, 3, 2).atStartOfDay();
+        for (int i = 0; i < JOURNEYS; i++) {
+            LocalDateTime entered = day.plusMinutes(random.nextInt(24 * 60));
+            entries[i] = tap("T" + random.nextInt(TERMINALS), entered);
+            exits[i] = tap("T" + random.nextInt(TERMINALS), entered.plusMinutes(5 + random.nextInt(60)));
+        }
+
+        measure("per-second fare (original)", new AccountBasedProcessor(), entries, exits);
+        measure("compiled fare table", new AccountBasedProcessor(table), entries, exits);
+    }
+
+    private static void measure(String label, AccountBasedProcessor processor, TapEvent[] entries, TapEvent[] exits) {
+        PaymentRequest payment = new PaymentRequest();
+        double checksum = 0;
+        // Warm up the JIT.
+        for (int i = 0; i < EVALUATIONS / 10; i++) {
+            processor.processTapFare(payment, entries[i % JOURNEYS], exits[i % JOURNEYS]);
+            checksum += payment.getAmount();
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; i++) {
+            processor.processTapFare(payment, entries[i % JOURNEYS], exits[i % JOURNEYS]);
+            checksum += payment.getAmount();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("%-28s %6.1f M fares/s  %6.1f ns/fare  %6.2f bytes allocated/fare  (checksum %.0f)%n",
+                label, EVALUATIONS / (elapsed / 1e9) / 1e6, (double) elapsed / EVALUATIONS,
+                (double) allocated / EVALUATIONS, checksum);
+    }
+
+    private static void checkFares(FareTable table) {
+        LocalDateTime day = LocalDate.of(2026, 3, 2).atStartOfDay();
+        expect(table, tap("T0", day.with(LocalTime.of(8, 15))), tap("T299", day.plusHours(9)), 4.32, "peak, zone 0 to 7");
+        expect(table, tap("T0", day.with(LocalTime.of(12, 0))), tap("T299", day.plusHours(13)), 3.60, "off-peak, zone 0 to 7");
+        expect(table, tap("T0", day.with(LocalTime.of(23, 30))), tap("T299", day.plusDays(1)), 2.70, "night, before midnight");
+        expect(table, tap("T0", day.with(LocalTime.of(2, 10))), tap("T299", day.plusHours(3)), 2.70, "night, after midnight");
+        expect(table, tap("T1", day.with(LocalTime.of(8, 15))), tap("T2", day.plusHours(9)), 1.00, "peak station-to-station fare");
+        expect(table, tap("T1", day.with(LocalTime.of(12, 0))), tap("T2", day.plusHours(13)), 1.00, "off-peak station-to-station fare");
+        expect(table, null, tap("T299", day.plusHours(9)), 4.32, "incomplete journey (highest fare to zone 7)");
+        expect(table, tap("T-NEW", day.with(LocalTime.of(8, 15))), tap("T1", day.plusHours(9)), 4.32, "unknown terminal");
+        System.out.println("✅ Bands, midnight wrap, pair fares, incomplete journeys and unknown terminals priced as expected");
+    }
+
+    private static void expect(FareCalculator calculator, TapEvent enter, TapEvent exit, double expected, String label) {
+        double fare = calculator.calculateFare(enter, exit);
+        if (Math.abs(fare - expected) > 0.001) {
+            throw new IllegalStateException(label + ": expected " + expected + ", got " + fare);
+        }
+    }
+
+    /**
+     * Zone fares of 1.50 + 0.30 per zone crossed, scaled by band; T(3k+1) -> T(3k+2) pair fares of 1.00.
+     */
+    private static String fareTableText() {
+        String[] bands = {"early", "peak", "offpeak", "night"};
+        String[] starts = {"05:00", "07:00", "10:00", "22:00"};
+        double[] scale = {0.9, 1.2, 1.0, 0.75};
+        StringBuilder text = new StringBuilder("# Benchmark network\n");
+        for (int b = 0; b < bands.length; b++) {
+            text.append("band,").append(bands[b]).append(',').append(starts[b]).append('\n');
+        }
+        for (int t = 0; t < TERMINALS; t++) {
+            text.append("terminal,T").append(t).append(",Z").append(t * ZONES / TERMINALS).append('\n');
+        }
+        for (int b = 0; b < bands.length; b++) {
+            for (int from = 0; from < ZONES; from++) {
+                for (int to = 0; to < ZONES; to++) {
+                    double fare = Math.round((1.50 + 0.30 * Math.abs(from - to)) * scale[b] * 100) / 100.0;
+                    text.append(String.format("fare,%s,Z%d,Z%d,%.2f%n", bands[b], from, to, fare));
+                }
+            }
+            for (int t = 1; t + 1 < TERMINALS; t += 3) {
+                text.append(String.format("pair,%s,T%d,T%d,1.00%n", bands[b], t, t + 1));
+            }
+        }
+        return text.toString();
+    }
+
+    private static TapEvent tap(String terminalId, LocalDateTime time) {
+        TapEvent tap = new TapEvent();
+        tap.setTerminalId(terminalId);
+        tap.setTimestamp(time);
+        return tap;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,106 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.IngressDeduplicator;
+import com.jonah.payment.data.PaymentResponse;
+import com.jonah.payment.data.TapEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a peak surge through IngressDeduplicator with a stand-in for the tap processing path
+ * (2 ms of "database and acquirer" work per processed tap):
+ * - 20,000 riders, of whom 15% double-tap and 10% have their tap retried by the terminal
+ * - duplicates arrive while the original is still in flight, so they must wait for it
+ * It checks every rider is processed exactly once and every duplicate receives its original's
+ * response, then that a 5xx response is not cached so the terminal's retry is processed again.
+ */
+public class IngressDeduplicatorBenchmark {
+
+    private static final int RIDERS = 20_000;
+    private static final long WORK_MS = 2;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(64);
+        AtomicInteger processed = new AtomicInteger();
+
+        try (IngressDeduplicator deduplicator = new IngressDeduplicator(Duration.ofSeconds(10))) {
+            List<TapEvent> taps = new ArrayList<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < RIDERS; i++) {
+                String pan = String.format("47617390%08d", i);
+                taps.add(tap(pan, "TERM-" + i % 40, "CRYPT-" + i));
+                double roll = random.nextDouble();
+                if (roll < 0.15) {
+                    taps.add(tap(pan, "TERM-" + i % 40, "CRYPT-" + i + "-again")); // Double tap: new cryptogram
+                } else if (roll < 0.25) {
+                    taps.add(tap(pan, "TERM-" + i % 40, "CRYPT-" + i));           // Terminal retry: same cryptogram
+                }
+            }
+
+            long start = System.nanoTime();
+            List<CompletableFuture<PaymentResponse>> responses = new ArrayList<>(taps.size());
+            for (TapEvent tap : taps) {
+                responses.add(deduplicator.submit(tap, () -> CompletableFuture.supplyAsync(() -> {
+                    processed.incrementAndGet();
+                    sleep(WORK_MS);
+                    // Decision derived from the cryptogram, so a duplicate processed again would differ.
+                    return new PaymentResponse(202, "Accepted " + tap.getCryptogram());
+                }, workers)));
+            }
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            for (int i = 0; i < taps.size(); i++) {
+                String status = responses.get(i).join().getStatus();
+                String original = "CRYPT-" + taps.get(i).getCryptogram().split("-")[1];
+                if (!status.equals("Accepted " + original)) {
+                    throw new IllegalStateException("Tap " + i + " got " + status);
+                }
+            }
+            if (processed.get() != RIDERS) {
+                throw new IllegalStateException("Processed " + processed.get() + " taps for " + RIDERS + " riders");
+            }
+            System.out.printf("✅ %,d taps from %,d riders: processed %,d, saved %,d DB/acquirer round trips (%d ms)%n",
+                    taps.size(), RIDERS, processed.get(), taps.size() - processed.get(), elapsedMs);
+            System.out.println("   📊 " + deduplicator.describeMetrics());
+
+            // A server error is returned to waiting duplicates but not kept.
+            TapEvent failing = tap("4761739001019999", "TERM-X", "CRYPT-X");
+            deduplicator.submit(failing, () -> CompletableFuture.completedFuture(new PaymentResponse(500, "Server Error"))).join();
+            PaymentResponse retried = deduplicator.submit(failing,
+                    () -> CompletableFuture.completedFuture(new PaymentResponse(202, "Accepted"))).join();
+            if (retried.getHttpStatus() != 202) {
+                throw new IllegalStateException("Retry after a server error was not processed again");
+            }
+            System.out.println("✅ Retry after a 5xx was processed again");
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static TapEvent tap(String pan, String terminal, String cryptogram) {
+        TapEvent tap = new TapEvent();
+        tap.setPan(pan);
+        tap.setTerminalId(terminal);
+        tap.setCryptogram(cryptogram);
+        tap.setMode("entry");
+        return tap;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
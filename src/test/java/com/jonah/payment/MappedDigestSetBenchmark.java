@@ -0,0 +1,100 @@
+package com.jonah.payment;
+
+import com.jonah.payment.utils.MappedDigestSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the off-heap seen-card set against an on-heap HashSet of Base64 strings:
+ * per-lookup latency and allocation, heap used by the populated set, and reopening
+ * the file after a "restart".
+ *
+ * Usage: MappedDigestSetBenchmark [cards]   (default 5,000,000)
+ */
+public class MappedDigestSetBenchmark {
+
+    private static final int LOOKUPS = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int cards = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Path file = Files.createTempFile("seen-cards", ".set");
+        Files.delete(file);
+
+        // Start small so the benchmark also exercises growth.
+        long heapBefore = usedHeap(memory);
+        long start = System.nanoTime();
+        try (MappedDigestSet set = MappedDigestSet.open(file, 1_000)) {
+            for (int i = 0; i < cards; i++) {
+                set.add(digest(i));
+            }
+            System.out.printf("📥 Inserted %,d digests in %d ms (%s)%n",
+                    cards, (System.nanoTime() - start) / 1_000_000, set.describeMetrics());
+            System.out.printf("🧠 Heap growth with off-heap set: %,d KB%n", (usedHeap(memory) - heapBefore) / 1024);
+
+            // Half hits, half misses; digests are prepared up front so only the set is measured.
+            byte[][] probes = new byte[1024][];
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = digest(i % 2 == 0 ? i * 7 % cards : cards + i);
+            }
+            int hits = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (set.contains(probes[i & 1023])) hits++;
+            }
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (set.contains(probes[i & 1023])) hits++;
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            System.out.printf("%-22s %8.1f ns/lookup %6d bytes/lookup (hits=%d)%n",
+                    "MappedDigestSet", (double) elapsed / LOOKUPS, allocated / LOOKUPS, hits);
+        }
+
+        // Reopen as after a restart: no reload, every digest still present.
+        start = System.nanoTime();
+        try (MappedDigestSet set = MappedDigestSet.open(file, 1_000)) {
+            int missing = 0;
+            for (int i = 0; i < cards; i += 997) {
+                if (!set.contains(digest(i))) missing++;
+            }
+            System.out.printf("🔁 Reopened in %d ms: size=%,d missing=%d%n",
+                    (System.nanoTime() - start) / 1_000_000, set.size(), missing);
+        }
+        Files.deleteIfExists(file);
+
+        // On-heap baseline: the same digests as Base64 strings in a HashSet.
+        heapBefore = usedHeap(memory);
+        Set<String> heapSet = new HashSet<>();
+        for (int i = 0; i < cards; i++) {
+            heapSet.add(java.util.Base64.getEncoder().encodeToString(digest(i)));
+        }
+        System.out.printf("🧠 Heap growth with HashSet<String>: %,d KB (size=%,d)%n",
+                (usedHeap(memory) - heapBefore) / 1024, heapSet.size());
+    }
+
+    /**
+     * Deterministic pseudo-random 32-byte digest for card i.
+     */
+    private static byte[] digest(int i) {
+        byte[] digest = new byte[MappedDigestSet.DIGEST_BYTES];
+        new Random(i * 0x9E3779B97F4A7C15L).nextBytes(digest);
+        return digest;
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
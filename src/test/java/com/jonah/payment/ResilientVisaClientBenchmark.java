@@ -0,0 +1,191 @@
+package com.jonah.payment;
+
+import com.jonah.payment.data.CardData;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.network.AcquirerResponse;
+import com.jonah.payment.network.AsyncVisaClientInterface;
+import com.jonah.payment.network.ResilienceOptions;
+import com.jonah.payment.network.ResilientVisaClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exercises ResilientVisaClient against a fault-injecting in-process acquirer stand-in:
+ * - slow tail: 5% of calls take 300 ms; hedging should pull p99 down to about p95 + fast path
+ * - transient errors: 30% of calls return 503; retries should recover most of them
+ * - outage: every call stalls; taps end at the deadline, then the breaker opens and fails fast
+ * - recovery: once the stand-in is healthy, a half-open probe closes the circuit
+ * - authorizations: never retried or hedged, so each one reaches the stand-in exactly once
+ * No outcome in any scenario may be a decline, since the stand-in never declines.
+ */
+public class ResilientVisaClientBenchmark {
+
+    private static final int CALLS = 2_000;
+
+    /**
+     * Acquirer stand-in with configurable latency, tail latency, error rate and stalls.
+     */
+    static final class FaultInjectingVisaClient implements AsyncVisaClientInterface {
+        private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, r -> {
+            Thread t = new Thread(r, "fault-injector");
+            t.setDaemon(true);
+            return t;
+        });
+        volatile long latencyMs = 5;
+        volatile double tailRate = 0;
+        volatile long tailLatencyMs = 300;
+        volatile double errorRate = 0;
+        volatile boolean stalled = false;
+        final AtomicLong authorizations = new AtomicLong();
+
+        @Override
+        public CompletableFuture<AcquirerResponse> sendAVRAsync(PaymentRequest request) {
+            return respond();
+        }
+
+        @Override
+        public CompletableFuture<AcquirerResponse> sendAuthorizationAsync(PaymentRequest request) {
+            authorizations.incrementAndGet();
+            return respond();
+        }
+
+        private CompletableFuture<AcquirerResponse> respond() {
+            long start = System.nanoTime();
+            CompletableFuture<AcquirerResponse> future = new CompletableFuture<>();
+            if (stalled) {
+                return future; // Never completes, like a hung TCP connection.
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = random.nextDouble() < tailRate ? tailLatencyMs : latencyMs;
+            int status = random.nextDouble() < errorRate ? 503 : 200;
+            timer.schedule(() -> future.complete(AcquirerResponse.fromStatus(status, start)), delay, TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PaymentRequest request = new PaymentRequest();
+        CardData card = new CardData();
+        card.setPan("4761739001010010");
+        request.setCardData(card);
+
+        ResilienceOptions options = new ResilienceOptions();
+        options.deadlineMs = 500;
+        options.attemptTimeoutMs = 400;
+        options.breakerOpenMs = 1_000;
+
+        // Slow tail, without and with hedging.
+        FaultInjectingVisaClient standIn = new FaultInjectingVisaClient();
+        standIn.tailRate = 0.05;
+        options.hedgePercentile = 0;
+        try (ResilientVisaClient client = new ResilientVisaClient(standIn, options)) {
+            run("slow tail, no hedging", client, request);
+        }
+        options.hedgePercentile = 0.9;
+        try (ResilientVisaClient client = new ResilientVisaClient(standIn, options)) {
+            run("slow tail, p90 hedging", client, request);
+        }
+
+        // Transient 503s, without and with retries.
+        standIn.tailRate = 0;
+        standIn.errorRate = 0.3;
+        options.hedgePercentile = 0;
+        options.breakerFailureThreshold = 1_000; // Isolate retries from the breaker.
+        options.maxRetries = 0;
+        try (ResilientVisaClient client = new ResilientVisaClient(standIn, options)) {
+            run("30% errors, no retries", client, request);
+        }
+        options.maxRetries = 2;
+        options.retryBackoffMs = 5;
+        try (ResilientVisaClient client = new ResilientVisaClient(standIn, options)) {
+            run("30% errors, 2 retries", client, request);
+        }
+
+        // Outage and recovery.
+        standIn.errorRate = 0;
+        options.breakerFailureThreshold = 5;
+        try (ResilientVisaClient client = new ResilientVisaClient(standIn, options)) {
+            standIn.stalled = true;
+            run("stalled acquirer", client, request);
+            System.out.println("🔌 Circuit after outage: " + client.getCircuitState());
+
+            standIn.stalled = false;
+            Thread.sleep(options.breakerOpenMs + 100);
+            AcquirerResponse probe = client.sendAVRAsync(request).join();
+            System.out.println("🔌 Half-open probe: " + probe + " -> circuit " + client.getCircuitState());
+            run("recovered acquirer", client, request);
+        }
+
+        // Authorizations against a slow, failing acquirer with retries and hedging enabled.
+        standIn.tailRate = 0.05;
+        standIn.errorRate = 0.3;
+        options.hedgePercentile = 0.9;
+        options.hedgeMinSamples = 0;
+        options.breakerFailureThreshold = 1_000;
+        try (ResilientVisaClient client = new ResilientVisaClient(standIn, options)) {
+            List<CompletableFuture<AcquirerResponse>> futures = new ArrayList<>(CALLS);
+            for (int i = 0; i < CALLS; i++) {
+                futures.add(client.sendAuthorizationAsync(request));
+            }
+            futures.forEach(CompletableFuture::join);
+            if (standIn.authorizations.get() != CALLS) {
+                throw new IllegalStateException(standIn.authorizations.get() + " authorizations sent for " + CALLS + " taps");
+            }
+            System.out.println("✅ " + CALLS + " authorizations sent once each despite retries and hedging being enabled");
+        }
+    }
+
+    private static void run(String label, ResilientVisaClient client, PaymentRequest request) {
+        List<CompletableFuture<AcquirerResponse>> futures = new ArrayList<>(CALLS);
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(client.sendAVRAsync(request));
+            if (i % 50 == 49) {
+                // Spread calls out so the latency window reflects steady traffic.
+                sleep(5);
+            }
+        }
+
+        long[] latencies = new long[CALLS];
+        int approved = 0, declined = 0, errors = 0;
+        for (int i = 0; i < CALLS; i++) {
+            AcquirerResponse response = futures.get(i).join();
+            latencies[i] = response.getLatencyNanos();
+            switch (response.getOutcome()) {
+                case APPROVED -> approved++;
+                case DECLINED -> declined++;
+                case ERROR -> errors++;
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        Arrays.sort(latencies);
+
+        System.out.printf("%-24s approved=%5d declined=%d errors=%5d p50=%6.1f ms p99=%6.1f ms max=%6.1f ms (%d ms)%n",
+                label, approved, declined, errors, percentileMs(latencies, 0.50), percentileMs(latencies, 0.99),
+                latencies[CALLS - 1] / 1e6, elapsedMs);
+        System.out.println("   📊 " + client.describeMetrics());
+        if (declined > 0) {
+            throw new IllegalStateException("Failures must never surface as declines");
+        }
+    }
+
+    private static double percentileMs(long[] sorted, double p) {
+        return sorted[(int) Math.ceil(p * sorted.length) - 1] / 1e6;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.OracleConnectionPool;
+import com.jonah.payment.core.OracleConnector;
+import com.jonah.payment.data.SchemaInitializer;
+import com.jonah.payment.data.SchemaOptions;
+import com.jonah.payment.data.TapEventDAO;
+import com.jonah.payment.utils.CryptoUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Loads synthetic ridership history into tap_events and measures exit-tap lookup latency
+ * (TapEventDAO.findMostRecentUnmatchedEntry) as the table grows to 10M+ rows.
+ *
+ * Usage: TapEventsScaleBenchmark [baseline|indexed|partitioned] [targetRows]
+ * "partitioned" enables both the covering index and interval partitioning.
+ * WARNING: resets the schema of the configured Oracle database.
+ */
+public class TapEventsScaleBenchmark {
+
+    private static final int CARDS = 200_000;
+    private static final int BATCH = 10_000;
+    private static final int LOOKUPS = 2_000;
+    private static final long[] CHECKPOINTS = {100_000, 1_000_000, 10_000_000, 20_000_000};
+
+    public static void main(String[] args) throws Exception {
+        String layout = args.length > 0 ? args[0] : "indexed";
+        long targetRows = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000;
+        SchemaOptions options = new SchemaOptions(!layout.equals("baseline"), layout.equals("partitioned"));
+
+        try (OracleConnectionPool pool = new OracleConnectionPool("bench", OracleConnector::getConnection, 4, 10_000, 0, 16)) {
+            try (Connection conn = pool.getConnection()) {
+                SchemaInitializer.setupSchema(conn, true, options);
+            }
+
+            // Raw PANs for lookups and their stored (hashed) form for loading.
+            String[] pans = new String[CARDS];
+            String[] hashed = new String[CARDS];
+            for (int i = 0; i < CARDS; i++) {
+                pans[i] = String.format("4%015d", i);
+                hashed[i] = CryptoUtils.hashPAN(pans[i]);
+            }
+
+            System.out.printf("📈 Layout=%s target=%,d rows%n", layout, targetRows);
+            TapEventDAO dao = new TapEventDAO(pool);
+            Random random = new Random(42);
+            long loaded = 0;
+            for (long checkpoint : CHECKPOINTS) {
+                if (checkpoint > targetRows) {
+                    break;
+                }
+                long start = System.nanoTime();
+                loaded = load(pool, hashed, random, loaded, checkpoint);
+                gatherStats(pool);
+                System.out.printf("Loaded %,d rows in %d s%n", loaded, (System.nanoTime() - start) / 1_000_000_000);
+                measure(dao, pans, random, loaded);
+            }
+        }
+    }
+
+    /**
+     * Inserts journeys (entry + matched exit) up to the target row count. About 2% of
+     * entries are left open, and tap times span the last year so many partitions exist.
+     */
+    private static long load(OracleConnectionPool pool, String[] hashed, Random random, long loaded, long target) throws Exception {
+        String sql = "INSERT INTO tap_events (pan, terminal_id, cryptogram, tap_time, approved, enter_or_exit, matched_exit_time)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?)";
+        LocalDateTime now = LocalDateTime.now();
+
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int inBatch = 0;
+                while (loaded < target) {
+                    String pan = hashed[random.nextInt(hashed.length)];
+                    LocalDateTime entry = now.minusMinutes(random.nextInt(365 * 24 * 60));
+                    LocalDateTime exit = entry.plusMinutes(5 + random.nextInt(60));
+                    boolean open = random.nextInt(50) == 0;
+
+                    bind(stmt, pan, "GATE_" + random.nextInt(100), entry, "entry", open ? null : exit);
+                    stmt.addBatch();
+                    bind(stmt, pan, "GATE_99", exit, "exit", null);
+                    stmt.addBatch();
+                    loaded += 2;
+                    inBatch += 2;
+
+                    if (inBatch >= BATCH) {
+                        stmt.executeBatch();
+                        conn.commit();
+                        inBatch = 0;
+                    }
+                }
+                stmt.executeBatch();
+                conn.commit();
+            }
+        }
+        return loaded;
+    }
+
+    private static void bind(PreparedStatement stmt, String pan, String terminal, LocalDateTime time,
+                             String mode, LocalDateTime matched) throws Exception {
+        stmt.setString(1, pan);
+        stmt.setString(2, terminal);
+        stmt.setString(3, "CRYPT");
+        stmt.setTimestamp(4, Timestamp.valueOf(time));
+        stmt.setString(5, "Y");
+        stmt.setString(6, mode);
+        stmt.setTimestamp(7, matched == null ? null : Timestamp.valueOf(matched));
+    }
+
+    private static void gatherStats(OracleConnectionPool pool) throws Exception {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("BEGIN DBMS_STATS.GATHER_TABLE_STATS(USER, 'TAP_EVENTS', cascade => TRUE); END;");
+        }
+    }
+
+    private static void measure(TapEventDAO dao, String[] pans, Random random, long rows) throws Exception {
+        // Warm up the cursor and buffer cache before timing.
+        for (int i = 0; i < 200; i++) {
+            dao.findMostRecentUnmatchedEntry(pans[random.nextInt(pans.length)]);
+        }
+
+        long[] micros = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            long start = System.nanoTime();
+            dao.findMostRecentUnmatchedEntry(pans[random.nextInt(pans.length)]);
+            micros[i] = (System.nanoTime() - start) / 1_000;
+        }
+        Arrays.sort(micros);
+        System.out.printf("%,12d rows | exit lookup p50 %6d µs | p95 %6d µs | p99 %6d µs%n",
+                rows, micros[LOOKUPS / 2], micros[(int) (LOOKUPS * 0.95)], micros[(int) (LOOKUPS * 0.99)]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.XMLParser;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.network.AcquirerSimulator;
+import com.jonah.payment.utils.ThreadUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Side-by-side benchmark of the tap processing path on platform threads (a Tomcat-sized
+ * fixed pool) versus one virtual thread per tap. Each tap parses the XML, performs three
+ * simulated Oracle round trips and calls the simulator acquirer behind a simulated network delay.
+ */
+public class VirtualThreadBenchmark {
+
+    private static final int TAPS = 5_000;
+    private static final int PLATFORM_THREADS = 200;   // Tomcat's default maxThreads
+    private static final long DB_ROUND_TRIP_MS = 2;
+    private static final long ACQUIRER_LATENCY_MS = 40;
+
+    private static final String XML = """
+            <PaymentRequest>
+                <TerminalId>GATE_01</TerminalId>
+                <CardData>
+                    <PAN>4761739001010010</PAN>
+                    <Expiry>12/25</Expiry>
+                    <AID>A0000000031010</AID>
+                    <Cryptogram>CRYPT1</Cryptogram>
+                </CardData>
+                <Amount>0.00</Amount>
+                <Currency>USD</Currency>
+                <Mode>entry</Mode>
+            </PaymentRequest>
+            """;
+
+    public static void main(String[] args) throws Exception {
+        AcquirerSimulator acquirer = new AcquirerSimulator(false);
+        System.out.println("🧵 Virtual threads supported: " + ThreadUtils.virtualThreadsSupported());
+
+        // Warm up JAXB and the JIT before measuring.
+        run("warm-up", Executors.newFixedThreadPool(PLATFORM_THREADS), acquirer, 500);
+
+        run("platform (" + PLATFORM_THREADS + " threads)", Executors.newFixedThreadPool(PLATFORM_THREADS), acquirer, TAPS);
+        run("virtual (thread per tap)", ThreadUtils.newVirtualThreadPerTaskExecutor(), acquirer, TAPS);
+    }
+
+    private static void run(String label, ExecutorService executor, AcquirerSimulator acquirer, int taps) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long[] latencies = new long[taps];
+        CountDownLatch done = new CountDownLatch(taps);
+
+        // Silence the simulator's per-tap logging while measuring.
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < taps; i++) {
+            int index = i;
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    processTap(acquirer);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    latencies[index] = System.nanoTime() - submitted;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        System.setOut(out);
+        Arrays.sort(latencies);
+        System.out.printf("%-28s %6d taps in %6d ms | %8.0f taps/s | p50 %5d ms | p99 %5d ms | peak platform threads %d%n",
+                label, taps, elapsed / 1_000_000, taps / (elapsed / 1e9),
+                latencies[taps / 2] / 1_000_000, latencies[(int) (taps * 0.99)] / 1_000_000,
+                threads.getPeakThreadCount());
+    }
+
+    private static void processTap(AcquirerSimulator acquirer) throws Exception {
+        PaymentRequest request = XMLParser.fromXml(XML);
+
+        // tap_events insert, seen_cards lookup and denylist lookup.
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(DB_ROUND_TRIP_MS);
+        }
+
+        Thread.sleep(ACQUIRER_LATENCY_MS);
+        acquirer.sendAVR(request);
+    }
+}
@@ -0,0 +1,125 @@
+package com.jonah.payment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jonah.payment.data.CardData;
+import com.jonah.payment.data.PaymentRequest;
+import com.jonah.payment.network.VisaRequestSerializer;
+
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Measures per-request cost of building the Visa authorization body:
+ * - the original path: ObjectNode tree, String.format amount, pretty printer, String body publisher
+ * - the streaming path: VisaRequestSerializer into a pooled buffer, copied into a byte-array body publisher
+ * It first checks that both paths produce the same JSON document, including amounts whose
+ * rounding is easy to get wrong (1.005, 8.325, negatives and -0.0), against String.format.
+ */
+public class VisaRequestSerializerBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final double[] AMOUNTS = {0.00, 2.75, 42.50, 1234.00};
+    private static final double[] ROUNDING_AMOUNTS = {1.005, 8.325, 2.675, 0.125, 4.32, 0.07, -1.005, -0.001, -0.0, 1e13 + 0.5, 1e20};
+
+    private interface Op {
+        int run(PaymentRequest request) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PaymentRequest request = new PaymentRequest();
+        CardData card = new CardData();
+        card.setPan("4761739001010010");
+        card.setAid("A0000000031010");
+        card.setCryptogram("CRYPT1");
+        request.setCardData(card);
+
+        VisaRequestSerializer serializer = new VisaRequestSerializer();
+        for (double amount : AMOUNTS) {
+            request.setAmount(amount);
+            if (!MAPPER.readTree(legacyBody(request)).equals(MAPPER.readTree(serializer.serialize(request)))) {
+                throw new IllegalStateException("Payload mismatch for amount " + amount);
+            }
+        }
+        System.out.println("   " + new String(serializer.serialize(request), StandardCharsets.UTF_8));
+        for (double amount : ROUNDING_AMOUNTS) {
+            checkAmount(serializer, request, amount);
+        }
+        Random random = new Random(19);
+        for (int i = 0; i < 100_000; i++) {
+            checkAmount(serializer, request, random.nextInt(1_000_000) / 1000.0);
+        }
+        System.out.println("✅ Streaming payload matches the ObjectNode payload, amounts match String.format(\"%.2f\")");
+
+        measure("ObjectNode + pretty (original)", r -> {
+            String json = legacyBody(r);
+            return (int) HttpRequest.BodyPublishers.ofString(json).contentLength();
+        });
+        measure("streaming + byte publisher", r -> {
+            byte[] body = serializer.serialize(r);
+            return (int) HttpRequest.BodyPublishers.ofByteArray(body).contentLength();
+        });
+    }
+
+    private static void checkAmount(VisaRequestSerializer serializer, PaymentRequest request, double amount) throws Exception {
+        request.setAmount(amount);
+        String written = MAPPER.readTree(serializer.serialize(request)).get("amount").asText();
+        String expected = String.format("%.2f", amount);
+        if (!written.equals(expected)) {
+            throw new IllegalStateException("Amount " + amount + " written as " + written + ", String.format gives " + expected);
+        }
+    }
+
+    /**
+     * The original VisaClient.buildVisaRequest implementation.
+     */
+    private static String legacyBody(PaymentRequest req) throws Exception {
+        CardData card = req.getCardData();
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("primaryAccountNumber", card.getPan());
+        root.put("amount", String.format("%.2f", req.getAmount()));
+        root.put("currencyCode", "392");
+        root.put("retrievalReferenceNumber", "123456789012");
+        root.put("systemTraceAuditNumber", 123456);
+
+        ObjectNode emv = MAPPER.createObjectNode();
+        emv.put("applicationIdentifier", card.getAid());
+        emv.put("applicationCryptogram", card.getCryptogram());
+        root.set("emv", emv);
+
+        return MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+    }
+
+    private static void measure(String label, Op op) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        PaymentRequest request = new PaymentRequest();
+        CardData card = new CardData();
+        card.setPan("4761739001010010");
+        card.setAid("A0000000031010");
+        card.setCryptogram("CRYPT1");
+        request.setCardData(card);
+        int iterations = 500_000;
+        int sink = 0;
+
+        // Warm up the JIT with the same number of iterations.
+        for (int i = 0; i < iterations; i++) {
+            request.setAmount(AMOUNTS[i & 3]);
+            sink += op.run(request);
+        }
+
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            request.setAmount(AMOUNTS[i & 3]);
+            sink += op.run(request);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        System.out.printf("%-32s %8.0f ns/request %8d bytes/request (%d)%n",
+                label, (double) elapsed / iterations, allocated / iterations, sink & 1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.jonah.payment;
+
+import com.jonah.payment.core.XMLParser;
+import com.jonah.payment.data.PaymentRequest;
+
+import jakarta.xml.bind.JAXBContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures per-tap parse latency and allocation for:
+ * - the original path: readAllBytes into a String, then a new JAXBContext per request
+ * - the cached JAXB path: shared context and pooled unmarshallers over a String copy
+ * - the StAX path: streaming straight from the request InputStream
+ */
+public class XMLParserBenchmark {
+
+    private static final byte[] BODY = """
+            <PaymentRequest>
+                <TerminalId>GATE_01</TerminalId>
+                <CardData>
+                    <PAN>4761739001010010</PAN>
+                    <Expiry>12/25</Expiry>
+                    <AID>A0000000031010</AID>
+                    <Cryptogram>CRYPT1</Cryptogram>
+                </CardData>
+                <Amount>0.00</Amount>
+                <Currency>USD</Currency>
+                <EntryMode>07</EntryMode>
+                <POSConditionCode>00</POSConditionCode>
+                <TVR>8000008000</TVR>
+                <TerminalType>3</TerminalType>
+                <TerminalCapability>8</TerminalCapability>
+                <CardholderVerification>3</CardholderVerification>
+                <MessageReasonCode>5206</MessageReasonCode>
+                <Mode>entry</Mode>
+            </PaymentRequest>
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private interface Parser {
+        PaymentRequest parse(InputStream body) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        measure("JAXBContext per request", 2_000, body -> {
+            String xml = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+            JAXBContext context = JAXBContext.newInstance(PaymentRequest.class);
+            return (PaymentRequest) context.createUnmarshaller().unmarshal(new StringReader(xml));
+        });
+        measure("cached JAXB (String copy)", 200_000, body ->
+                XMLParser.fromXml(new String(body.readAllBytes(), StandardCharsets.UTF_8)));
+        measure("StAX streaming", 200_000, XMLParser::fromXml);
+    }
+
+    private static void measure(String label, int iterations, Parser parser) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warm up the JIT with the same number of iterations.
+        for (int i = 0; i < iterations; i++) {
+            check(parser.parse(new ByteArrayInputStream(BODY)));
+        }
+
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            check(parser.parse(new ByteArrayInputStream(BODY)));
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        System.out.printf("%-28s %10.0f ns/tap %10d bytes/tap%n",
+                label, (double) elapsed / iterations, allocated / iterations);
+    }
+
+    private static void check(PaymentRequest request) {
+        if (!"4761739001010010".equals(request.getCardData().getPan()) || !"entry".equals(request.getMode())) {
+            throw new IllegalStateException("Parsed request does not match input");
+        }
+    }
+}
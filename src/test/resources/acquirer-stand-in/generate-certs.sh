@@ -0,0 +1,28 @@
+#!/bin/sh
+# Generates the test PKI used by AcquirerStandInServer and the load tests:
+# a local CA, a server certificate for localhost and a client certificate,
+# as PEM files in the layout VisaSSLContextLoader reads (PKCS#8 RSA keys).
+# For local testing only; never trust this CA outside a test JVM.
+set -e
+cd "$(dirname "$0")"
+DAYS=3650
+
+openssl req -x509 -newkey rsa:2048 -nodes -days $DAYS -subj "/CN=Acquirer Stand-in Test CA" \
+    -keyout ca.key -out ca.pem \
+    -addext "basicConstraints=critical,CA:TRUE" -addext "keyUsage=critical,keyCertSign,cRLSign"
+
+issue() {
+    name=$1; subject=$2; extensions=$3
+    openssl genpkey -algorithm RSA -pkeyopt rsa_keygen_bits:2048 -out "$name.key"
+    openssl req -new -key "$name.key" -subj "$subject" -out "$name.csr"
+    printf '%s\n' "$extensions" > "$name.ext"
+    openssl x509 -req -in "$name.csr" -CA ca.pem -CAkey ca.key -CAcreateserial -days $DAYS \
+        -extfile "$name.ext" -out "$name.pem"
+    rm "$name.csr" "$name.ext"
+}
+
+issue server "/CN=localhost" "subjectAltName=DNS:localhost,IP:127.0.0.1
+extendedKeyUsage=serverAuth"
+issue client "/CN=Payment Processor Test Client" "extendedKeyUsage=clientAuth"
+
+rm -f ca.key ca.srl